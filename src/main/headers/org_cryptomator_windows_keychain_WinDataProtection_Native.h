@@ -23,6 +23,30 @@ JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtec
 JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_unprotect
   (JNIEnv *, jobject, jbyteArray, jbyteArray);
 
+/*
+ * Class:     org_cryptomator_windows_keychain_WinDataProtection_Native
+ * Method:    protectBuffer
+ * Signature: (Ljava/nio/ByteBuffer;[B)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_protectBuffer
+  (JNIEnv *, jobject, jobject, jbyteArray);
+
+/*
+ * Class:     org_cryptomator_windows_keychain_WinDataProtection_Native
+ * Method:    protectAll
+ * Signature: ([[B[[B)[[B
+ */
+JNIEXPORT jobjectArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_protectAll
+  (JNIEnv *, jobject, jobjectArray, jobjectArray);
+
+/*
+ * Class:     org_cryptomator_windows_keychain_WinDataProtection_Native
+ * Method:    unprotectAll
+ * Signature: ([[B[[B)[[B
+ */
+JNIEXPORT jobjectArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_unprotectAll
+  (JNIEnv *, jobject, jobjectArray, jobjectArray);
+
 #ifdef __cplusplus
 }
 #endif
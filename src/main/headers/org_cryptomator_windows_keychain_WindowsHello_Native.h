@@ -7,6 +7,8 @@
 #ifdef __cplusplus
 extern "C" {
 #endif
+#undef org_cryptomator_windows_keychain_WindowsHello_Native_NOT_CANCELLABLE
+#define org_cryptomator_windows_keychain_WindowsHello_Native_NOT_CANCELLABLE 0LL
 /*
  * Class:     org_cryptomator_windows_keychain_WindowsHello_Native
  * Method:    isSupported
@@ -18,18 +20,42 @@ JNIEXPORT jboolean JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00
 /*
  * Class:     org_cryptomator_windows_keychain_WindowsHello_Native
  * Method:    encrypt
- * Signature: ([B[B[B)[B
+ * Signature: (J[B[B[B)[B
  */
 JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_encrypt
-  (JNIEnv *, jobject, jbyteArray, jbyteArray, jbyteArray);
+  (JNIEnv *, jobject, jlong, jbyteArray, jbyteArray, jbyteArray);
 
 /*
  * Class:     org_cryptomator_windows_keychain_WindowsHello_Native
  * Method:    decrypt
- * Signature: ([B[B[B)[B
+ * Signature: (J[B[B[B)[B
  */
 JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_decrypt
-  (JNIEnv *, jobject, jbyteArray, jbyteArray, jbyteArray);
+  (JNIEnv *, jobject, jlong, jbyteArray, jbyteArray, jbyteArray);
+
+/*
+ * Class:     org_cryptomator_windows_keychain_WindowsHello_Native
+ * Method:    begin
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_begin
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_cryptomator_windows_keychain_WindowsHello_Native
+ * Method:    end
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_end
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     org_cryptomator_windows_keychain_WindowsHello_Native
+ * Method:    cancel
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_cancel
+  (JNIEnv *, jobject, jlong);
 
 #ifdef __cplusplus
 }
@@ -6,6 +6,7 @@ import org.cryptomator.integrations.uiappearance.UiAppearanceProvider;
 import org.cryptomator.windows.autostart.WindowsAutoStart;
 import org.cryptomator.windows.keychain.WindowsHelloKeychainAccess;
 import org.cryptomator.windows.keychain.WindowsProtectedKeychainAccess;
+import org.cryptomator.windows.keychain.metrics.KeychainMetricsListener;
 import org.cryptomator.windows.quickaccess.ExplorerQuickAccessService;
 import org.cryptomator.windows.revealpath.ExplorerRevealPathService;
 import org.cryptomator.windows.uiappearance.WinUiAppearanceProvider;
@@ -15,10 +16,15 @@ module org.cryptomator.integrations.win {
 	requires org.slf4j;
 	requires com.fasterxml.jackson.annotation;
 	requires com.fasterxml.jackson.databind;
+	requires jdk.jfr;
+
+	exports org.cryptomator.windows.keychain.metrics;
 
 	opens org.cryptomator.windows.keychain to com.fasterxml.jackson.databind;
 	opens org.cryptomator.windows.quickaccess to org.cryptomator.integrations.api;
 
+	uses KeychainMetricsListener;
+
 	provides AutoStartProvider with WindowsAutoStart;
 	provides KeychainAccessProvider with WindowsProtectedKeychainAccess, WindowsHelloKeychainAccess;
 	provides UiAppearanceProvider with WinUiAppearanceProvider;
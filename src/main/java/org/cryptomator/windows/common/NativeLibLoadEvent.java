@@ -0,0 +1,25 @@
+package org.cryptomator.windows.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event spanning the extraction and loading of the native library by {@link NativeLibLoader#loadLib()}.
+ */
+@Name("org.cryptomator.windows.common.NativeLibLoad")
+@Label("Native Library Load")
+@Description("Native library extracted to a temporary file and loaded")
+@Category({"Cryptomator", "Native"})
+@StackTrace(false)
+final class NativeLibLoadEvent extends jdk.jfr.Event {
+
+	@Label("Library")
+	String library;
+
+	@Label("Succeeded")
+	boolean succeeded;
+
+}
@@ -23,6 +23,8 @@ public class NativeLibLoader {
 	 */
 	public static synchronized void loadLib() {
 		if (!loaded) {
+			var event = new NativeLibLoadEvent();
+			event.begin();
 			var arch = System.getProperty("os.arch");
 			final String LIBNAME;
 			if (arch.contains("amd64")) {
@@ -48,6 +50,13 @@ public class NativeLibLoader {
 				LOG.error("Failed to copy " + LIBNAME + " to temp dir.", e);
 			} catch (UnsatisfiedLinkError e) {
 				LOG.error("Failed to load lib from " + LIBNAME, e);
+			} finally {
+				event.end();
+				if (event.shouldCommit()) {
+					event.library = LIBNAME;
+					event.succeeded = loaded;
+					event.commit();
+				}
 			}
 		}
 	}
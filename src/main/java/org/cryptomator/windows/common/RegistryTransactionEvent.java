@@ -0,0 +1,26 @@
+package org.cryptomator.windows.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event spanning a {@link WindowsRegistry.RegistryTransaction} from its start until it is committed, rolled back or closed.
+ */
+@Name("org.cryptomator.windows.common.RegistryTransaction")
+@Label("Registry Transaction")
+@Description("Transaction of the Windows registry")
+@Category({"Cryptomator", "Native"})
+@StackTrace(false)
+final class RegistryTransactionEvent extends jdk.jfr.Event {
+
+	@Label("Keys Touched")
+	@Description("Number of registry keys created, opened or deleted within the transaction")
+	int keysTouched;
+
+	@Label("Committed")
+	boolean committed;
+
+}
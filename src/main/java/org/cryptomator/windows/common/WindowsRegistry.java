@@ -33,12 +33,15 @@ public class WindowsRegistry {
 
 	public static class RegistryTransaction implements AutoCloseable {
 
+		private final RegistryTransactionEvent event = new RegistryTransactionEvent();
 		private MemorySegment transactionHandle;
 		private volatile boolean isCommited = false;
 		private volatile boolean isClosed = false;
+		private int keysTouched = 0; //guarded by this
 
 		RegistryTransaction(MemorySegment handle) {
 			this.transactionHandle = handle;
+			event.begin();
 		}
 
 		/**
@@ -53,6 +56,7 @@ public class WindowsRegistry {
 		 * @throws RegistryKeyException if Winreg_h.RegCreateKeyTransactedW returns with a result != ERROR_SUCCESS
 		 */
 		public RegistryKey createRegKey(RegistryKey key, String subkey, boolean isVolatile) throws RegistryKeyException {
+			touch();
 			var pointerToResultKey = Arena.ofAuto().allocate(AddressLayout.ADDRESS);
 			try (var arena = Arena.ofConfined()) {
 				var lpSubkey = arena.allocateFrom(subkey, StandardCharsets.UTF_16LE);
@@ -89,6 +93,7 @@ public class WindowsRegistry {
 		 * @throws RegistryKeyException if Winreg_h.RegOpenKeyTransactedW returns with a result != ERROR_SUCCESS
 		 */
 		public RegistryKey openRegKey(RegistryKey key, String subkey) throws RegistryKeyException {
+			touch();
 			var pointerToResultKey = Arena.ofAuto().allocate(AddressLayout.ADDRESS);
 			try (var arena = Arena.ofConfined()) {
 				var lpSubkey = arena.allocateFrom(subkey, StandardCharsets.UTF_16LE);
@@ -129,6 +134,7 @@ public class WindowsRegistry {
 		 * @throws RegistryKeyException if Winreg_h.RegDeleteKeyTransactedW returns with a result != ERROR_SUCCESS, <em>except</em> the result is ERROR_FILE_NOT_FOUND and {@code ignoreNotExisting == true}
 		 */
 		public void deleteRegKey(RegistryKey key, String subkey, boolean ignoreNotExisting) throws RegistryKeyException {
+			touch();
 			try (var arena = Arena.ofConfined()) {
 				var lpSubkey = arena.allocateFrom(subkey, StandardCharsets.UTF_16LE);
 				int result = Winreg_h.RegDeleteKeyTransactedW(
@@ -200,8 +206,18 @@ public class WindowsRegistry {
 			}
 		}
 
+		private synchronized void touch() {
+			keysTouched++;
+		}
+
 		private synchronized void closeInternal() {
 			if (!isClosed) {
+				event.end();
+				if (event.shouldCommit()) {
+					event.keysTouched = keysTouched;
+					event.committed = isCommited;
+					event.commit();
+				}
 				int result = Windows_h.CloseHandle(transactionHandle);
 				if (result == 0) {
 					int error = Windows_h.GetLastError();
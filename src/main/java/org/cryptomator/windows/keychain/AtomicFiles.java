@@ -0,0 +1,132 @@
+package org.cryptomator.windows.keychain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Replaces files, such that readers either see the old or the new content, but never a partially written file.
+ * <p>
+ * The content is written to a sibling temporary file first, which is then moved atomically onto the target.
+ */
+class AtomicFiles {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AtomicFiles.class);
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private AtomicFiles() {}
+
+	/**
+	 * Atomically replaces the content of {@code target}.
+	 *
+	 * @param target     the file to (over)write
+	 * @param durability guarantees the write must fulfill before this method returns
+	 * @param content    the new file content, written with a single gathering write where possible
+	 * @return the number of bytes written
+	 * @throws IOException if writing or moving the temporary file fails. In this case, {@code target} is left untouched.
+	 */
+	static long write(Path target, Durability durability, ByteBuffer... content) throws IOException {
+		return write(target, durability, ch -> {
+			long written = 0;
+			while (Arrays.stream(content).anyMatch(ByteBuffer::hasRemaining)) {
+				written += ch.write(content);
+			}
+			return written;
+		});
+	}
+
+	/**
+	 * Atomically replaces the content of {@code target} with content produced by {@code writer}.
+	 *
+	 * @param target     the file to (over)write
+	 * @param durability guarantees the write must fulfill before this method returns
+	 * @param writer     writes the new file content to a channel of the (initially empty) temporary file
+	 * @return the number of bytes written, as reported by {@code writer}
+	 * @throws IOException if writing or moving the temporary file fails. In this case, {@code target} is left untouched.
+	 */
+	static long write(Path target, Durability durability, ContentWriter writer) throws IOException {
+		var tmpFile = tmpFileOf(target);
+		long written;
+		try (var ch = FileChannel.open(tmpFile, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+			written = writer.writeTo(ch);
+			if (durability != Durability.NONE) {
+				ch.force(true);
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(tmpFile);
+			throw e;
+		}
+		try {
+			replace(tmpFile, target, durability);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmpFile);
+			throw e;
+		}
+		return written;
+	}
+
+	/**
+	 * Atomically replaces {@code target} with a file written before, e.g. one that has been written in several steps.
+	 *
+	 * @param source     the file holding the new content, already forced to the storage device if required by {@code durability}
+	 * @param target     the file to (over)write
+	 * @param durability guarantees the move must fulfill before this method returns
+	 * @throws IOException if moving the file fails. In this case, {@code target} is left untouched.
+	 */
+	static void replace(Path source, Path target, Durability durability) throws IOException {
+		move(source, target);
+		if (durability == Durability.DATA_AND_DIRECTORY) {
+			forceDirectory(target.toAbsolutePath().getParent());
+		}
+	}
+
+	@FunctionalInterface
+	interface ContentWriter {
+
+		/**
+		 * Writes file content, either sequentially or at arbitrary positions.
+		 *
+		 * @param ch channel of the file to write to, opened for reading and writing
+		 * @return the number of bytes written
+		 * @throws IOException if writing fails
+		 */
+		long writeTo(FileChannel ch) throws IOException;
+	}
+
+	static Path tmpFileOf(Path target) {
+		return target.resolveSibling(target.getFileName() + TMP_SUFFIX);
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, ATOMIC_MOVE, REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			LOG.debug("Atomic move not supported for {}. Falling back to non-atomic replace.", target);
+			Files.move(source, target, REPLACE_EXISTING);
+		}
+	}
+
+	private static void forceDirectory(Path dir) {
+		//Note: Not every platform allows to open directories as a channel (e.g. Windows), hence this is best effort
+		try (var ch = FileChannel.open(dir, READ)) {
+			ch.force(true);
+		} catch (IOException e) {
+			LOG.debug("Unable to flush directory {}: {}", dir, e.getMessage());
+		}
+	}
+
+}
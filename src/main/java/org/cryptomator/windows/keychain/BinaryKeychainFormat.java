@@ -0,0 +1,130 @@
+package org.cryptomator.windows.keychain;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary keychain file format.
+ * <p>
+ * A file starts with the header {@code [int magic][int version][int entryCount]}, followed by {@code entryCount} entries of the form
+ * {@code [int idLength][id][int saltLength][salt][int ciphertextLength][ciphertext]}. Ids are utf-8 encoded, all integers are big endian.
+ */
+class BinaryKeychainFormat {
+
+	static final int MAGIC = 0x434D4B42; // "CMKB"
+	static final int VERSION = 1;
+	private static final int HEADER_SIZE = 3 * Integer.BYTES;
+	private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+	private BinaryKeychainFormat() {}
+
+	/**
+	 * Checks if the file starts with the magic number of this format. The channel position is not changed.
+	 *
+	 * @param ch channel of the file to check
+	 * @return {@code true} if the file is a binary keychain
+	 * @throws IOException if reading the channel fails
+	 */
+	static boolean hasMagic(FileChannel ch) throws IOException {
+		var buf = ByteBuffer.allocate(Integer.BYTES);
+		while (buf.hasRemaining() && ch.read(buf, buf.position()) >= 0) {
+			//read until full or EOF
+		}
+		return !buf.hasRemaining() && buf.getInt(0) == MAGIC;
+	}
+
+	/**
+	 * Reads a binary keychain by memory-mapping the file.
+	 *
+	 * @param ch channel of the file to read
+	 * @return the keychain content
+	 * @throws MalformedKeychainException if the content does not match the format
+	 * @throws IOException                if mapping the file fails
+	 */
+	static Map<String, KeychainEntry> read(FileChannel ch) throws IOException {
+		//Note: a confined arena unmaps the file deterministically, which is required on Windows to replace the file afterwards
+		try (var arena = Arena.ofConfined()) {
+			var segment = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size(), arena);
+			return read(segment);
+		}
+	}
+
+	//visible for testing
+	static Map<String, KeychainEntry> read(MemorySegment segment) throws MalformedKeychainException {
+		try {
+			if (segment.get(INT, 0) != MAGIC) {
+				throw new MalformedKeychainException("Not a binary keychain");
+			}
+			int version = segment.get(INT, Integer.BYTES);
+			if (version != VERSION) {
+				throw new MalformedKeychainException("Unsupported binary keychain version " + version);
+			}
+			int entryCount = segment.get(INT, 2 * Integer.BYTES);
+			if (entryCount < 0 || entryCount > (segment.byteSize() - HEADER_SIZE) / (3 * Integer.BYTES)) {
+				throw new MalformedKeychainException("Invalid entry count " + entryCount);
+			}
+			var result = HashMap.<String, KeychainEntry>newHashMap(entryCount);
+			long offset = HEADER_SIZE;
+			for (int i = 0; i < entryCount; i++) {
+				var id = readBytes(segment, offset);
+				offset += Integer.BYTES + id.length;
+				var salt = readBytes(segment, offset);
+				offset += Integer.BYTES + salt.length;
+				var ciphertext = readBytes(segment, offset);
+				offset += Integer.BYTES + ciphertext.length;
+				result.put(new String(id, UTF_8), new KeychainEntry(ciphertext, salt));
+			}
+			if (offset != segment.byteSize()) {
+				throw new MalformedKeychainException("Unexpected trailing data");
+			}
+			return result;
+		} catch (IndexOutOfBoundsException e) {
+			throw new MalformedKeychainException("Binary keychain truncated", e);
+		}
+	}
+
+	private static byte[] readBytes(MemorySegment segment, long offset) throws MalformedKeychainException {
+		int length = segment.get(INT, offset);
+		if (length < 0 || length > segment.byteSize() - offset - Integer.BYTES) {
+			throw new MalformedKeychainException("Invalid length at offset " + offset);
+		}
+		var result = new byte[length];
+		MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset + Integer.BYTES, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Encodes a keychain. Salts and ciphertexts are not copied, but wrapped, and are meant to be written with a single gathering write.
+	 *
+	 * @param entries the keychain content
+	 * @return buffers, which concatenated form the keychain file
+	 */
+	static ByteBuffer[] encode(Map<String, KeychainEntry> entries) {
+		var buffers = new ArrayList<ByteBuffer>(1 + 4 * entries.size());
+		var header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+		buffers.add(header);
+		int count = 0;
+		for (var e : entries.entrySet()) {
+			var id = e.getKey().getBytes(UTF_8);
+			var entry = e.getValue();
+			buffers.add(ByteBuffer.allocate(2 * Integer.BYTES + id.length).putInt(id.length).put(id).putInt(entry.salt().length).flip());
+			buffers.add(ByteBuffer.wrap(entry.salt()));
+			buffers.add(ByteBuffer.allocate(Integer.BYTES).putInt(entry.ciphertext().length).flip());
+			buffers.add(ByteBuffer.wrap(entry.ciphertext()));
+			count++;
+		}
+		header.putInt(count).flip(); //count the iterated entries, the map might be concurrently modified
+		return buffers.toArray(ByteBuffer[]::new);
+	}
+
+}
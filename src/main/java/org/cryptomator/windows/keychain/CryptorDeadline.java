@@ -0,0 +1,222 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs calls of a {@link WindowsKeychainAccessBase.PassphraseCryptor} with a deadline, after which the caller gets a {@link CryptorTimeoutException}.
+ * <p>
+ * Native calls cannot be interrupted, hence a call runs on a worker thread, while the caller waits for at most the given timeout. Afterwards, the call is abandoned:
+ * Its pending native work is {@link Call#cancel() cancelled}, e.g. by closing the Windows Hello prompt shown for it, and the result of the call is zeroed as soon as it returns.
+ * A call abandoned before a worker has picked it up is skipped. Cancellation is scoped to the abandoned call: Calls of other callers, which are still within their deadline, are not affected.
+ * Workers are daemon platform threads, as native calls pin the carrier of a virtual thread. At most {@value MAX_WORKERS} calls run at once,
+ * so calls that never return cannot exhaust the threads of the process. Further calls fail immediately, until a worker is available again.
+ * <p>
+ * The deadline is set in milliseconds with the JVM property {@value TIMEOUT_PROPERTY}. A timeout of {@code 0} means no deadline, in which case calls run on the caller's thread.
+ */
+class CryptorDeadline {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CryptorDeadline.class);
+	static final String TIMEOUT_PROPERTY = "cryptomator.integrationsWin.keychainCryptorTimeout";
+	static final int MAX_WORKERS = 16;
+	private static final ThreadPoolExecutor WORKERS = new ThreadPoolExecutor(0, MAX_WORKERS, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), Thread.ofPlatform().name("keychain-cryptor-", 0).daemon().factory());
+	private static final ThreadLocal<Call> CURRENT = new ThreadLocal<>();
+
+	private CryptorDeadline() {
+	}
+
+	/**
+	 * @return the timeout set by JVM property or {@link Duration#ZERO}, if calls have no deadline
+	 */
+	static Duration fromSystemProperties() {
+		var timeout = Duration.ofMillis(Long.getLong(TIMEOUT_PROPERTY, 0));
+		if (timeout.isNegative()) {
+			LOG.warn("Ignoring negative cryptor timeout. Cryptor calls have no deadline.");
+			return Duration.ZERO;
+		}
+		return timeout;
+	}
+
+	/**
+	 * Runs the call and waits for its result until the timeout has passed.
+	 *
+	 * @param timeout the maximum time to wait, {@link Duration#ZERO} to wait indefinitely
+	 * @param call    the call of the cryptor, which may register its native work with the {@link #currentCall() current call} to make it cancellable
+	 * @param discard zeroes the result of an abandoned call
+	 * @param <T>     type of the result
+	 * @return the result of the call
+	 * @throws CryptorTimeoutException if the call did not complete in time or too many abandoned calls are still running
+	 * @throws KeychainAccessException if the calling thread is interrupted while waiting
+	 */
+	static <T> T call(Duration timeout, Supplier<T> call, Consumer<T> discard) throws KeychainAccessException {
+		if (timeout.isZero()) {
+			return call.get();
+		}
+		var scope = new Call();
+		var result = new CompletableFuture<T>();
+		try {
+			WORKERS.execute(() -> run(call, scope, result, discard));
+		} catch (RejectedExecutionException e) {
+			throw new CryptorTimeoutException("All " + MAX_WORKERS + " cryptor workers are busy with calls that have not returned.");
+		}
+		try {
+			return result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			var timedOut = new CryptorTimeoutException("Cryptor did not respond within " + timeout.toMillis() + " ms.");
+			if (!result.completeExceptionally(timedOut)) {
+				return join(result); //completed just in time
+			}
+			LOG.warn("Abandoning cryptor call after {} ms.", timeout.toMillis());
+			cancel(scope);
+			throw timedOut;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (!result.completeExceptionally(e) && !result.isCompletedExceptionally()) {
+				discard(result.join(), discard);
+			}
+			cancel(scope);
+			throw new KeychainAccessException("Interrupted while waiting for the cryptor.", e);
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		}
+	}
+
+	// a result is only handed to the caller, if it is still waiting. Otherwise, it is zeroed.
+	private static <T> void run(Supplier<T> call, Call scope, CompletableFuture<T> result, Consumer<T> discard) {
+		if (result.isDone()) {
+			return; //abandoned before started
+		}
+		T value;
+		CURRENT.set(scope);
+		try {
+			value = call.get();
+		} catch (RuntimeException | Error e) {
+			result.completeExceptionally(e);
+			return;
+		} finally {
+			CURRENT.remove();
+		}
+		if (!result.complete(value)) {
+			discard(value, discard);
+		}
+	}
+
+	private static <T> T join(CompletableFuture<T> result) {
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			throw rethrow(e.getCause());
+		}
+	}
+
+	private static <T> void discard(T value, Consumer<T> discard) {
+		if (value != null) {
+			discard.accept(value);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable cause) {
+		if (cause instanceof RuntimeException e) {
+			return e;
+		} else if (cause instanceof Error e) {
+			throw e;
+		} else {
+			return new IllegalStateException("Unexpected checked exception", cause);
+		}
+	}
+
+	private static void cancel(Call call) {
+		try {
+			call.cancel();
+		} catch (RuntimeException e) {
+			LOG.warn("Failed to cancel pending cryptor call.", e);
+		}
+	}
+
+	/**
+	 * Returns the call with a deadline, which is run by the current thread.
+	 *
+	 * @return the current call or {@code null}, if the current thread does not run a call with a deadline
+	 */
+	static Call currentCall() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * A single call with a deadline. While running, a cryptor registers how to cancel its pending native work, which is invoked once the call is abandoned.
+	 * <p>
+	 * Cancelling a call only affects its own native work. A call runs on a single worker thread, hence at most one native call is registered at a time.
+	 */
+	static final class Call {
+
+		private Runnable canceller; //guarded by this
+		private boolean cancelled; //guarded by this
+
+		/**
+		 * Registers how to cancel the native work started next. Native work must only be started, if the call is not cancelled already.
+		 *
+		 * @param canceller cancels the native work of this call, e.g. by closing the prompt shown for it
+		 * @return {@code false} if the call is cancelled already, in which case the canceller is not registered
+		 */
+		synchronized boolean register(Runnable canceller) {
+			if (cancelled) {
+				return false;
+			}
+			this.canceller = canceller;
+			return true;
+		}
+
+		/**
+		 * Unregisters the canceller, as soon as the native work has returned.
+		 */
+		synchronized void unregister() {
+			canceller = null;
+		}
+
+		/**
+		 * Cancels the registered native work and keeps further native work of this call from being started.
+		 */
+		synchronized void cancel() {
+			cancelled = true;
+			if (canceller != null) {
+				canceller.run();
+			}
+		}
+
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	static void zero(byte[] bytes) {
+		Arrays.fill(bytes, (byte) 0x00);
+	}
+
+	static void zeroAll(byte[][] arrays) {
+		for (var bytes : arrays) {
+			if (bytes != null) {
+				zero(bytes);
+			}
+		}
+	}
+
+	//visible for testing
+	static int busyWorkers() {
+		return WORKERS.getActiveCount();
+	}
+
+}
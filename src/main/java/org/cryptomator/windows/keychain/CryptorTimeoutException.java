@@ -0,0 +1,13 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+
+/**
+ * Thrown if encrypting or decrypting a passphrase did not complete within the deadline, e.g. as the user left a Windows Hello prompt open.
+ */
+public class CryptorTimeoutException extends KeychainAccessException {
+
+	CryptorTimeoutException(String message) {
+		super(message);
+	}
+}
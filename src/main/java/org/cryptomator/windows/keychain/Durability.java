@@ -0,0 +1,23 @@
+package org.cryptomator.windows.keychain;
+
+/**
+ * Guarantees given by a completed write of a keychain file.
+ */
+enum Durability {
+
+	/**
+	 * Data is handed to the operating system, which decides on its own when to write it to the storage device.
+	 */
+	NONE,
+
+	/**
+	 * File content is flushed to the storage device before it replaces the existing file.
+	 */
+	DATA,
+
+	/**
+	 * Like {@link #DATA}, but additionally the directory containing the file is flushed after replacing it, if the file system supports this.
+	 */
+	DATA_AND_DIRECTORY
+
+}
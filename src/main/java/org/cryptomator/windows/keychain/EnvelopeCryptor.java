@@ -0,0 +1,221 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Envelope encryption: Entries are encrypted in the JVM with AES-GCM using a single data key, which is in turn protected by the operating system.
+ * <p>
+ * The data key is encrypted by the wrapped {@link WindowsKeychainAccessBase.PassphraseCryptor OS cryptor} and stored in the keychain under the id {@value DATA_KEY_ID}.
+ * It is created on first encryption and decrypted at most once per instance, hence the expensive OS cryptor (or a user prompt) is needed once instead of once per entry.
+ * The id is {@link #isReserved(String) reserved}, so keychain access providers neither expose the data key as a passphrase nor let it be overwritten or deleted.
+ * <p>
+ * Ciphertexts have the form {@code [int magic][12 byte nonce][AES-GCM ciphertext and tag]}. The salt of an entry is used as associated data, binding the ciphertext to it.
+ * Ciphertexts without the magic are passed to the OS cryptor, so entries written before envelope encryption was enabled stay readable.
+ * Envelope encryption is enabled with the JVM property {@value PROPERTY}.
+ */
+class EnvelopeCryptor implements WindowsKeychainAccessBase.PassphraseCryptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EnvelopeCryptor.class);
+	static final String PROPERTY = "cryptomator.integrationsWin.keychainEnvelopeEncryption";
+	static final String DATA_KEY_ID = "org.cryptomator.integrations-win.envelopeDataKey";
+	static final int MAGIC = 0x434D4545; // "CMEE"
+	private static final String CIPHER = "AES/GCM/NoPadding";
+	private static final int KEY_SIZE = 32;
+	private static final int NONCE_SIZE = 12;
+	private static final int TAG_BITS = 128;
+	private static final int HEADER_SIZE = Integer.BYTES + NONCE_SIZE;
+
+	private final WindowsKeychainAccessBase.PassphraseCryptor osCryptor;
+	private final WindowsKeychainAccessBase.Keychain keychain;
+	private SecretKey dataKey; //guarded by this, lazily loaded or created
+
+	EnvelopeCryptor(WindowsKeychainAccessBase.PassphraseCryptor osCryptor, WindowsKeychainAccessBase.Keychain keychain) {
+		this.osCryptor = osCryptor;
+		this.keychain = keychain;
+	}
+
+	/**
+	 * Applies envelope encryption to the given cryptor, if enabled by the JVM property {@value PROPERTY}.
+	 *
+	 * @param osCryptor the cryptor provided by the operating system
+	 * @param keychain  the keychain to store the data key in
+	 * @return the cryptor to use
+	 */
+	static WindowsKeychainAccessBase.PassphraseCryptor wrapIfEnabled(WindowsKeychainAccessBase.PassphraseCryptor osCryptor, WindowsKeychainAccessBase.Keychain keychain) {
+		return Boolean.getBoolean(PROPERTY) ? new EnvelopeCryptor(osCryptor, keychain) : osCryptor;
+	}
+
+	@Override
+	public byte[] encrypt(byte[] cleartext, byte[] salt) {
+		return encrypt(ByteBuffer.wrap(cleartext), salt);
+	}
+
+	@Override
+	public byte[] encryptSegment(MemorySegment cleartext, byte[] salt) {
+		return encrypt(cleartext.asByteBuffer(), salt);
+	}
+
+	private byte[] encrypt(ByteBuffer cleartext, byte[] salt) {
+		var key = dataKey(true);
+		if (key == null) {
+			return null;
+		}
+		var buf = ByteBuffer.allocate(HEADER_SIZE + cleartext.remaining() + TAG_BITS / Byte.SIZE);
+		var nonce = new byte[NONCE_SIZE];
+		SaltGenerator.nextBytes(nonce);
+		buf.putInt(MAGIC).put(nonce);
+		try {
+			var cipher = Cipher.getInstance(CIPHER);
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+			cipher.updateAAD(salt);
+			cipher.doFinal(cleartext, buf);
+			return buf.array();
+		} catch (GeneralSecurityException e) {
+			LOG.error("Failed to encrypt keychain entry.", e);
+			return null;
+		}
+	}
+
+	@Override
+	public byte[] decrypt(byte[] ciphertext, byte[] salt) {
+		if (!isEnvelope(ciphertext)) {
+			return osCryptor.decrypt(ciphertext, salt);
+		}
+		var key = dataKey(false);
+		if (key == null) {
+			return null;
+		}
+		try {
+			var cipher = Cipher.getInstance(CIPHER);
+			cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, ciphertext, Integer.BYTES, NONCE_SIZE));
+			cipher.updateAAD(salt);
+			return cipher.doFinal(ciphertext, HEADER_SIZE, ciphertext.length - HEADER_SIZE);
+		} catch (GeneralSecurityException e) {
+			LOG.warn("Failed to decrypt keychain entry: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	// envelopes are decrypted in the JVM, while all others are passed to the OS cryptor in a single call
+	@Override
+	public byte[][] decryptAll(byte[][] ciphertexts, byte[][] salts) {
+		var cleartexts = new byte[ciphertexts.length][];
+		var legacy = new ArrayList<Integer>();
+		for (int i = 0; i < ciphertexts.length; i++) {
+			if (isEnvelope(ciphertexts[i])) {
+				cleartexts[i] = decrypt(ciphertexts[i], salts[i]);
+			} else {
+				legacy.add(i);
+			}
+		}
+		if (!legacy.isEmpty()) {
+			var legacyCleartexts = osCryptor.decryptAll(legacy.stream().map(i -> ciphertexts[i]).toArray(byte[][]::new), legacy.stream().map(i -> salts[i]).toArray(byte[][]::new));
+			for (int j = 0; j < legacy.size(); j++) {
+				cleartexts[legacy.get(j)] = legacyCleartexts[j];
+			}
+		}
+		return cleartexts;
+	}
+
+	/**
+	 * Checks whether the id is used internally and must not be accessed as a passphrase, regardless of envelope encryption being enabled.
+	 *
+	 * @param id Identifier of a keychain entry
+	 * @return {@code true} if the id is reserved for the data key
+	 */
+	static boolean isReserved(String id) {
+		return DATA_KEY_ID.equals(id);
+	}
+
+	static boolean isEnvelope(byte[] ciphertext) {
+		return ciphertext.length >= HEADER_SIZE + TAG_BITS / Byte.SIZE && ByteBuffer.wrap(ciphertext).getInt() == MAGIC;
+	}
+
+	// loads the data key from the keychain or, if absent and requested, creates a new one. Returns null, if the key is unavailable.
+	private synchronized SecretKey dataKey(boolean createIfAbsent) {
+		if (dataKey != null) {
+			return dataKey;
+		}
+		try {
+			var wrapped = keychain.get(DATA_KEY_ID);
+			if (wrapped != null) {
+				dataKey = unwrap(wrapped);
+			} else if (createIfAbsent) {
+				dataKey = create();
+			}
+		} catch (KeychainAccessException e) {
+			LOG.error("Failed to access envelope data key.", e);
+		}
+		return dataKey;
+	}
+
+	private SecretKey unwrap(KeychainEntry wrapped) {
+		var raw = osCryptor.decrypt(wrapped.ciphertext(), wrapped.salt());
+		if (raw == null) {
+			LOG.error("Failed to decrypt envelope data key.");
+			return null;
+		}
+		try {
+			return new SecretKeySpec(raw, "AES");
+		} finally {
+			Arrays.fill(raw, (byte) 0x00);
+		}
+	}
+
+	// another instance, possibly in another process, may create a data key concurrently. Only the first one stored is used by all of them.
+	private SecretKey create() throws KeychainAccessException {
+		LOG.debug("Creating new envelope data key.");
+		var raw = new byte[KEY_SIZE];
+		try {
+			new SecureRandom().nextBytes(raw); //keys do not come from the pool of salts and nonces
+			var salt = Util.generateSalt();
+			var wrapped = osCryptor.encrypt(raw, salt);
+			if (wrapped == null) {
+				LOG.error("Failed to encrypt envelope data key.");
+				return null;
+			}
+			var created = new KeychainEntry(wrapped, salt);
+			keychain.update(batch -> batch.putIfAbsent(DATA_KEY_ID, created));
+			var stored = keychain.get(DATA_KEY_ID);
+			if (created.equals(stored)) {
+				return new SecretKeySpec(raw, "AES");
+			} else if (stored != null) {
+				LOG.debug("Using envelope data key created concurrently.");
+				return unwrap(stored);
+			} else {
+				LOG.error("Envelope data key removed concurrently.");
+				return null;
+			}
+		} finally {
+			Arrays.fill(raw, (byte) 0x00);
+		}
+	}
+
+	WindowsKeychainAccessBase.PassphraseCryptor osCryptor() {
+		return osCryptor;
+	}
+
+	@Override
+	public void preload() {
+		osCryptor.preload();
+	}
+
+	@Override
+	public boolean isSupported() {
+		return osCryptor.isSupported();
+	}
+
+}
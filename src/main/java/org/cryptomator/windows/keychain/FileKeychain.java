@@ -1,63 +1,385 @@
 package org.cryptomator.windows.keychain;
 
 import com.fasterxml.jackson.core.JacksonException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.cryptomator.windows.keychain.metrics.KeychainMetrics;
+import org.cryptomator.windows.keychain.metrics.KeychainOperation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.function.UnaryOperator;
 
 /**
- * A file-based keychain. It's content is a utf-8 encoded JSON object.
+ * A file-based keychain. Its content is either a utf-8 encoded JSON object or a {@link BinaryKeychainFormat binary keychain}.
+ * Existing files are read in either format, new content is written in the format set with the JVM property {@value Settings#FORMAT_PROPERTY}.
+ * Entries of JSON files are {@link LazyKeychainMap decoded lazily} on first access.
+ * <p>
+ * By default, every mutation is written through to disk. If a commit delay is set with the JVM property {@value Settings#COMMIT_DELAY_PROPERTY} (in milliseconds),
+ * the keychain operates in write-behind mode: All mutations within the delay window are coalesced into a single write.
+ * Pending mutations are written by a background thread, which is released by {@link #close()}.
+ * Mutations not changing the keychain content are never written.
+ * <p>
+ * The keychain file is always replaced atomically. How durable a completed write is, can be set with the JVM property {@value Settings#DURABILITY_PROPERTY}.
+ * <p>
+ * Reads never block: The content is held in an immutable map, which mutations replace atomically with an {@link OverlayKeychainMap updated version}.
+ * A mutation only copies the entries changed since the last save, all entries are copied once per save.
+ * Each replacement increments the generation of the content. Writers only wait for a save of their generation or a later one,
+ * so concurrent writers share a single save (group commit).
+ * <p>
+ * If several processes use the same keychain file, the shared mode must be enabled with the JVM property {@value Settings#SHARED_PROPERTY}.
+ * Then each mutation is a read-modify-write of the keychain file while holding an exclusive {@link KeychainLockFile file lock}.
+ * Every write increments a generation stored in the lock file, and the keychain file is only read again, if the generation changed.
+ * Entries changed by other processes are reported to the {@link #addChangeListener(Consumer) listeners} once read again.
+ * Write-behind is not available in shared mode.
+ * <p>
+ * If the JVM property {@value Settings#WATCH_PROPERTY} is set, changes of the keychain file by other processes are picked up in the background.
+ * Only the differing entries are replaced, atomically for readers, and {@link #addChangeListener(Consumer) listeners} are notified about the affected ids.
+ * <p>
+ * Content found at a legacy keychain path is moved to the first keychain path by the next write. If the JVM property {@value Settings#MIGRATION_PROPERTY} is set,
+ * this {@link #migrate() migration} happens in the background right after loading, and legacy files are retired afterwards, so they are not read again.
  */
 class FileKeychain implements WindowsKeychainAccessBase.Keychain {
 
 	private final static Logger LOG = LoggerFactory.getLogger(FileKeychain.class);
 	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	static final String MIGRATED_SUFFIX = ".migrated";
+	private static final String METRICS_COMPONENT = "FileKeychain"; //not derived from the class, which may be a subclass
+	private static final long UNCHANGED = -1;
 
 	private final List<Path> keychainPaths;
+	private final Settings settings;
 
-	private Map<String, KeychainEntry> cache;
-	private volatile boolean loaded;
+	private final Object saveLock = new Object();
 
-	FileKeychain(String keychainPathsProperty) {
-		keychainPaths = parsePaths(System.getProperty(keychainPathsProperty, ""), System.getProperty("path.separator"));
-		cache = new ConcurrentHashMap<>();
-	}
+	private volatile Content content; //never mutated after publication, writes are guarded by this
+	private volatile boolean loaded;
+	private volatile int loadedPathIndex = -1; //writes guarded by the same lock as loadInternal(), index of the keychain path the content was loaded from
+	private long savedGeneration; //guarded by saveLock, generation of the content last written to disk
+	private final KeychainLockFile lockFile; //null unless in shared mode
+	private volatile long loadedLockFileGeneration = -1; //writes guarded by saveLock, generation of the lock file matching the content
+	private CompletableFuture<Void> pendingCommit; //guarded by this, non-null if mutations await persistence
+	private ScheduledThreadPoolExecutor committer; //guarded by this, lazily created in write-behind mode
+	private Thread committerShutdownHook; //guarded by this, non-null while the committer is running
+	private boolean closed; //guarded by this
+	private KeychainWatcher watcher; //guarded by this, non-null while watching
+	private final List<Consumer<KeychainChange>> changeListeners = new CopyOnWriteArrayList<>();
 
 	//testing
 	FileKeychain(List<Path> paths) {
-		keychainPaths = paths;
-		cache = new ConcurrentHashMap<>();
+		this(paths, Settings.FOR_TESTING);
+	}
+
+	FileKeychain(List<Path> paths, Settings settings) {
+		this.keychainPaths = paths;
+		this.settings = settings;
+		this.content = new Content(Map.of(), 0);
+		this.lockFile = settings.shared() && !paths.isEmpty() ? new KeychainLockFile(paths.getFirst(), settings.durability()) : null;
+	}
+
+	/**
+	 * Immutable keychain content.
+	 *
+	 * @param entries    the keychain entries, not modified after publication
+	 * @param generation number of mutations applied since the keychain was loaded
+	 */
+	private record Content(Map<String, KeychainEntry> entries, long generation) {}
+
+	/**
+	 * Tuning knobs of a file keychain.
+	 *
+	 * @param commitDelay time window to coalesce mutations into a single write. {@link Duration#ZERO} writes every mutation immediately.
+	 * @param durability  guarantees a completed write of the keychain file must fulfill
+	 * @param format      format used to write the keychain file
+	 * @param shared      whether other processes may use the keychain file concurrently. Requires a zero commit delay.
+	 * @param watch       whether to watch the keychain file for changes by other processes
+	 * @param migrate     whether to move the content of a legacy keychain file to the first keychain path in the background
+	 */
+	record Settings(Duration commitDelay, Durability durability, KeychainFormat format, boolean shared, boolean watch, boolean migrate) {
+
+		static final String COMMIT_DELAY_PROPERTY = "cryptomator.integrationsWin.keychainCommitDelay";
+		static final String DURABILITY_PROPERTY = "cryptomator.integrationsWin.keychainDurability";
+		static final String FORMAT_PROPERTY = "cryptomator.integrationsWin.keychainFormat";
+		static final String SHARED_PROPERTY = "cryptomator.integrationsWin.keychainShared";
+		static final String WATCH_PROPERTY = "cryptomator.integrationsWin.keychainWatch";
+		static final String MIGRATION_PROPERTY = "cryptomator.integrationsWin.keychainMigration";
+		static final Settings DEFAULT = new Settings(Duration.ZERO, Durability.DATA, KeychainFormat.JSON, false, false, false);
+		static final Settings FOR_TESTING = new Settings(Duration.ZERO, Durability.NONE, KeychainFormat.JSON, false, false, false);
+
+		Settings {
+			Objects.requireNonNull(durability);
+			Objects.requireNonNull(format);
+			if (commitDelay.isNegative()) {
+				throw new IllegalArgumentException("Commit delay must not be negative");
+			}
+			if (shared && !commitDelay.isZero()) {
+				throw new IllegalArgumentException("Write-behind is not supported in shared mode");
+			}
+		}
+
+		static Settings fromSystemProperties() {
+			var commitDelay = Duration.ofMillis(Long.getLong(COMMIT_DELAY_PROPERTY, DEFAULT.commitDelay.toMillis()));
+			var durability = enumProperty(DURABILITY_PROPERTY, Durability.class, DEFAULT.durability);
+			var format = enumProperty(FORMAT_PROPERTY, KeychainFormat.class, DEFAULT.format);
+			var shared = Boolean.getBoolean(SHARED_PROPERTY);
+			var watch = Boolean.getBoolean(WATCH_PROPERTY);
+			var migrate = Boolean.getBoolean(MIGRATION_PROPERTY);
+			if (shared && !commitDelay.isZero()) {
+				LOG.warn("Ignoring property {} in shared mode.", COMMIT_DELAY_PROPERTY);
+				commitDelay = Duration.ZERO;
+			}
+			return new Settings(commitDelay, durability, format, shared, watch, migrate);
+		}
+
+		private static <E extends Enum<E>> E enumProperty(String property, Class<E> type, E defaultValue) {
+			var value = System.getProperty(property);
+			if (value == null) {
+				return defaultValue;
+			}
+			try {
+				return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				LOG.warn("Ignoring unknown value {} of property {}. Using {}.", value, property, defaultValue);
+				return defaultValue;
+			}
+		}
+
+		Settings withCommitDelay(Duration commitDelay) {
+			return new Settings(commitDelay, durability, format, shared, watch, migrate);
+		}
+
+		Settings withDurability(Durability durability) {
+			return new Settings(commitDelay, durability, format, shared, watch, migrate);
+		}
+
+		Settings withFormat(KeychainFormat format) {
+			return new Settings(commitDelay, durability, format, shared, watch, migrate);
+		}
+
+		Settings withShared(boolean shared) {
+			return new Settings(commitDelay, durability, format, shared, watch, migrate);
+		}
+
+		Settings withWatch(boolean watch) {
+			return new Settings(commitDelay, durability, format, shared, watch, migrate);
+		}
+
+		Settings withMigrate(boolean migrate) {
+			return new Settings(commitDelay, durability, format, shared, watch, migrate);
+		}
+	}
+
+	void load() throws KeychainAccessException {
+		if (lockFile != null) {
+			reloadIfChanged();
+		} else if (!loaded) {
+			synchronized (this) {
+				if (!loaded) {
+					loadInternal();
+					loaded = true;
+					startWatching();
+					startMigration();
+				}
+			}
+		}
+	}
+
+	// shared mode only: reads the keychain file, if another process wrote it since it was loaded last
+	private void reloadIfChanged() throws KeychainAccessException {
+		var external = KeychainChange.NONE;
+		try {
+			if (loaded && lockFile.generation() == loadedLockFileGeneration) {
+				return;
+			}
+			synchronized (saveLock) {
+				try (var lock = lockFile.lock(true)) {
+					long generation = lockFile.generation();
+					if (!loaded || generation != loadedLockFileGeneration) {
+						LOG.debug("Keychain generation changed to {}. Reloading keychain.", generation);
+						external = reload();
+						savedGeneration = content.generation();
+						loadedLockFileGeneration = generation;
+						if (!loaded) {
+							loaded = true;
+							startWatching();
+							startMigration();
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new KeychainAccessException("Failed to access keychain lock file " + lockFile.path(), e);
+		} finally {
+			notifyChangeListeners(external);
+		}
+	}
+
+	/**
+	 * Shared mode only: Reads the keychain file again, as another process wrote it. Must be called while holding {@link #saveLock}.
+	 * Entries are only compared, if anyone listens for changes, as this decodes lazily parsed entries.
+	 *
+	 * @return the entries changed by the other process or {@link KeychainChange#NONE}, if loaded for the first time or nobody listens
+	 * @throws KeychainAccessException if the keychain file cannot be read
+	 */
+	private KeychainChange reload() throws KeychainAccessException {
+		var before = content.entries();
+		loadInternal();
+		return loaded && !changeListeners.isEmpty() ? KeychainChange.between(before, content.entries()) : KeychainChange.NONE;
 	}
 
-	synchronized void load() throws KeychainAccessException {
-		if (!loaded) {
-			loadInternal();
-			loaded = true;
+	private synchronized void startWatching() {
+		if (settings.watch() && watcher == null && !closed) {
+			try {
+				watcher = KeychainWatcher.start(keychainPaths.getFirst(), this::reloadChangedFile);
+			} catch (IOException e) {
+				LOG.warn("Unable to watch keychain file {} for changes.", keychainPaths.getFirst(), e);
+			}
+		}
+	}
+
+	//visible for testing
+	synchronized void stopWatching() throws IOException {
+		if (watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+	}
+
+	/**
+	 * Registers a listener, which is notified about entries changed by other processes.
+	 * Listeners are invoked on the thread picking up the changes, i.e. the watcher thread or a thread accessing the keychain in shared mode, after readers can see the changes.
+	 *
+	 * @param listener receives the ids, which have been added, changed or removed
+	 */
+	@Override
+	public void addChangeListener(Consumer<KeychainChange> listener) {
+		changeListeners.add(listener);
+	}
+
+	private void notifyChangeListeners(KeychainChange change) {
+		if (change.isEmpty()) {
+			return;
+		}
+		for (var listener : changeListeners) {
+			try {
+				listener.accept(change);
+			} catch (RuntimeException e) {
+				LOG.warn("Keychain change listener failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * In shared mode, reads the keychain file again, if another process wrote it. Otherwise, changes are only picked up by the watcher.
+	 *
+	 * @throws KeychainAccessException if the keychain cannot be read
+	 */
+	@Override
+	public void refresh() throws KeychainAccessException {
+		if (lockFile != null) {
+			reloadIfChanged();
+		}
+	}
+
+	private void reloadChangedFile() {
+		try {
+			applyExternalChanges();
+		} catch (KeychainAccessException e) {
+			LOG.warn("Failed to reload changed keychain file.", e);
+		}
+	}
+
+	/**
+	 * Reads the keychain file and applies all differences to the current content in a single step.
+	 * Does nothing, if the content has local mutations, which are not saved yet. Saving these will overwrite the file anyway.
+	 *
+	 * @return the applied differences
+	 * @throws KeychainAccessException if the keychain file cannot be read
+	 */
+	//visible for testing
+	KeychainChange applyExternalChanges() throws KeychainAccessException {
+		var keychainFile = keychainPaths.getFirst();
+		KeychainChange change;
+		synchronized (saveLock) {
+			long lockFileGeneration = -1;
+			if (lockFile != null) {
+				try {
+					lockFileGeneration = lockFile.generation();
+				} catch (IOException e) {
+					throw new KeychainAccessException("Failed to access keychain lock file " + lockFile.path(), e);
+				}
+				if (lockFileGeneration == loadedLockFileGeneration) {
+					return KeychainChange.NONE; //own write or already loaded
+				}
+			}
+			var onDisk = parse(keychainFile);
+			if (onDisk.isEmpty() && Files.exists(keychainFile)) {
+				return KeychainChange.NONE; //not parsable, keep current content
+			}
+			var entries = onDisk.orElse(Map.of());
+			synchronized (this) {
+				var current = content;
+				if (current.generation() != savedGeneration) {
+					LOG.debug("Ignoring change of keychain file {}: Local changes pending.", keychainFile);
+					return KeychainChange.NONE;
+				}
+				change = KeychainChange.between(current.entries(), entries);
+				if (!change.isEmpty()) {
+					var updated = new HashMap<String, KeychainEntry>();
+					change.ids().forEach(id -> updated.put(id, entries.get(id)));
+					content = new Content(OverlayKeychainMap.of(current.entries()).with(updated), current.generation() + 1);
+					savedGeneration = current.generation() + 1; //content matches the file
+				}
+			}
+			if (lockFile != null) {
+				loadedLockFileGeneration = lockFileGeneration;
+			}
+		}
+		if (!change.isEmpty()) {
+			LOG.debug("Keychain file {} changed: {}", keychainFile, change);
+			notifyChangeListeners(change);
 		}
+		return change;
+	}
+
+	/**
+	 * Loads the keychain, if not done yet, and returns a copy of all its entries.
+	 *
+	 * @return an immutable copy of the keychain content
+	 * @throws KeychainAccessException if the keychain cannot be loaded
+	 */
+	Map<String, KeychainEntry> snapshot() throws KeychainAccessException {
+		load();
+		return Map.copyOf(content.entries());
 	}
 
 	//for testing
@@ -66,32 +388,195 @@ class FileKeychain implements WindowsKeychainAccessBase.Keychain {
 			throw new KeychainAccessException("No path specified to store keychain");
 		}
 		//Note: We are trying out all keychainPaths to see, if we have to migrate an old keychain file to a new location
-		boolean useExisting = false;
-		for (Path keychainPath : keychainPaths) {
-			Optional<Map<String, KeychainEntry>> maybeKeychain = parse(keychainPath);
-			if (maybeKeychain.isPresent()) {
-				cache = maybeKeychain.get();
-				useExisting = true;
-				break;
-			}
+		long start = KeychainMetrics.start();
+		Optional<Probed> maybeKeychain = Optional.empty();
+		boolean succeeded = false;
+		try {
+			maybeKeychain = probe();
+			succeeded = true;
+		} finally {
+			KeychainMetrics.completed(METRICS_COMPONENT, KeychainOperation.KEYCHAIN_LOAD, start, succeeded);
 		}
-		if (!useExisting) {
+		if (maybeKeychain.isPresent()) {
+			content = new Content(maybeKeychain.get().entries(), content.generation());
+			loadedPathIndex = maybeKeychain.get().pathIndex();
+		} else {
 			LOG.debug("Keychain file not found or not parsable. Using new keychain.");
+			content = new Content(Map.of(), content.generation());
+			loadedPathIndex = -1;
+		}
+	}
+
+	private record Probed(int pathIndex, Map<String, KeychainEntry> entries) {}
+
+	/**
+	 * Parses all keychain paths concurrently, each on its own virtual thread.
+	 * The result of a path is only used, if all paths of higher priority turned out to be absent or not parsable.
+	 * Once a result is used, parsing of the paths of lower priority is cancelled.
+	 *
+	 * @return the content of the first path in {@link #keychainPaths} which could be parsed, together with the index of this path
+	 * @throws KeychainAccessException if reading a path failed before a path of higher priority could be parsed
+	 */
+	private Optional<Probed> probe() throws KeychainAccessException {
+		if (keychainPaths.size() == 1) {
+			return parse(keychainPaths.getFirst()).map(entries -> new Probed(0, entries));
+		}
+		var executor = Executors.newVirtualThreadPerTaskExecutor();
+		var futures = new ArrayList<Future<Optional<Map<String, KeychainEntry>>>>(keychainPaths.size());
+		try {
+			for (Path keychainPath : keychainPaths) {
+				futures.add(executor.submit(() -> parse(keychainPath)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				var maybeKeychain = futures.get(i).get();
+				if (maybeKeychain.isPresent()) {
+					return Optional.of(new Probed(i, maybeKeychain.get()));
+				}
+			}
+			return Optional.empty();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof KeychainAccessException kae) {
+				throw kae;
+			}
+			throw new KeychainAccessException("Failed to load keychain", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new KeychainAccessException("Interrupted while loading keychain", e);
+		} finally {
+			futures.forEach(f -> f.cancel(true)); //no-op for completed ones
+			executor.shutdown(); //don't wait for cancelled parsers, they end on their own
+		}
+	}
+
+	private void startMigration() {
+		if (settings.migrate() && keychainPaths.size() > 1) {
+			Thread.ofVirtual().name("keychain-migration").start(() -> {
+				try {
+					migrate();
+				} catch (KeychainAccessException e) {
+					LOG.warn("Failed to migrate legacy keychain files.", e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Moves the content of a legacy keychain file to the first keychain path and retires all legacy files by renaming them with the suffix {@value MIGRATED_SUFFIX}.
+	 * <p>
+	 * The content is written with a single atomic write and parsed again to verify it. Legacy files are only retired after the first keychain path holds the verified content.
+	 * Every step can be repeated, so a migration interrupted by a crash is completed on the next run.
+	 *
+	 * @throws KeychainAccessException if the content cannot be written to the first keychain path
+	 */
+	//visible for testing
+	void migrate() throws KeychainAccessException {
+		load();
+		var external = KeychainChange.NONE;
+		synchronized (saveLock) {
+			if (lockFile == null) {
+				migrateLocked();
+				return;
+			}
+			try (var lock = lockFile.lock(false)) {
+				long generation = lockFile.generation();
+				if (generation != loadedLockFileGeneration) {
+					external = reload();
+					savedGeneration = content.generation();
+					loadedLockFileGeneration = generation;
+				}
+				if (migrateLocked()) {
+					loadedLockFileGeneration = -1; //just in case writing the lock file fails
+					lockFile.setGeneration(generation + 1);
+					loadedLockFileGeneration = generation + 1;
+				}
+			} catch (IOException e) {
+				throw new KeychainAccessException("Failed to access keychain lock file " + lockFile.path(), e);
+			} finally {
+				notifyChangeListeners(external);
+			}
 		}
+	}
 
+	// must be called while holding saveLock, returns whether the keychain file was written
+	private boolean migrateLocked() throws KeychainAccessException {
+		var keychainFile = keychainPaths.getFirst();
+		boolean written = false;
+		if (loadedPathIndex > 0) {
+			LOG.info("Migrating keychain from {} to {}", keychainPaths.get(loadedPathIndex), keychainFile);
+			Map<String, KeychainEntry> expected;
+			synchronized (this) { //no mutations between capturing and writing the content
+				expected = content.entries();
+				save();
+			}
+			written = true;
+			if (!parse(keychainFile).map(expected::equals).orElse(false)) {
+				LOG.warn("Keeping legacy keychain files: Verification of migrated keychain file {} failed.", keychainFile);
+				return written;
+			}
+			loadedPathIndex = 0;
+		}
+		if (loadedPathIndex == 0) {
+			for (var legacyPath : keychainPaths.subList(1, keychainPaths.size())) {
+				if (!legacyPath.equals(keychainFile)) {
+					retire(legacyPath);
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Renames a keychain file, whose content has been moved elsewhere, with the suffix {@value MIGRATED_SUFFIX}, so it is not read again.
+	 * Failures are only logged, as the file can still be retired later.
+	 *
+	 * @param legacyPath the keychain file to retire, which may not exist
+	 */
+	static void retire(Path legacyPath) {
+		if (Files.notExists(legacyPath)) {
+			return;
+		}
+		var retiredPath = legacyPath.resolveSibling(legacyPath.getFileName() + MIGRATED_SUFFIX);
+		try {
+			Files.move(legacyPath, retiredPath, StandardCopyOption.REPLACE_EXISTING);
+			LOG.debug("Retired legacy keychain file {}", legacyPath);
+		} catch (IOException e) {
+			LOG.warn("Failed to retire legacy keychain file {}.", legacyPath, e);
+		}
 	}
 
 	//visible for testing
 	Optional<Map<String, KeychainEntry>> parse(Path keychainPath) throws KeychainAccessException {
+		var event = new KeychainFileEvent.Load();
+		event.begin();
+		Optional<Map<String, KeychainEntry>> result = Optional.empty();
+		try {
+			result = read(keychainPath, event);
+			return result;
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.path = keychainPath.toString();
+				event.entries = result.map(Map::size).orElse(0);
+				event.succeeded = result.isPresent();
+				event.commit();
+			}
+		}
+	}
+
+	private Optional<Map<String, KeychainEntry>> read(Path keychainPath, KeychainFileEvent.Load event) throws KeychainAccessException {
 		LOG.debug("Loading keychain from {}", keychainPath);
-		TypeReference<Map<String, KeychainEntry>> type = new TypeReference<>() {
-		};
-		try (InputStream in = Files.newInputStream(keychainPath, StandardOpenOption.READ); //
-			 Reader reader = new InputStreamReader(in, UTF_8)) {
-			return Optional.ofNullable(JSON_MAPPER.readValue(reader, type));
+		try (FileChannel ch = FileChannel.open(keychainPath, StandardOpenOption.READ)) {
+			if (event.isEnabled()) {
+				event.bytes = ch.size();
+			}
+			if (BinaryKeychainFormat.hasMagic(ch)) {
+				return Optional.of(BinaryKeychainFormat.read(ch));
+			}
+			var json = Channels.newInputStream(ch).readAllBytes();
+			return Optional.ofNullable(LazyKeychainMap.parse(JSON_MAPPER, json));
 		} catch (NoSuchFileException e) {
 			return Optional.empty();
-		} catch (JacksonException je) {
+		} catch (JacksonException | MalformedKeychainException e) {
 			LOG.warn("Ignoring existing keychain file {}: Parsing failed.", keychainPath);
 			return Optional.empty();
 		} catch (IOException e) {
@@ -101,17 +586,170 @@ class FileKeychain implements WindowsKeychainAccessBase.Keychain {
 	}
 
 	//visible for testing
-	synchronized void save() throws KeychainAccessException {
+	void save() throws KeychainAccessException {
 		var keychainFile = keychainPaths.getFirst(); //Note: we are always storing the keychain to the first entry to use the 'newest' keychain path and thus migrate old data
-		LOG.debug("Writing keychain to {}", keychainFile);
-		try (OutputStream out = Files.newOutputStream(keychainFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING); //
-			 Writer writer = new OutputStreamWriter(out, UTF_8)) {
-			JSON_MAPPER.writeValue(writer, cache);
+		synchronized (saveLock) {
+			var current = content;
+			LOG.debug("Writing keychain generation {} to {}", current.generation(), keychainFile);
+			var event = new KeychainFileEvent.Save();
+			event.begin();
+			long start = KeychainMetrics.start();
+			long size = 0;
+			boolean succeeded = false;
+			try {
+				var bytes = switch (settings.format()) {
+					case JSON -> new ByteBuffer[] {ByteBuffer.wrap(JSON_MAPPER.writeValueAsBytes(current.entries()))};
+					case BINARY -> BinaryKeychainFormat.encode(current.entries());
+				};
+				size = Arrays.stream(bytes).mapToLong(ByteBuffer::remaining).sum();
+				AtomicFiles.write(keychainFile, settings.durability(), bytes);
+				KeychainMetrics.bytesWritten(METRICS_COMPONENT, KeychainOperation.KEYCHAIN_SAVE, size);
+				succeeded = true;
+			} catch (IOException e) {
+				throw new KeychainAccessException("Could not write keychain to path " + keychainFile, e);
+			} finally {
+				KeychainMetrics.completed(METRICS_COMPONENT, KeychainOperation.KEYCHAIN_SAVE, start, succeeded);
+				event.end();
+				if (event.shouldCommit()) {
+					event.path = keychainFile.toString();
+					event.bytes = size;
+					event.entries = current.entries().size();
+					event.succeeded = succeeded;
+					event.commit();
+				}
+			}
+			savedGeneration = current.generation();
+			mergeSaved(current);
+		}
+	}
+
+	// saving has visited all entries anyway, so this is the time to merge the changes into a new base, keeping subsequent mutations cheap
+	private synchronized void mergeSaved(Content saved) {
+		if (content == saved && saved.entries() instanceof OverlayKeychainMap overlay && overlay.changes() > 0) {
+			content = new Content(overlay.merged(), saved.generation());
+		}
+	}
+
+	// saves the current content, unless a save of the given generation or a later one already happened while waiting for the lock
+	private void saveUpTo(long generation) throws KeychainAccessException {
+		synchronized (saveLock) {
+			if (savedGeneration < generation) {
+				save();
+			}
+		}
+	}
+
+	/**
+	 * Persists the keychain, if mutations are not yet saved. This includes mutations, whose commit failed before.
+	 * <p>
+	 * If saving fails in write-behind mode, waiters for the pending commit are notified about the failure and another commit is scheduled.
+	 *
+	 * @throws KeychainAccessException if the keychain cannot be persisted
+	 */
+	@Override
+	public void flush() throws KeychainAccessException {
+		CompletableFuture<Void> commit;
+		synchronized (this) {
+			commit = pendingCommit;
+			pendingCommit = null;
+		}
+		try {
+			saveUpTo(content.generation()); //no-op, unless a generation is unsaved
+		} catch (KeychainAccessException e) {
+			if (!settings.commitDelay().isZero()) {
+				scheduleCommit(); //the mutations are still unsaved, so retry after another commit window
+			}
+			if (commit != null) {
+				commit.completeExceptionally(e);
+			}
+			throw e;
+		}
+		if (commit != null) {
+			commit.complete(null);
+		}
+	}
+
+	/**
+	 * Returns a handle to wait for all mutations applied so far to be persisted.
+	 *
+	 * @return a future completing as soon as the pending mutations are written to disk, or completing exceptionally if writing failed
+	 */
+	synchronized CompletableFuture<Void> durable() {
+		return pendingCommit != null ? pendingCommit.copy() : CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Persists pending mutations and releases the committer thread, its shutdown hook and the watcher.
+	 * Mutations applied afterwards are written to disk immediately.
+	 *
+	 * @throws KeychainAccessException if pending mutations cannot be persisted
+	 */
+	void close() throws KeychainAccessException {
+		ScheduledThreadPoolExecutor executor;
+		Thread shutdownHook;
+		synchronized (this) {
+			closed = true;
+			executor = committer;
+			shutdownHook = committerShutdownHook;
+			committer = null;
+			committerShutdownHook = null;
+		}
+		try {
+			stopWatching();
 		} catch (IOException e) {
-			throw new KeychainAccessException("Could not write keychain to path " + keychainFile, e);
+			LOG.warn("Failed to stop watching keychain file {}.", keychainPaths.getFirst(), e);
+		}
+		try {
+			flush();
+		} finally {
+			if (executor != null) {
+				executor.shutdown(); //lets a running commit finish and drops the scheduled one, which has nothing left to do
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException e) {
+					//JVM is already shutting down, the hook only flushes again
+				}
+			}
+		}
+	}
+
+	private void commit(long generation) throws KeychainAccessException {
+		if (settings.commitDelay().isZero() || !scheduleCommit()) {
+			saveUpTo(generation);
+		}
+	}
+
+	// returns false, if the keychain is closed and hence the mutations must be persisted right away
+	private synchronized boolean scheduleCommit() {
+		if (closed) {
+			return false;
+		}
+		if (pendingCommit == null) {
+			pendingCommit = new CompletableFuture<>();
+			committer().schedule(this::commitPending, settings.commitDelay().toMillis(), TimeUnit.MILLISECONDS);
+		}
+		return true;
+	}
+
+	private void commitPending() {
+		try {
+			flush();
+		} catch (KeychainAccessException e) {
+			LOG.error("Failed to persist pending keychain changes.", e);
 		}
 	}
 
+	private synchronized ScheduledThreadPoolExecutor committer() {
+		if (committer == null) {
+			committer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().name("keychain-committer").daemon().factory());
+			committer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			//don't lose the last commit window on a regular JVM exit
+			committerShutdownHook = Thread.ofPlatform().name("keychain-committer-shutdown").unstarted(this::commitPending);
+			Runtime.getRuntime().addShutdownHook(committerShutdownHook);
+		}
+		return committer;
+	}
+
 	static List<Path> parsePaths(String listOfPaths, String pathSeparator) {
 		return Arrays.stream(listOfPaths.split(pathSeparator))
 				.filter(Predicate.not(String::isEmpty))
@@ -129,33 +767,144 @@ class FileKeychain implements WindowsKeychainAccessBase.Keychain {
 	}
 
 	@Override
-	public KeychainEntry put(String id, KeychainEntry value) throws KeychainAccessException {
+	public void preload() throws KeychainAccessException {
+		JSON_MAPPER.readerFor(KeychainEntry.class); //creates the deserializer needed to decode lazily parsed entries
 		load();
-		var result = cache.put(id, value);
-		save();
-		return result;
+	}
+
+	@Override
+	public KeychainEntry put(String id, KeychainEntry value) throws KeychainAccessException {
+		return mutate(id, previous -> value);
 	}
 
 	@Override
 	public KeychainEntry get(String id) throws KeychainAccessException {
 		load();
-		return cache.get(id);
+		return content.entries().get(id);
 	}
 
 	@Override
-	public KeychainEntry remove(String id) throws KeychainAccessException {
+	public Set<String> ids() throws KeychainAccessException {
 		load();
-		var result = cache.remove(id);
-		save();
-		return result;
+		return Set.copyOf(content.entries().keySet());
+	}
+
+	@Override
+	public KeychainEntry remove(String id) throws KeychainAccessException {
+		return mutate(id, previous -> null);
 	}
 
 	@Override
 	public KeychainEntry change(String id, KeychainEntry newEntry) throws KeychainAccessException {
+		return mutate(id, previous -> previous != null ? newEntry : null);
+	}
+
+	/**
+	 * Applies all mutations with a single update of the content and commits the change, unless all entries stay the same.
+	 *
+	 * @param mutations adds the mutations to apply
+	 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+	 */
+	@Override
+	public void update(Consumer<Batch> mutations) throws KeychainAccessException {
+		var batch = KeychainBatch.of(mutations);
+		if (!batch.isEmpty()) {
+			mutateAll(batch.updates());
+		}
+	}
+
+	/**
+	 * Updates a single entry and commits the change, unless the entry stays the same.
+	 *
+	 * @param id     Identifier of the keychain entry
+	 * @param update computes the new entry from the current one, {@code null} meaning absent
+	 * @return the former entry or null, if none was present
+	 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+	 */
+	private KeychainEntry mutate(String id, UnaryOperator<KeychainEntry> update) throws KeychainAccessException {
+		return mutateAll(Map.of(id, update)).get(id);
+	}
+
+	/**
+	 * Updates several entries at once and commits the change, unless all entries stay the same.
+	 *
+	 * @param updates for each id the function computing its new entry from the current one, {@code null} meaning absent
+	 * @return the former entries of all ids, which have been present
+	 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+	 */
+	private Map<String, KeychainEntry> mutateAll(Map<String, UnaryOperator<KeychainEntry>> updates) throws KeychainAccessException {
 		load();
-		var result = cache.computeIfPresent(id, (_, _) -> newEntry);
-		save();
-		return result;
+		if (lockFile != null) {
+			return mutateShared(updates);
+		}
+		var previous = new HashMap<String, KeychainEntry>();
+		long generation;
+		synchronized (this) {
+			generation = publish(updates, previous);
+		}
+		if (generation != UNCHANGED) {
+			commit(generation);
+		}
+		return previous;
+	}
+
+	// read-modify-write of the keychain file while other processes are locked out
+	private Map<String, KeychainEntry> mutateShared(Map<String, UnaryOperator<KeychainEntry>> updates) throws KeychainAccessException {
+		var external = KeychainChange.NONE;
+		synchronized (saveLock) {
+			try (var lock = lockFile.lock(false)) {
+				long generation = lockFile.generation();
+				if (generation != loadedLockFileGeneration) {
+					LOG.debug("Keychain generation changed to {}. Reloading keychain.", generation);
+					external = reload();
+					loadedLockFileGeneration = generation;
+				}
+				var previous = new HashMap<String, KeychainEntry>();
+				synchronized (this) {
+					if (publish(updates, previous) == UNCHANGED) {
+						return previous;
+					}
+				}
+				loadedLockFileGeneration = -1; //in case saving fails, the content does not match any generation
+				save();
+				lockFile.setGeneration(generation + 1);
+				loadedLockFileGeneration = generation + 1;
+				return previous;
+			} catch (IOException e) {
+				throw new KeychainAccessException("Failed to access keychain lock file " + lockFile.path(), e);
+			} finally {
+				notifyChangeListeners(external);
+			}
+		}
+	}
+
+	/**
+	 * Publishes an updated version of the current content, which shares all unchanged entries with it, see {@link OverlayKeychainMap} for the cost.
+	 * Must be called while holding the monitor.
+	 *
+	 * @param updates  for each id the function computing its new entry from the current one, {@code null} meaning absent
+	 * @param previous receives the former entries of all ids, which have been present
+	 * @return the generation of the published content or {@value UNCHANGED}, if no entry changed and nothing was published
+	 */
+	private long publish(Map<String, UnaryOperator<KeychainEntry>> updates, Map<String, KeychainEntry> previous) {
+		var current = content;
+		var changed = new HashMap<String, KeychainEntry>(); //null values denote removals
+		for (var update : updates.entrySet()) {
+			var id = update.getKey();
+			var before = current.entries().get(id);
+			var after = update.getValue().apply(before);
+			if (before != null) {
+				previous.put(id, before);
+			}
+			if (!Objects.equals(before, after)) {
+				changed.put(id, after);
+			}
+		}
+		if (changed.isEmpty()) {
+			return UNCHANGED;
+		}
+		content = new Content(OverlayKeychainMap.of(current.entries()).with(changed), current.generation() + 1);
+		return current.generation() + 1;
 	}
 
 	@Override
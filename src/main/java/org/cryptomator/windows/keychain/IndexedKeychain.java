@@ -0,0 +1,830 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.cryptomator.windows.keychain.JournalKeychain.HEADER_SIZE;
+import static org.cryptomator.windows.keychain.JournalKeychain.MAGIC;
+import static org.cryptomator.windows.keychain.JournalKeychain.RECORD_HEADER_SIZE;
+import static org.cryptomator.windows.keychain.JournalKeychain.TYPE_BATCH;
+import static org.cryptomator.windows.keychain.JournalKeychain.TYPE_PUT;
+import static org.cryptomator.windows.keychain.JournalKeychain.TYPE_REMOVE;
+import static org.cryptomator.windows.keychain.JournalKeychain.VERSION;
+
+/**
+ * A file-based keychain for a large number of entries, which keeps neither entries nor ids in memory.
+ * <p>
+ * Entries are stored in the journal also used by {@link JournalKeychain}. Next to it, a hash index with the suffix {@value INDEX_SUFFIX}
+ * maps the hash of each id to position and length of its live record. A lookup costs positional reads of few index slots and of the record itself.
+ * Only a bounded number of recently used entries is cached in memory.
+ * <p>
+ * The index consists of a header {@code [int magic][int version][int slotCount][int count][int tombstones][int lastRecordChecksum][long journalLength][long lastRecordOffset][long garbage]}
+ * followed by {@code slotCount} slots {@code [int hash][int recordLength][long recordOffset]}, which are probed linearly.
+ * Since the header is written after the slots, it only matches the journal, if all slots are up to date.
+ * Otherwise, e.g. after a crash or after the journal was written by {@link JournalKeychain}, the index is rebuilt from the journal.
+ * <p>
+ * If no journal exists, the JSON keychain files are migrated when the keychain is loaded.
+ * A journal of unknown format is not overwritten by the migration, but kept with the suffix {@value JournalKeychain#UNKNOWN_FORMAT_SUFFIX}.
+ */
+class IndexedKeychain implements WindowsKeychainAccessBase.Keychain {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IndexedKeychain.class);
+	static final String INDEX_SUFFIX = ".index";
+	static final int DEFAULT_CACHE_SIZE = 256;
+	private static final int INDEX_MAGIC = 0x434D4B49; // "CMKI"
+	private static final int INDEX_VERSION = 1;
+	private static final int INDEX_HEADER_SIZE = 6 * Integer.BYTES + 3 * Long.BYTES;
+	private static final int SLOT_SIZE = 2 * Integer.BYTES + Long.BYTES;
+	private static final int MIN_SLOTS = 64;
+	private static final int SLOTS_PER_READ = 256;
+	private static final long EMPTY = 0;
+	private static final long TOMBSTONE = -1;
+
+	private final List<Path> keychainPaths;
+	private final Durability durability;
+	private final long compactionThreshold;
+	private final Map<String, KeychainEntry> recentlyUsed;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private FileChannel journal; //guarded by lock
+	private Index index; //guarded by lock
+	private boolean compacting; //guarded by write lock
+	private volatile boolean loaded;
+
+	IndexedKeychain(List<Path> keychainPaths, Durability durability, long compactionThreshold, int cacheSize) {
+		this.keychainPaths = keychainPaths;
+		this.durability = durability;
+		this.compactionThreshold = compactionThreshold;
+		this.recentlyUsed = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, KeychainEntry> eldest) {
+				return size() > cacheSize;
+			}
+		});
+	}
+
+	void load() throws KeychainAccessException {
+		if (!loaded) {
+			lock.writeLock().lock();
+			try {
+				if (!loaded) {
+					loadInternal();
+					loaded = true;
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private void loadInternal() throws KeychainAccessException {
+		if (keychainPaths.isEmpty()) {
+			throw new KeychainAccessException("No path specified to store keychain");
+		}
+		LOG.debug("Loading keychain journal from {}", journalFile());
+		try {
+			if (!isJournal()) {
+				migrate();
+			}
+			journal = FileChannel.open(journalFile(), READ, WRITE);
+			index = openIndex();
+			if (index == null) {
+				index = rebuildIndex();
+			}
+		} catch (IOException e) {
+			close();
+			throw new KeychainAccessException("Failed to load keychain journal " + journalFile(), e);
+		}
+	}
+
+	private boolean isJournal() throws IOException {
+		try (var ch = FileChannel.open(journalFile(), READ)) {
+			var header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && ch.read(header) >= 0) {
+				//read until full or EOF
+			}
+			if (header.flip().remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.getInt() == VERSION) {
+				return true;
+			}
+		} catch (NoSuchFileException e) {
+			LOG.debug("Keychain journal not found. Migrating keychain from JSON files.");
+			return false;
+		}
+		JournalKeychain.setAside(journalFile());
+		return false;
+	}
+
+	private void migrate() throws IOException {
+		Map<String, KeychainEntry> entries;
+		try {
+			entries = new FileKeychain(keychainPaths, FileKeychain.Settings.DEFAULT).snapshot();
+		} catch (KeychainAccessException e) {
+			throw new IOException("Failed to read JSON keychain", e);
+		}
+		var buffers = new ArrayList<ByteBuffer>(entries.size() + 1);
+		buffers.add(journalHeader());
+		entries.forEach((id, entry) -> buffers.add(JournalKeychain.encodeRecord(TYPE_PUT, id, entry)));
+		AtomicFiles.write(journalFile(), durability, buffers.toArray(ByteBuffer[]::new));
+	}
+
+	private Index openIndex() throws IOException {
+		FileChannel ch;
+		try {
+			ch = FileChannel.open(indexFile(), READ, WRITE);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		var index = readIndex(ch);
+		if (index != null && index.coversJournal()) {
+			return index;
+		}
+		LOG.debug("Keychain index {} does not match journal.", indexFile());
+		ch.close();
+		return null;
+	}
+
+	private Index readIndex(FileChannel ch) throws IOException {
+		if (ch.size() < INDEX_HEADER_SIZE) {
+			return null;
+		}
+		var header = readFully(ch, 0, INDEX_HEADER_SIZE);
+		if (header.getInt() != INDEX_MAGIC || header.getInt() != INDEX_VERSION) {
+			return null;
+		}
+		int slotCount = header.getInt();
+		if (slotCount < MIN_SLOTS || Integer.bitCount(slotCount) != 1 || ch.size() != INDEX_HEADER_SIZE + (long) slotCount * SLOT_SIZE) {
+			return null;
+		}
+		var index = new Index(ch, slotCount);
+		index.count = header.getInt();
+		index.tombstones = header.getInt();
+		index.lastRecordChecksum = header.getInt();
+		index.journalLength = header.getLong();
+		index.lastRecordOffset = header.getLong();
+		index.garbage = header.getLong();
+		return index;
+	}
+
+	// scans the journal twice: first to count and validate records, then to index them
+	private Index rebuildIndex() throws IOException {
+		LOG.debug("Rebuilding keychain index {}", indexFile());
+		int[] records = {0};
+		long validLength = scan((offset, length, record) -> records[0]++);
+		if (validLength < journal.size()) {
+			LOG.warn("Discarding {} bytes of damaged records at the end of keychain journal {}.", journal.size() - validLength, journalFile());
+			journal.truncate(validLength);
+		}
+		return writeIndex(slotCountFor(records[0]), fresh -> scan((offset, length, record) -> {
+			int hash = hash(record.id());
+			if (record.type() == TYPE_BATCH) {
+				fresh.garbage += length; //only needed until the batch is compacted
+				return;
+			}
+			var slot = fresh.probe(record.id(), hash);
+			if (record.type() == TYPE_PUT) {
+				fresh.put(slot, hash, length, offset);
+			} else if (slot.isLive()) {
+				fresh.remove(slot, length);
+			} else {
+				fresh.garbage += length;
+			}
+			fresh.journalLength = offset + length;
+			fresh.lastRecordOffset = offset;
+			fresh.lastRecordChecksum = record.checksum();
+		}));
+	}
+
+	// creates a new index with the given number of slots and replaces the current one
+	private Index writeIndex(int slotCount, IndexWriter writer) throws IOException {
+		AtomicFiles.write(indexFile(), durability, ch -> {
+			var fresh = new Index(ch, slotCount);
+			ch.write(ByteBuffer.allocate(1), fresh.size() - 1); //allocate zeroed, i.e. empty, slots
+			writer.writeTo(fresh);
+			fresh.writeHeader();
+			return fresh.size();
+		});
+		closeIndex();
+		var ch = FileChannel.open(indexFile(), READ, WRITE);
+		var index = readIndex(ch);
+		if (index == null) {
+			ch.close();
+			throw new IOException("Failed to write keychain index " + indexFile());
+		}
+		return index;
+	}
+
+	private Index rehash() throws IOException {
+		var old = index;
+		LOG.debug("Resizing keychain index {} to {} entries.", indexFile(), old.count);
+		return writeIndex(slotCountFor(old.count), fresh -> {
+			old.forEachLive(fresh::insertDistinct);
+			fresh.garbage = old.garbage;
+			fresh.journalLength = old.journalLength;
+			fresh.lastRecordOffset = old.lastRecordOffset;
+			fresh.lastRecordChecksum = old.lastRecordChecksum;
+		});
+	}
+
+	private static int slotCountFor(int entries) {
+		int slotCount = MIN_SLOTS;
+		while (slotCount < 4L * entries) {
+			slotCount <<= 1;
+		}
+		return slotCount;
+	}
+
+	@Override
+	public void preload() throws KeychainAccessException {
+		load();
+	}
+
+	@Override
+	public KeychainEntry put(String id, KeychainEntry value) throws KeychainAccessException {
+		lock.writeLock().lock();
+		try {
+			load();
+			int hash = hash(id);
+			var slot = index.probe(id, hash);
+			var previous = slot.isLive() ? readRecord(slot.offset(), slot.length()).entry() : null;
+			if (!value.equals(previous)) {
+				persist(List.of(new Mutation(TYPE_PUT, id, value, hash, slot)));
+			}
+			return previous;
+		} catch (IOException e) {
+			throw failed(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public KeychainEntry get(String id) throws KeychainAccessException {
+		load();
+		var cached = recentlyUsed.get(id);
+		if (cached != null) {
+			return cached;
+		}
+		try {
+			return read(() -> {
+				var slot = index.probe(id, hash(id));
+				if (!slot.isLive()) {
+					return null;
+				}
+				var entry = readRecord(slot.offset(), slot.length()).entry();
+				recentlyUsed.put(id, entry); //still holding the read lock, hence no writer can have invalidated the entry
+				return entry;
+			});
+		} catch (IOException e) {
+			throw new KeychainAccessException("Failed to read keychain entry from " + journalFile(), e);
+		}
+	}
+
+	// ids are not kept in memory, hence the record of each live slot is read
+	@Override
+	public Set<String> ids() throws KeychainAccessException {
+		try {
+			return read(() -> {
+				var ids = new HashSet<String>();
+				index.forEachLive((hash, length, offset) -> ids.add(readRecord(offset, length).id()));
+				return Set.copyOf(ids);
+			});
+		} catch (IOException e) {
+			throw new KeychainAccessException("Failed to read keychain entries from " + journalFile(), e);
+		}
+	}
+
+	// a write failing between loading and taking the read lock closes journal and index, hence they are loaded again
+	private <T> T read(IndexReader<T> reader) throws KeychainAccessException, IOException {
+		while (true) {
+			load();
+			lock.readLock().lock();
+			try {
+				if (loaded) {
+					return reader.read();
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+	}
+
+	@Override
+	public KeychainEntry remove(String id) throws KeychainAccessException {
+		lock.writeLock().lock();
+		try {
+			load();
+			int hash = hash(id);
+			var slot = index.probe(id, hash);
+			if (!slot.isLive()) {
+				return null;
+			}
+			var previous = readRecord(slot.offset(), slot.length()).entry();
+			persist(List.of(new Mutation(TYPE_REMOVE, id, null, hash, slot)));
+			return previous;
+		} catch (IOException e) {
+			throw failed(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public KeychainEntry change(String id, KeychainEntry newValue) throws KeychainAccessException {
+		lock.writeLock().lock();
+		try {
+			load();
+			int hash = hash(id);
+			var slot = index.probe(id, hash);
+			if (!slot.isLive()) {
+				return null;
+			}
+			var previous = readRecord(slot.offset(), slot.length()).entry();
+			if (!previous.equals(newValue)) {
+				persist(List.of(new Mutation(TYPE_PUT, id, newValue, hash, slot)));
+			}
+			return previous;
+		} catch (IOException e) {
+			throw failed(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends the records of all mutations, preceded by a batch record, with a single write and updates the index afterwards.
+	 *
+	 * @param mutations adds the mutations to apply
+	 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+	 */
+	@Override
+	public void update(Consumer<Batch> mutations) throws KeychainAccessException {
+		var batch = KeychainBatch.of(mutations);
+		lock.writeLock().lock();
+		try {
+			load();
+			var changes = new ArrayList<Mutation>();
+			for (var update : batch.updates().entrySet()) {
+				var id = update.getKey();
+				int hash = hash(id);
+				var slot = index.probe(id, hash);
+				var previous = slot.isLive() ? readRecord(slot.offset(), slot.length()).entry() : null;
+				var updated = update.getValue().apply(previous);
+				if (!Objects.equals(previous, updated)) {
+					changes.add(updated != null ? new Mutation(TYPE_PUT, id, updated, hash, slot) : new Mutation(TYPE_REMOVE, id, null, hash, slot));
+				}
+			}
+			if (!changes.isEmpty()) {
+				persist(changes);
+			}
+		} catch (IOException e) {
+			throw failed(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isSupported() {
+		return !keychainPaths.isEmpty();
+	}
+
+	/**
+	 * A mutation to persist.
+	 *
+	 * @param slot the slot of the id, as probed before any mutation of the same batch was applied to the index
+	 */
+	private record Mutation(byte type, String id, KeychainEntry entry, int hash, Slot slot) {}
+
+	// appends the records to the journal first, then updates the index slots and finally the index header
+	private void persist(List<Mutation> mutations) throws IOException {
+		var records = mutations.stream().map(m -> JournalKeychain.encodeRecord(m.type(), m.id(), m.entry())).toList();
+		int batchLength = records.stream().mapToInt(ByteBuffer::remaining).sum();
+		var batchRecord = records.size() > 1 ? JournalKeychain.encodeBatchRecord(batchLength) : null;
+		int batchRecordSize = batchRecord != null ? batchRecord.remaining() : 0;
+		var buf = ByteBuffer.allocate(batchRecordSize + batchLength);
+		if (batchRecord != null) {
+			buf.put(batchRecord);
+		}
+		records.forEach(buf::put);
+		buf.flip();
+		long offset = index.journalLength;
+		while (buf.hasRemaining()) {
+			journal.write(buf, offset + buf.position());
+		}
+		if (durability != Durability.NONE) {
+			journal.force(true);
+		}
+		index.garbage += batchRecordSize; //only needed until the batch is compacted
+		long recordOffset = offset + batchRecordSize;
+		for (int i = 0; i < mutations.size(); i++) {
+			var m = mutations.get(i);
+			int length = records.get(i).limit();
+			if (i > 0 && index.isCrowded()) {
+				index = rehash();
+			}
+			var slot = i == 0 ? m.slot() : index.probe(m.id(), m.hash()); //earlier mutations may have taken or freed slots
+			recentlyUsed.remove(m.id());
+			if (m.type() == TYPE_PUT) {
+				index.put(slot, m.hash(), length, recordOffset);
+			} else {
+				index.remove(slot, length);
+			}
+			index.lastRecordOffset = recordOffset;
+			index.lastRecordChecksum = records.get(i).getInt(Integer.BYTES);
+			recordOffset += length;
+		}
+		index.journalLength = recordOffset;
+		if (durability != Durability.NONE) {
+			index.ch.force(false);
+		}
+		index.writeHeader();
+		if (durability != Durability.NONE) {
+			index.ch.force(false);
+		}
+		if (index.isCrowded()) {
+			index = rehash();
+		}
+		if (index.garbage >= compactionThreshold && 2 * index.garbage >= index.journalLength && !compacting) {
+			compacting = true;
+			Thread.ofVirtual().name("keychain-compactor").start(this::compact);
+		}
+	}
+
+	// after a failed write, neither journal nor index may be trusted until they are validated again
+	private KeychainAccessException failed(IOException e) {
+		close();
+		loaded = false;
+		return new KeychainAccessException("Failed to update keychain journal " + journalFile(), e);
+	}
+
+	//visible for testing
+	void compact() {
+		lock.writeLock().lock();
+		try {
+			if (!loaded) {
+				return;
+			}
+			LOG.debug("Compacting keychain journal {}", journalFile());
+			var old = index;
+			AtomicFiles.write(journalFile(), durability, ch -> {
+				ch.write(journalHeader());
+				old.forEachLive((hash, length, offset) -> {
+					var record = readFully(journal, offset, length);
+					while (record.hasRemaining()) {
+						ch.write(record);
+					}
+				});
+				return ch.size();
+			});
+			closeJournal();
+			journal = FileChannel.open(journalFile(), READ, WRITE);
+			index = rebuildIndex();
+		} catch (IOException e) {
+			LOG.warn("Failed to compact keychain journal {}.", journalFile(), e);
+			close();
+			loaded = false;
+		} finally {
+			compacting = false;
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void close() {
+		closeJournal();
+		closeIndex();
+		recentlyUsed.clear();
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				LOG.debug("Failed to close keychain journal.", e);
+			}
+			journal = null;
+		}
+	}
+
+	private void closeIndex() {
+		if (index != null) {
+			try {
+				index.ch.close();
+			} catch (IOException e) {
+				LOG.debug("Failed to close keychain index.", e);
+			}
+			index = null;
+		}
+	}
+
+	private record Record(byte type, String id, KeychainEntry entry, int checksum, int batchLength) {}
+
+	private Record readRecord(long offset, int length) throws IOException {
+		var buf = readFully(journal, offset, length);
+		int payloadLength = buf.getInt();
+		int checksum = buf.getInt();
+		if (payloadLength != length - RECORD_HEADER_SIZE) {
+			throw new MalformedKeychainException("Unexpected record length at offset " + offset);
+		}
+		var payload = buf.slice();
+		if (JournalKeychain.checksum(payload) != checksum) {
+			throw new MalformedKeychainException("Checksum mismatch at offset " + offset);
+		}
+		try {
+			byte type = payload.get();
+			var id = new String(JournalKeychain.readBytes(payload), UTF_8);
+			var entry = switch (type) {
+				case TYPE_PUT -> new KeychainEntry(JournalKeychain.readBytes(payload), JournalKeychain.readBytes(payload));
+				case TYPE_REMOVE, TYPE_BATCH -> null;
+				default -> throw new MalformedKeychainException("Unknown record type at offset " + offset);
+			};
+			int batchLength = type == TYPE_BATCH ? payload.getInt() : 0;
+			return new Record(type, id, entry, checksum, batchLength);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new MalformedKeychainException("Malformed record at offset " + offset, e);
+		}
+	}
+
+	// reads the journal sequentially until the first damaged record and returns the end of the last intact record. Records of a batch are only passed on, if the whole batch is intact.
+	private long scan(RecordConsumer consumer) throws IOException {
+		long size = journal.size();
+		long position = HEADER_SIZE;
+		ScannedRecord scanned;
+		while ((scanned = scanRecord(position, size)) != null) {
+			var batch = new ArrayList<ScannedRecord>();
+			batch.add(scanned);
+			long end = position + scanned.length();
+			if (scanned.record().type() == TYPE_BATCH) {
+				long batchEnd = end + scanned.record().batchLength();
+				while (end < batchEnd) {
+					var member = scanRecord(end, size);
+					if (member == null || member.record().type() == TYPE_BATCH) {
+						break;
+					}
+					batch.add(member);
+					end += member.length();
+				}
+				if (end != batchEnd) {
+					break;
+				}
+			}
+			for (var r : batch) {
+				consumer.accept(r.offset(), r.length(), r.record());
+			}
+			position = end;
+		}
+		return position;
+	}
+
+	private record ScannedRecord(long offset, int length, Record record) {}
+
+	// reads the record at the given position or returns null, if it is damaged
+	private ScannedRecord scanRecord(long position, long size) throws IOException {
+		if (size - position < RECORD_HEADER_SIZE) {
+			return null;
+		}
+		int payloadLength = readFully(journal, position, Integer.BYTES).getInt();
+		if (payloadLength <= 0 || payloadLength > size - position - RECORD_HEADER_SIZE) {
+			return null;
+		}
+		int length = RECORD_HEADER_SIZE + payloadLength;
+		try {
+			return new ScannedRecord(position, length, readRecord(position, length));
+		} catch (MalformedKeychainException e) {
+			return null;
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel ch, long position, int length) throws IOException {
+		var buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (ch.read(buf, position + buf.position()) < 0) {
+				throw new EOFException("Unexpected end of file at position " + (position + buf.position()));
+			}
+		}
+		return buf.flip();
+	}
+
+	private static ByteBuffer journalHeader() {
+		return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+	}
+
+	private static int hash(String id) {
+		int h = id.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	//visible for testing
+	Path journalFile() {
+		var first = keychainPaths.getFirst();
+		return first.resolveSibling(first.getFileName() + JournalKeychain.JOURNAL_SUFFIX);
+	}
+
+	//visible for testing
+	Path indexFile() {
+		var first = keychainPaths.getFirst();
+		return first.resolveSibling(first.getFileName() + INDEX_SUFFIX);
+	}
+
+	//visible for testing
+	int cachedEntries() {
+		return recentlyUsed.size();
+	}
+
+	//visible for testing
+	long garbage() {
+		lock.readLock().lock();
+		try {
+			return index == null ? 0 : index.garbage;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@FunctionalInterface
+	private interface RecordConsumer {
+		void accept(long offset, int length, Record record) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface SlotConsumer {
+		void accept(int hash, int length, long offset) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface IndexReader<T> {
+		T read() throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface IndexWriter {
+		void writeTo(Index index) throws IOException;
+	}
+
+	/**
+	 * A slot of the index. Empty slots have offset {@value EMPTY}, slots of removed entries have offset {@value TOMBSTONE}.
+	 */
+	private record Slot(int position, int hash, int length, long offset) {
+
+		boolean isLive() {
+			return offset > 0;
+		}
+	}
+
+	private class Index {
+
+		private final FileChannel ch;
+		private final int slotCount;
+		private int count;
+		private int tombstones;
+		private int lastRecordChecksum;
+		private long journalLength = HEADER_SIZE;
+		private long lastRecordOffset;
+		private long garbage;
+
+		Index(FileChannel ch, int slotCount) {
+			this.ch = ch;
+			this.slotCount = slotCount;
+		}
+
+		long size() {
+			return INDEX_HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+		}
+
+		boolean isCrowded() {
+			return 2L * (count + tombstones) > slotCount;
+		}
+
+		// checks the recorded journal length and the last indexed record, which detects appends and rewrites not reflected in the index
+		boolean coversJournal() throws IOException {
+			if (journalLength != journal.size()) {
+				return false;
+			} else if (lastRecordOffset == 0) {
+				return journalLength == HEADER_SIZE;
+			} else if (lastRecordOffset < HEADER_SIZE || lastRecordOffset > journalLength - RECORD_HEADER_SIZE) {
+				return false;
+			}
+			var header = readFully(journal, lastRecordOffset, RECORD_HEADER_SIZE);
+			return lastRecordOffset + RECORD_HEADER_SIZE + header.getInt() == journalLength && header.getInt() == lastRecordChecksum;
+		}
+
+		/**
+		 * Finds the slot of the given id.
+		 *
+		 * @return the live slot of the id or, if absent, the slot to insert the id into
+		 */
+		Slot probe(String id, int hash) throws IOException {
+			Slot insertionSlot = null;
+			for (int i = 0; i < slotCount; i++) {
+				var slot = readSlot((hash + i) & (slotCount - 1));
+				if (slot.offset() == EMPTY) {
+					return insertionSlot != null ? insertionSlot : slot;
+				} else if (slot.offset() == TOMBSTONE) {
+					insertionSlot = insertionSlot != null ? insertionSlot : slot;
+				} else if (slot.hash() == hash && id.equals(readRecord(slot.offset(), slot.length()).id())) {
+					return slot;
+				}
+			}
+			if (insertionSlot == null) {
+				throw new IOException("Keychain index is full");
+			}
+			return insertionSlot;
+		}
+
+		void put(Slot slot, int hash, int length, long offset) throws IOException {
+			writeSlot(slot.position(), hash, length, offset);
+			if (slot.isLive()) {
+				garbage += slot.length();
+			} else {
+				count++;
+				if (slot.offset() == TOMBSTONE) {
+					tombstones--;
+				}
+			}
+		}
+
+		void remove(Slot slot, int removalLength) throws IOException {
+			writeSlot(slot.position(), slot.hash(), 0, TOMBSTONE);
+			count--;
+			tombstones++;
+			garbage += slot.length() + removalLength; //a tombstone is not needed after compaction
+		}
+
+		// inserts an entry, which is known to be absent, without comparing ids
+		void insertDistinct(int hash, int length, long offset) throws IOException {
+			for (int i = 0; i < slotCount; i++) {
+				int position = (hash + i) & (slotCount - 1);
+				if (readSlot(position).offset() == EMPTY) {
+					writeSlot(position, hash, length, offset);
+					count++;
+					return;
+				}
+			}
+			throw new IOException("Keychain index is full");
+		}
+
+		void forEachLive(SlotConsumer consumer) throws IOException {
+			for (int first = 0; first < slotCount; first += SLOTS_PER_READ) {
+				int n = Math.min(SLOTS_PER_READ, slotCount - first);
+				var buf = readFully(ch, slotPosition(first), n * SLOT_SIZE);
+				for (int i = 0; i < n; i++) {
+					int hash = buf.getInt();
+					int length = buf.getInt();
+					long offset = buf.getLong();
+					if (offset > 0) {
+						consumer.accept(hash, length, offset);
+					}
+				}
+			}
+		}
+
+		private Slot readSlot(int position) throws IOException {
+			var buf = readFully(ch, slotPosition(position), SLOT_SIZE);
+			return new Slot(position, buf.getInt(), buf.getInt(), buf.getLong());
+		}
+
+		private void writeSlot(int position, int hash, int length, long offset) throws IOException {
+			var buf = ByteBuffer.allocate(SLOT_SIZE).putInt(hash).putInt(length).putLong(offset).flip();
+			while (buf.hasRemaining()) {
+				ch.write(buf, slotPosition(position) + buf.position());
+			}
+		}
+
+		private long slotPosition(int position) {
+			return INDEX_HEADER_SIZE + (long) position * SLOT_SIZE;
+		}
+
+		void writeHeader() throws IOException {
+			var buf = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+			buf.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(slotCount).putInt(count).putInt(tombstones).putInt(lastRecordChecksum);
+			buf.putLong(journalLength).putLong(lastRecordOffset).putLong(garbage).flip();
+			while (buf.hasRemaining()) {
+				ch.write(buf, buf.position());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,567 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A file-based keychain, persisting every mutation as a single record appended to a journal file.
+ * <p>
+ * The journal is located next to the first keychain path and has the suffix {@value JOURNAL_SUFFIX}.
+ * It starts with a magic number and a format version, followed by records of the form
+ * {@code [int payloadLength][int crc32c(payload)][byte type][int idLength][id][int ciphertextLength][ciphertext][int saltLength][salt]}.
+ * Records of removals omit ciphertext and salt.
+ * The records of a {@link #update(Consumer) batch update} are preceded by a batch record, which has an empty id and holds the total length of the batch's records instead of an entry.
+ * <p>
+ * On load, the journal is replayed. The first damaged record ends the replay, which discards the tail of a write interrupted by a crash.
+ * A batch is only replayed if all of its records are intact.
+ * Once superseded records exceed a threshold, the journal is compacted in the background by rewriting it with only the live entries.
+ * The snapshot is written from a copy of the entries without blocking mutations, whose records are copied over before the snapshot replaces the journal.
+ * <p>
+ * If no journal exists, the JSON keychain files are loaded instead and migrated to a journal on the first write.
+ * Once migrated, the JSON files are retired by renaming them with the suffix {@value FileKeychain#MIGRATED_SUFFIX}, so they are not read again.
+ * A journal of unknown format, e.g. written by a newer version, is kept with the suffix {@value UNKNOWN_FORMAT_SUFFIX} instead of being overwritten.
+ */
+class JournalKeychain implements WindowsKeychainAccessBase.Keychain {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JournalKeychain.class);
+	static final String JOURNAL_SUFFIX = ".journal";
+	static final String UNKNOWN_FORMAT_SUFFIX = ".unknown";
+	static final String COMPACTION_SUFFIX = ".compaction";
+	static final long DEFAULT_COMPACTION_THRESHOLD = 64 * 1024;
+	static final int MAGIC = 0x434D4B4A; // "CMKJ"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 2 * Integer.BYTES;
+	static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+	static final byte TYPE_PUT = 1;
+	static final byte TYPE_REMOVE = 2;
+	static final byte TYPE_BATCH = 3;
+
+	private final List<Path> keychainPaths;
+	private final Durability durability;
+	private final long compactionThreshold;
+	private final Map<String, KeychainEntry> cache = new ConcurrentHashMap<>();
+	private final Map<String, Integer> recordSizes = new HashMap<>(); //guarded by this, size of the live record per id
+
+	private FileChannel journal; //guarded by this, opened on first append
+	private long validLength; //guarded by this, length of the journal prefix consisting of intact records
+	private long garbage; //guarded by this, bytes occupied by superseded records
+	private boolean needsSnapshot; //guarded by this, true if the journal must be rewritten before appending
+	private boolean compacting; //guarded by this
+	private boolean migrating; //guarded by this, true until the content loaded from the JSON files is written to the journal
+	private long snapshots; //guarded by this, number of times the journal has been replaced
+	private volatile boolean loaded;
+
+	JournalKeychain(List<Path> keychainPaths, Durability durability, long compactionThreshold) {
+		this.keychainPaths = keychainPaths;
+		this.durability = durability;
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	synchronized void load() throws KeychainAccessException {
+		if (!loaded) {
+			loadInternal();
+			loaded = true;
+		}
+	}
+
+	private void loadInternal() throws KeychainAccessException {
+		if (keychainPaths.isEmpty()) {
+			throw new KeychainAccessException("No path specified to store keychain");
+		}
+		var journalFile = journalFile();
+		LOG.debug("Loading keychain journal from {}", journalFile);
+		try {
+			if (replay(ByteBuffer.wrap(Files.readAllBytes(journalFile)))) {
+				return;
+			}
+			setAside(journalFile);
+		} catch (NoSuchFileException e) {
+			LOG.debug("Keychain journal not found. Loading keychain from JSON files.");
+		} catch (IOException e) {
+			throw new KeychainAccessException("Failed to read keychain journal " + journalFile, e);
+		}
+		cache.clear();
+		recordSizes.clear();
+		garbage = 0;
+		cache.putAll(new FileKeychain(keychainPaths, FileKeychain.Settings.DEFAULT).snapshot());
+		needsSnapshot = true;
+		migrating = true;
+	}
+
+	private boolean replay(ByteBuffer buf) {
+		if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			return false;
+		}
+		validLength = HEADER_SIZE;
+		Record record;
+		while ((record = nextRecord(buf)) != null) {
+			if (record.type() == TYPE_BATCH) {
+				var members = nextBatch(buf, record.batchLength());
+				if (members == null) {
+					break;
+				}
+				apply(record);
+				members.forEach(this::apply);
+			} else {
+				apply(record);
+			}
+			validLength = buf.position();
+		}
+		if (validLength < buf.limit()) {
+			LOG.warn("Discarding {} bytes of damaged records at the end of keychain journal {}.", buf.limit() - validLength, journalFile());
+		}
+		return true;
+	}
+
+	/**
+	 * A decoded record.
+	 *
+	 * @param type        the record type
+	 * @param id          the id, empty for batch records
+	 * @param entry       the entry of a put record, otherwise {@code null}
+	 * @param size        the size of the record including its header
+	 * @param batchLength the total size of the records belonging to a batch record, otherwise {@code 0}
+	 */
+	private record Record(byte type, String id, KeychainEntry entry, int size, int batchLength) {}
+
+	// decodes the record at the buffer's position and advances the buffer behind it. Returns null without advancing, if the record is damaged.
+	private static Record nextRecord(ByteBuffer buf) {
+		int start = buf.position();
+		if (buf.remaining() < RECORD_HEADER_SIZE) {
+			return null;
+		}
+		int length = buf.getInt(start);
+		int checksum = buf.getInt(start + Integer.BYTES);
+		if (length <= 0 || length > buf.remaining() - RECORD_HEADER_SIZE) {
+			return null;
+		}
+		var payload = buf.slice(start + RECORD_HEADER_SIZE, length);
+		if (checksum(payload) != checksum) {
+			return null;
+		}
+		int size = RECORD_HEADER_SIZE + length;
+		Record record;
+		try {
+			byte type = payload.get();
+			var id = new String(readBytes(payload), UTF_8);
+			record = switch (type) {
+				case TYPE_PUT -> new Record(type, id, new KeychainEntry(readBytes(payload), readBytes(payload)), size, 0);
+				case TYPE_REMOVE -> new Record(type, id, null, size, 0);
+				case TYPE_BATCH -> new Record(type, id, null, size, payload.getInt());
+				default -> null;
+			};
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+		if (record != null) {
+			buf.position(start + size);
+		}
+		return record;
+	}
+
+	// decodes the records of a batch, which must end exactly after batchLength bytes. Returns null, if any of them is damaged.
+	private static List<Record> nextBatch(ByteBuffer buf, int batchLength) {
+		long end = (long) buf.position() + batchLength;
+		var members = new ArrayList<Record>();
+		while (buf.position() < end) {
+			var member = nextRecord(buf);
+			if (member == null || member.type() == TYPE_BATCH) {
+				return null;
+			}
+			members.add(member);
+		}
+		return buf.position() == end ? members : null;
+	}
+
+	static byte[] readBytes(ByteBuffer buf) {
+		int length = buf.getInt();
+		if (length < 0 || length > buf.remaining()) {
+			throw new IllegalArgumentException("Invalid length " + length);
+		}
+		byte[] result = new byte[length];
+		buf.get(result);
+		return result;
+	}
+
+	private void apply(Record record) {
+		apply(record.type(), record.id(), record.entry(), record.size());
+	}
+
+	// updates in-memory state for a record, which is already part of the journal
+	private void apply(byte type, String id, KeychainEntry entry, int recordSize) {
+		switch (type) {
+			case TYPE_PUT -> cache.put(id, entry);
+			case TYPE_REMOVE -> cache.remove(id);
+			default -> {}
+		}
+		account(type, id, recordSize);
+	}
+
+	// updates the size of live and superseded records for a record, which is already part of the journal
+	private void account(byte type, String id, int recordSize) {
+		Integer supersededSize = switch (type) {
+			case TYPE_PUT -> recordSizes.put(id, recordSize);
+			case TYPE_REMOVE -> {
+				garbage += recordSize; //a tombstone is not needed after compaction
+				yield recordSizes.remove(id);
+			}
+			case TYPE_BATCH -> {
+				garbage += recordSize; //only needed until the batch is compacted
+				yield null;
+			}
+			default -> throw new IllegalArgumentException("Unknown record type " + type);
+		};
+		if (supersededSize != null) {
+			garbage += supersededSize;
+		}
+	}
+
+	@Override
+	public void preload() throws KeychainAccessException {
+		load();
+	}
+
+	@Override
+	public synchronized KeychainEntry put(String id, KeychainEntry value) throws KeychainAccessException {
+		load();
+		var previous = cache.get(id);
+		if (!value.equals(previous)) {
+			persist(TYPE_PUT, id, value);
+		}
+		return previous;
+	}
+
+	@Override
+	public KeychainEntry get(String id) throws KeychainAccessException {
+		load();
+		return cache.get(id);
+	}
+
+	@Override
+	public Set<String> ids() throws KeychainAccessException {
+		load();
+		return Set.copyOf(cache.keySet());
+	}
+
+	@Override
+	public synchronized KeychainEntry remove(String id) throws KeychainAccessException {
+		load();
+		var previous = cache.get(id);
+		if (previous != null) {
+			persist(TYPE_REMOVE, id, null);
+		}
+		return previous;
+	}
+
+	@Override
+	public synchronized KeychainEntry change(String id, KeychainEntry newValue) throws KeychainAccessException {
+		load();
+		var previous = cache.get(id);
+		if (previous != null && !previous.equals(newValue)) {
+			persist(TYPE_PUT, id, newValue);
+		}
+		return previous;
+	}
+
+	/**
+	 * Appends the records of all mutations, preceded by a batch record, with a single write.
+	 *
+	 * @param mutations adds the mutations to apply
+	 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+	 */
+	@Override
+	public void update(Consumer<Batch> mutations) throws KeychainAccessException {
+		var batch = KeychainBatch.of(mutations);
+		synchronized (this) {
+			load();
+			var changes = new ArrayList<Mutation>();
+			batch.updates().forEach((id, update) -> {
+				var previous = cache.get(id);
+				var updated = update.apply(previous);
+				if (!Objects.equals(previous, updated)) {
+					changes.add(updated != null ? new Mutation(TYPE_PUT, id, updated) : new Mutation(TYPE_REMOVE, id, null));
+				}
+			});
+			if (!changes.isEmpty()) {
+				persist(changes);
+			}
+		}
+	}
+
+	@Override
+	public boolean isSupported() {
+		return !keychainPaths.isEmpty();
+	}
+
+	private record Mutation(byte type, String id, KeychainEntry entry) {}
+
+	private void persist(byte type, String id, KeychainEntry entry) throws KeychainAccessException {
+		persist(List.of(new Mutation(type, id, entry)));
+	}
+
+	//in-memory state is only updated after the records are written
+	private synchronized void persist(List<Mutation> mutations) throws KeychainAccessException {
+		var records = mutations.stream().map(m -> encodeRecord(m.type(), m.id(), m.entry())).toList();
+		int batchLength = records.stream().mapToInt(ByteBuffer::remaining).sum();
+		var batchRecord = records.size() > 1 ? encodeBatchRecord(batchLength) : null;
+		int batchRecordSize = batchRecord != null ? batchRecord.remaining() : 0;
+		var buf = ByteBuffer.allocate(batchRecordSize + batchLength);
+		if (batchRecord != null) {
+			buf.put(batchRecord);
+		}
+		records.forEach(buf::put);
+		buf.flip();
+		try {
+			if (needsSnapshot) {
+				writeSnapshot();
+			}
+			var ch = journalChannel();
+			while (buf.hasRemaining()) {
+				validLength += ch.write(buf, validLength);
+			}
+			if (durability != Durability.NONE) {
+				ch.force(true);
+			}
+		} catch (IOException e) {
+			closeJournal();
+			needsSnapshot = true; //we don't know, how much of the records made it to disk
+			throw new KeychainAccessException("Could not append to keychain journal " + journalFile(), e);
+		}
+		if (batchRecord != null) {
+			apply(TYPE_BATCH, "", null, batchRecordSize);
+		}
+		for (int i = 0; i < mutations.size(); i++) {
+			var m = mutations.get(i);
+			apply(m.type(), m.id(), m.entry(), records.get(i).limit());
+		}
+		if (garbage >= compactionThreshold && !compacting) {
+			compacting = true;
+			Thread.ofVirtual().name("keychain-compactor").start(this::compact);
+		}
+	}
+
+	/**
+	 * Rewrites the journal with only the live entries.
+	 * <p>
+	 * The snapshot is written to a sibling file with the suffix {@value COMPACTION_SUFFIX} from a copy of the entries, without holding the monitor.
+	 * Only copying the records appended in the meantime and replacing the journal happens while holding the monitor.
+	 * If the journal has been replaced otherwise in the meantime, the snapshot is discarded.
+	 */
+	//visible for testing
+	void compact() {
+		var compactionFile = journalFile().resolveSibling(journalFile().getFileName() + COMPACTION_SUFFIX);
+		try {
+			Map<String, KeychainEntry> live;
+			long copiedLength;
+			long copiedSnapshots;
+			synchronized (this) {
+				if (needsSnapshot) {
+					return; //the next append writes a snapshot anyway
+				}
+				live = Map.copyOf(cache);
+				copiedLength = validLength;
+				copiedSnapshots = snapshots;
+			}
+			LOG.debug("Compacting keychain journal {}", journalFile());
+			var sizes = new HashMap<String, Integer>();
+			var snapshot = encodeSnapshot(live, sizes);
+			long snapshotLength = writeCompactionFile(compactionFile, snapshot);
+			synchronized (this) {
+				if (needsSnapshot || snapshots != copiedSnapshots) {
+					LOG.debug("Discarding compaction of keychain journal {}, which has been replaced in the meantime.", journalFile());
+					return;
+				}
+				var tail = readJournal(copiedLength, validLength);
+				try (var ch = FileChannel.open(compactionFile, StandardOpenOption.WRITE)) {
+					for (long pos = snapshotLength; tail.hasRemaining(); ) {
+						pos += ch.write(tail, pos);
+					}
+					if (durability != Durability.NONE) {
+						ch.force(true);
+					}
+				}
+				closeJournal();
+				AtomicFiles.replace(compactionFile, journalFile(), durability);
+				snapshots++;
+				validLength = snapshotLength + tail.limit();
+				recordSizes.clear();
+				recordSizes.putAll(sizes);
+				garbage = 0;
+				Record record;
+				for (tail.rewind(); (record = nextRecord(tail)) != null; ) {
+					account(record.type(), record.id(), record.size());
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Failed to compact keychain journal {}.", journalFile(), e);
+		} finally {
+			synchronized (this) {
+				compacting = false;
+			}
+			try {
+				Files.deleteIfExists(compactionFile);
+			} catch (IOException e) {
+				LOG.debug("Failed to delete {}.", compactionFile, e);
+			}
+		}
+	}
+
+	//replaces the journal with one put record per live entry
+	private void writeSnapshot() throws IOException {
+		closeJournal();
+		var sizes = new HashMap<String, Integer>();
+		validLength = AtomicFiles.write(journalFile(), durability, encodeSnapshot(cache, sizes));
+		snapshots++;
+		recordSizes.clear();
+		recordSizes.putAll(sizes);
+		garbage = 0;
+		needsSnapshot = false;
+		if (migrating) {
+			keychainPaths.forEach(FileKeychain::retire);
+			migrating = false;
+		}
+	}
+
+	// encodes the header and one put record per entry, collecting the size of each record
+	private static ByteBuffer[] encodeSnapshot(Map<String, KeychainEntry> entries, Map<String, Integer> sizes) {
+		var buffers = new ArrayList<ByteBuffer>(entries.size() + 1);
+		buffers.add(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip());
+		entries.forEach((id, entry) -> {
+			var record = encodeRecord(TYPE_PUT, id, entry);
+			sizes.put(id, record.remaining());
+			buffers.add(record);
+		});
+		return buffers.toArray(ByteBuffer[]::new);
+	}
+
+	//visible for testing
+	long writeCompactionFile(Path compactionFile, ByteBuffer[] content) throws IOException {
+		try (var ch = FileChannel.open(compactionFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long written = 0;
+			while (Arrays.stream(content).anyMatch(ByteBuffer::hasRemaining)) {
+				written += ch.write(content);
+			}
+			if (durability != Durability.NONE) {
+				ch.force(true);
+			}
+			return written;
+		}
+	}
+
+	// reads the journal's records between the given positions
+	private ByteBuffer readJournal(long from, long to) throws IOException {
+		var buf = ByteBuffer.allocate(Math.toIntExact(to - from));
+		try (var ch = FileChannel.open(journalFile(), StandardOpenOption.READ)) {
+			while (buf.hasRemaining()) {
+				if (ch.read(buf, from + buf.position()) < 0) {
+					throw new EOFException("Keychain journal " + journalFile() + " ends before " + to);
+				}
+			}
+		}
+		return buf.flip();
+	}
+
+	private FileChannel journalChannel() throws IOException {
+		if (journal == null) {
+			journal = FileChannel.open(journalFile(), StandardOpenOption.WRITE);
+			journal.truncate(validLength); //drop damaged tail
+		}
+		return journal;
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				LOG.debug("Failed to close keychain journal.", e);
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Moves a journal of unknown format out of the way, so it is not overwritten when the keychain is migrated from the JSON files.
+	 *
+	 * @param journalFile the journal to rename by appending {@value UNKNOWN_FORMAT_SUFFIX}
+	 * @throws IOException if renaming fails, in particular if a journal has been set aside before
+	 */
+	static void setAside(Path journalFile) throws IOException {
+		var unknownFile = journalFile.resolveSibling(journalFile.getFileName() + UNKNOWN_FORMAT_SUFFIX);
+		Files.move(journalFile, unknownFile); //fails rather than replacing a journal set aside before
+		LOG.warn("Moved keychain journal {} of unknown format to {}.", journalFile, unknownFile);
+	}
+
+	//visible for testing
+	Path journalFile() {
+		var first = keychainPaths.getFirst();
+		return first.resolveSibling(first.getFileName() + JOURNAL_SUFFIX);
+	}
+
+	//visible for testing
+	synchronized long garbage() {
+		return garbage;
+	}
+
+	static ByteBuffer encodeRecord(byte type, String id, KeychainEntry entry) {
+		var idBytes = id.getBytes(UTF_8);
+		int payloadLength = 1 + Integer.BYTES + idBytes.length;
+		if (entry != null) {
+			payloadLength += 2 * Integer.BYTES + entry.ciphertext().length + entry.salt().length;
+		}
+		var buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength);
+		buf.putInt(payloadLength).putInt(0); //checksum is set below
+		buf.put(type).putInt(idBytes.length).put(idBytes);
+		if (entry != null) {
+			buf.putInt(entry.ciphertext().length).put(entry.ciphertext());
+			buf.putInt(entry.salt().length).put(entry.salt());
+		}
+		buf.putInt(Integer.BYTES, checksum(buf.slice(RECORD_HEADER_SIZE, payloadLength)));
+		return buf.flip();
+	}
+
+	/**
+	 * Encodes the record preceding the records of a batch.
+	 *
+	 * @param batchLength total size of the batch's records
+	 * @return the batch record
+	 */
+	static ByteBuffer encodeBatchRecord(int batchLength) {
+		int payloadLength = 1 + 2 * Integer.BYTES;
+		var buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength);
+		buf.putInt(payloadLength).putInt(0); //checksum is set below
+		buf.put(TYPE_BATCH).putInt(0).putInt(batchLength);
+		buf.putInt(Integer.BYTES, checksum(buf.slice(RECORD_HEADER_SIZE, payloadLength)));
+		return buf.flip();
+	}
+
+	static int checksum(ByteBuffer payload) {
+		var crc = new CRC32C();
+		crc.update(payload.duplicate());
+		return (int) crc.getValue();
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.cryptomator.windows.keychain;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collects the mutations of a {@link WindowsKeychainAccessBase.Keychain#update(Consumer) batch update}.
+ * <p>
+ * Mutations of the same id are combined into a single update, so each id is updated once.
+ * Updates are ordered by the first mutation of their id.
+ */
+class KeychainBatch implements WindowsKeychainAccessBase.Keychain.Batch {
+
+	private final Map<String, UnaryOperator<KeychainEntry>> updates = new LinkedHashMap<>();
+
+	/**
+	 * Collects the mutations applied by {@code mutations}.
+	 *
+	 * @param mutations adds mutations to the given batch
+	 * @return the collected batch
+	 */
+	static KeychainBatch of(Consumer<WindowsKeychainAccessBase.Keychain.Batch> mutations) {
+		var batch = new KeychainBatch();
+		mutations.accept(batch);
+		return batch;
+	}
+
+	@Override
+	public void put(String id, KeychainEntry value) {
+		Objects.requireNonNull(value);
+		add(id, previous -> value);
+	}
+
+	@Override
+	public void putIfAbsent(String id, KeychainEntry value) {
+		Objects.requireNonNull(value);
+		add(id, previous -> previous != null ? previous : value);
+	}
+
+	@Override
+	public void remove(String id) {
+		add(id, previous -> null);
+	}
+
+	@Override
+	public void change(String id, KeychainEntry newValue) {
+		Objects.requireNonNull(newValue);
+		add(id, previous -> previous != null ? newValue : null);
+	}
+
+	private void add(String id, UnaryOperator<KeychainEntry> update) {
+		Objects.requireNonNull(id);
+		updates.merge(id, update, (first, second) -> previous -> second.apply(first.apply(previous)));
+	}
+
+	/**
+	 * @return for each id the function computing its new entry from the current one, {@code null} meaning absent
+	 */
+	Map<String, UnaryOperator<KeychainEntry>> updates() {
+		return Collections.unmodifiableMap(updates);
+	}
+
+	boolean isEmpty() {
+		return updates.isEmpty();
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.cryptomator.windows.keychain;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ids of keychain entries, which differ between two states of a keychain.
+ *
+ * @param added   ids only present in the new state
+ * @param changed ids present in both states, but with different entries
+ * @param removed ids only present in the old state
+ */
+record KeychainChange(Set<String> added, Set<String> changed, Set<String> removed) {
+
+	static final KeychainChange NONE = new KeychainChange(Set.of(), Set.of(), Set.of());
+
+	KeychainChange {
+		added = Set.copyOf(added);
+		changed = Set.copyOf(changed);
+		removed = Set.copyOf(removed);
+	}
+
+	/**
+	 * Compares two states of a keychain.
+	 *
+	 * @param before entries of the old state
+	 * @param after  entries of the new state
+	 * @return the differences
+	 */
+	static KeychainChange between(Map<String, KeychainEntry> before, Map<String, KeychainEntry> after) {
+		var added = new HashSet<String>();
+		var changed = new HashSet<String>();
+		var removed = new HashSet<>(before.keySet());
+		after.forEach((id, entry) -> {
+			var previous = before.get(id);
+			if (previous == null) {
+				added.add(id);
+			} else if (!previous.equals(entry)) {
+				changed.add(id);
+			}
+			removed.remove(id);
+		});
+		return new KeychainChange(added, changed, removed);
+	}
+
+	/**
+	 * @return all ids, which have been added, changed or removed
+	 */
+	Set<String> ids() {
+		var ids = new HashSet<String>(added);
+		ids.addAll(changed);
+		ids.addAll(removed);
+		return ids;
+	}
+
+	boolean isEmpty() {
+		return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+	}
+
+}
@@ -3,5 +3,20 @@ package org.cryptomator.windows.keychain;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Arrays;
+
 record KeychainEntry(@JsonProperty("ciphertext") byte[] ciphertext, @JsonProperty("salt") byte[] salt) {
+
+	//records compare arrays by reference, but two entries are the same if their content is
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof KeychainEntry(byte[] otherCiphertext, byte[] otherSalt) //
+				&& Arrays.equals(ciphertext, otherCiphertext) //
+				&& Arrays.equals(salt, otherSalt);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(ciphertext) + Arrays.hashCode(salt);
+	}
 }
@@ -0,0 +1,61 @@
+package org.cryptomator.windows.keychain;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR events spanning reads and writes of a keychain file by a {@link FileKeychain}.
+ */
+final class KeychainFileEvent {
+
+	private KeychainFileEvent() {
+	}
+
+	@Name("org.cryptomator.windows.keychain.KeychainLoad")
+	@Label("Keychain Load")
+	@Description("Keychain file read and parsed")
+	@Category({"Cryptomator", "Keychain"})
+	@StackTrace(false)
+	static final class Load extends jdk.jfr.Event {
+
+		@Label("Path")
+		String path;
+
+		@Label("Bytes Read")
+		@DataAmount
+		long bytes;
+
+		@Label("Entries")
+		int entries;
+
+		@Label("Succeeded")
+		@Description("False, if the file is missing, unreadable or not parsable")
+		boolean succeeded;
+	}
+
+	@Name("org.cryptomator.windows.keychain.KeychainSave")
+	@Label("Keychain Save")
+	@Description("Keychain file written, including flushing it to disk")
+	@Category({"Cryptomator", "Keychain"})
+	@StackTrace(false)
+	static final class Save extends jdk.jfr.Event {
+
+		@Label("Path")
+		String path;
+
+		@Label("Bytes Written")
+		@DataAmount
+		long bytes;
+
+		@Label("Entries")
+		int entries;
+
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+}
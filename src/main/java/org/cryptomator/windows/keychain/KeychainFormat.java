@@ -0,0 +1,20 @@
+package org.cryptomator.windows.keychain;
+
+/**
+ * File formats of a {@link FileKeychain}. When reading, the format is detected automatically.
+ */
+enum KeychainFormat {
+
+	/**
+	 * A utf-8 encoded JSON object, mapping ids to objects with base64 encoded ciphertext and salt.
+	 */
+	JSON,
+
+	/**
+	 * A compact, length-prefixed binary format.
+	 *
+	 * @see BinaryKeychainFormat
+	 */
+	BINARY
+
+}
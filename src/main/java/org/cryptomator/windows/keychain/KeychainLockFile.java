@@ -0,0 +1,118 @@
+package org.cryptomator.windows.keychain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Coordinates several processes sharing the same keychain file.
+ * <p>
+ * The lock file is located next to the keychain file and has the suffix {@value LOCK_SUFFIX}.
+ * Its first eight bytes hold the generation of the keychain file, which is incremented by every process after writing the keychain file.
+ * The generation can be read without locking, so checking for changes of other processes is cheap.
+ * Reading or writing the keychain file itself requires a {@link #lock(boolean) lock}, which covers a byte behind the generation.
+ * <p>
+ * File locks are held on behalf of the whole JVM, hence an additional in-process lock per lock file keeps threads and keychain instances of the same JVM apart.
+ */
+class KeychainLockFile {
+
+	static final String LOCK_SUFFIX = ".lock";
+	private static final long LOCK_POSITION = Long.BYTES;
+	private static final ConcurrentMap<Path, Lock> IN_PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+	private final Path path;
+	private final Durability durability;
+	private FileChannel channel; //guarded by this
+
+	KeychainLockFile(Path keychainFile, Durability durability) {
+		this.path = keychainFile.resolveSibling(keychainFile.getFileName() + LOCK_SUFFIX).toAbsolutePath().normalize();
+		this.durability = durability;
+	}
+
+	Path path() {
+		return path;
+	}
+
+	private synchronized FileChannel channel() throws IOException {
+		if (channel == null) {
+			channel = FileChannel.open(path, READ, WRITE, CREATE);
+		}
+		return channel;
+	}
+
+	/**
+	 * Reads the current generation without locking.
+	 *
+	 * @return the generation of the keychain file, {@code 0} if it has never been written in shared mode
+	 * @throws IOException if the lock file cannot be read
+	 */
+	long generation() throws IOException {
+		var ch = channel();
+		var buf = ByteBuffer.allocate(Long.BYTES);
+		while (buf.hasRemaining()) {
+			if (ch.read(buf, buf.position()) < 0) {
+				return 0; //not yet written
+			}
+		}
+		return buf.flip().getLong();
+	}
+
+	/**
+	 * Stores a new generation. Must only be called while holding an exclusive lock.
+	 *
+	 * @param generation the generation of the keychain file just written
+	 * @throws IOException if the lock file cannot be written
+	 */
+	void setGeneration(long generation) throws IOException {
+		var ch = channel();
+		var buf = ByteBuffer.allocate(Long.BYTES).putLong(generation).flip();
+		while (buf.hasRemaining()) {
+			ch.write(buf, buf.position());
+		}
+		if (durability != Durability.NONE) {
+			ch.force(false);
+		}
+	}
+
+	/**
+	 * Blocks until the lock is acquired, both within this JVM and among processes.
+	 *
+	 * @param shared {@code true} for reading the keychain file, {@code false} for a read-modify-write
+	 * @return a handle to release the lock
+	 * @throws IOException if the file lock cannot be acquired
+	 */
+	Locked lock(boolean shared) throws IOException {
+		var inProcessLock = IN_PROCESS_LOCKS.computeIfAbsent(path, p -> new ReentrantLock());
+		inProcessLock.lock();
+		try {
+			var fileLock = channel().lock(LOCK_POSITION, 1, shared);
+			return new Locked(fileLock, inProcessLock);
+		} catch (IOException | RuntimeException e) {
+			inProcessLock.unlock();
+			throw e;
+		}
+	}
+
+	record Locked(FileLock fileLock, Lock inProcessLock) implements AutoCloseable {
+
+		@Override
+		public void close() throws IOException {
+			try {
+				fileLock.release();
+			} finally {
+				inProcessLock.unlock();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.cryptomator.windows.keychain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Storage engines for the file-based keychains. The engine is selected with the JVM property {@value STORAGE_PROPERTY}.
+ */
+enum KeychainStorage {
+
+	/**
+	 * A single JSON file, rewritten on every change.
+	 *
+	 * @see FileKeychain
+	 */
+	JSON,
+
+	/**
+	 * An append-only journal with one record per change.
+	 *
+	 * @see JournalKeychain
+	 */
+	JOURNAL,
+
+	/**
+	 * The journal of {@link #JOURNAL} together with an on-disk hash index, keeping only recently used entries in memory.
+	 *
+	 * @see IndexedKeychain
+	 */
+	INDEXED;
+
+	private static final Logger LOG = LoggerFactory.getLogger(KeychainStorage.class);
+	static final String STORAGE_PROPERTY = "cryptomator.integrationsWin.keychainStorage";
+
+	/**
+	 * Creates the keychain selected by JVM properties.
+	 *
+	 * @param keychainPathsProperty name of the JVM property containing the keychain paths
+	 * @return a new keychain
+	 */
+	static WindowsKeychainAccessBase.Keychain create(String keychainPathsProperty) {
+		var paths = FileKeychain.parsePaths(System.getProperty(keychainPathsProperty, ""), System.getProperty("path.separator"));
+		return fromSystemProperties().create(paths, FileKeychain.Settings.fromSystemProperties());
+	}
+
+	static KeychainStorage fromSystemProperties() {
+		var value = System.getProperty(STORAGE_PROPERTY, JSON.name());
+		try {
+			return valueOf(value.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Ignoring unknown value {} of property {}. Using {}.", value, STORAGE_PROPERTY, JSON);
+			return JSON;
+		}
+	}
+
+	WindowsKeychainAccessBase.Keychain create(List<Path> paths, FileKeychain.Settings settings) {
+		return switch (this) {
+			case JSON -> new FileKeychain(paths, settings);
+			case JOURNAL -> new JournalKeychain(paths, settings.durability(), JournalKeychain.DEFAULT_COMPACTION_THRESHOLD);
+			case INDEXED -> new IndexedKeychain(paths, settings.durability(), JournalKeychain.DEFAULT_COMPACTION_THRESHOLD, IndexedKeychain.DEFAULT_CACHE_SIZE);
+		};
+	}
+
+}
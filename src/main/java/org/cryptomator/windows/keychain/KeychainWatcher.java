@@ -0,0 +1,87 @@
+package org.cryptomator.windows.keychain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the directory of a keychain file and invokes a callback on a background thread, whenever the file is created, modified or deleted.
+ * Waits for events of the file system without polling.
+ */
+class KeychainWatcher implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(KeychainWatcher.class);
+
+	private final Path file;
+	private final WatchService watchService;
+	private final Runnable onChange;
+
+	private KeychainWatcher(Path file, WatchService watchService, Runnable onChange) {
+		this.file = file;
+		this.watchService = watchService;
+		this.onChange = onChange;
+	}
+
+	/**
+	 * Starts watching a file.
+	 *
+	 * @param file     the file to watch
+	 * @param onChange invoked on the watcher thread after the file changed. Events arriving while the callback runs are coalesced into a single invocation.
+	 * @return a watcher, which must be closed to stop watching
+	 * @throws IOException if the parent directory of the file cannot be watched
+	 */
+	static KeychainWatcher start(Path file, Runnable onChange) throws IOException {
+		var dir = file.toAbsolutePath().getParent();
+		var watchService = dir.getFileSystem().newWatchService();
+		try {
+			dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+		} catch (IOException e) {
+			watchService.close();
+			throw e;
+		}
+		var watcher = new KeychainWatcher(file.getFileName(), watchService, onChange);
+		Thread.ofPlatform().name("keychain-watcher").daemon().start(watcher::run);
+		return watcher;
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				var key = watchService.take();
+				boolean changed = false;
+				do {
+					for (var event : key.pollEvents()) {
+						changed |= event.kind() == OVERFLOW || file.equals(event.context());
+					}
+					if (!key.reset()) {
+						LOG.warn("Keychain directory is no longer accessible. Stopped watching for changes of {}.", file);
+						return;
+					}
+					key = watchService.poll(); //drain events queued meanwhile
+				} while (key != null);
+				if (changed) {
+					onChange.run();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			//closed regularly
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+}
@@ -0,0 +1,204 @@
+package org.cryptomator.windows.keychain;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keychain content of a JSON keychain file, which decodes entries on first access.
+ * <p>
+ * When parsing, only the ids and the byte ranges of their values in the file content are recorded.
+ * Ciphertext and salt of an entry are decoded the first time the entry is requested.
+ * Only entries not yet decoded refer to the file content, so it can be garbage collected as soon as all entries are decoded, replaced or removed.
+ * An entry, which turns out to be malformed when decoding, is treated as absent.
+ */
+class LazyKeychainMap extends AbstractMap<String, KeychainEntry> implements ConcurrentMap<String, KeychainEntry> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LazyKeychainMap.class);
+
+	private final ObjectMapper mapper;
+	private final ConcurrentHashMap<String, Object> entries; //values are either KeychainEntry or Slice
+
+	private LazyKeychainMap(ObjectMapper mapper, ConcurrentHashMap<String, Object> entries) {
+		this.mapper = mapper;
+		this.entries = entries;
+	}
+
+	private record Slice(byte[] json, int offset, int length) {}
+
+	/**
+	 * Parses the structure of a JSON keychain without decoding its entries.
+	 *
+	 * @param mapper object mapper used to decode entries
+	 * @param json   content of the keychain file
+	 * @return the keychain content or {@code null}, if the file content is the JSON literal {@code null}
+	 * @throws IOException if the content is not a JSON object mapping ids to objects
+	 */
+	static LazyKeychainMap parse(ObjectMapper mapper, byte[] json) throws IOException {
+		try (JsonParser parser = mapper.createParser(json)) {
+			var token = parser.nextToken();
+			if (token == JsonToken.VALUE_NULL) {
+				return null;
+			} else if (token != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Expected keychain to be a JSON object");
+			}
+			var entries = new ConcurrentHashMap<String, Object>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				var id = parser.currentName();
+				switch (parser.nextToken()) {
+					case START_OBJECT -> {
+						long start = parser.currentTokenLocation().getByteOffset();
+						parser.skipChildren();
+						long end = parser.currentLocation().getByteOffset();
+						entries.put(id, new Slice(json, (int) start, (int) (end - start)));
+					}
+					case VALUE_NULL -> {
+						//no entry
+					}
+					default -> throw new JsonParseException(parser, "Expected keychain entry to be a JSON object");
+				}
+			}
+			if (parser.currentToken() != JsonToken.END_OBJECT) {
+				throw new JsonParseException(parser, "Unexpected end of keychain");
+			}
+			return new LazyKeychainMap(mapper, entries);
+		}
+	}
+
+	private KeychainEntry decode(String id, Object value) {
+		if (value instanceof Slice(byte[] json, int offset, int length)) {
+			KeychainEntry decoded;
+			try {
+				decoded = mapper.readValue(json, offset, length, KeychainEntry.class);
+			} catch (IOException e) {
+				LOG.warn("Ignoring malformed keychain entry {}.", id);
+				entries.remove(id, value);
+				return null;
+			}
+			//if a concurrent modification replaced the slice, the decoded value is still the value at the time of reading
+			entries.replace(id, value, decoded);
+			return decoded;
+		}
+		return (KeychainEntry) value;
+	}
+
+	/**
+	 * Creates an independent copy, sharing the file content but neither decoded entries nor mutations.
+	 *
+	 * @return a copy of this map, whose entries are decoded lazily as well
+	 */
+	LazyKeychainMap copy() {
+		return new LazyKeychainMap(mapper, new ConcurrentHashMap<>(entries));
+	}
+
+	//visible for testing
+	boolean isDecoded(String id) {
+		return entries.get(id) instanceof KeychainEntry;
+	}
+
+	//visible for testing
+	boolean refersToFileContent() {
+		return entries.values().stream().anyMatch(Slice.class::isInstance);
+	}
+
+	@Override
+	public KeychainEntry get(Object key) {
+		return key instanceof String id ? decode(id, entries.get(id)) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public KeychainEntry put(String key, KeychainEntry value) {
+		return decode(key, entries.put(key, value));
+	}
+
+	@Override
+	public KeychainEntry remove(Object key) {
+		return key instanceof String id ? decode(id, entries.remove(id)) : null;
+	}
+
+	@Override
+	public KeychainEntry putIfAbsent(String key, KeychainEntry value) {
+		return decode(key, entries.putIfAbsent(key, value));
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		var current = get(key);
+		return current != null && current.equals(value) && entries.remove(key, current);
+	}
+
+	@Override
+	public boolean replace(String key, KeychainEntry oldValue, KeychainEntry newValue) {
+		var current = get(key);
+		return current != null && current.equals(oldValue) && entries.replace(key, current, newValue);
+	}
+
+	@Override
+	public KeychainEntry replace(String key, KeychainEntry value) {
+		return decode(key, entries.replace(key, value));
+	}
+
+	@Override
+	public Set<Entry<String, KeychainEntry>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<String, KeychainEntry>> iterator() {
+				var delegate = entries.entrySet().iterator();
+				return new Iterator<>() {
+					private Entry<String, KeychainEntry> next;
+
+					@Override
+					public boolean hasNext() {
+						while (next == null && delegate.hasNext()) {
+							var e = delegate.next();
+							var decoded = decode(e.getKey(), e.getValue());
+							if (decoded != null) {
+								next = new SimpleImmutableEntry<>(e.getKey(), decoded);
+							}
+						}
+						return next != null;
+					}
+
+					@Override
+					public Entry<String, KeychainEntry> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						var result = next;
+						next = null;
+						return result;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return entries.size();
+			}
+		};
+	}
+
+}
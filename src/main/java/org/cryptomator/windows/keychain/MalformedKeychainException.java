@@ -0,0 +1,17 @@
+package org.cryptomator.windows.keychain;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a keychain file is recognized, but its content violates the format.
+ */
+class MalformedKeychainException extends IOException {
+
+	MalformedKeychainException(String message) {
+		super(message);
+	}
+
+	MalformedKeychainException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,69 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.windows.keychain.metrics.KeychainMetrics;
+import org.cryptomator.windows.keychain.metrics.KeychainOperation;
+
+import java.lang.foreign.MemorySegment;
+import java.util.function.Supplier;
+
+/**
+ * Reports the latency of each call of the wrapped cryptor to the {@link KeychainMetrics} under a fixed component name.
+ * A call fails, if it returns {@code null} or throws.
+ */
+class MeasuredCryptor implements WindowsKeychainAccessBase.PassphraseCryptor {
+
+	private final WindowsKeychainAccessBase.PassphraseCryptor delegate;
+	private final String component;
+
+	MeasuredCryptor(String component, WindowsKeychainAccessBase.PassphraseCryptor delegate) {
+		this.delegate = delegate;
+		this.component = component;
+	}
+
+	@Override
+	public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+		return measure(KeychainOperation.ENCRYPT, () -> delegate.encrypt(cleartext, additionalData));
+	}
+
+	@Override
+	public byte[] encryptSegment(MemorySegment cleartext, byte[] additionalData) {
+		return measure(KeychainOperation.ENCRYPT, () -> delegate.encryptSegment(cleartext, additionalData));
+	}
+
+	@Override
+	public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+		return measure(KeychainOperation.DECRYPT, () -> delegate.decrypt(ciphertext, additionalData));
+	}
+
+	@Override
+	public byte[][] encryptAll(byte[][] cleartexts, byte[][] additionalData) {
+		return measure(KeychainOperation.ENCRYPT_BATCH, () -> delegate.encryptAll(cleartexts, additionalData));
+	}
+
+	@Override
+	public byte[][] decryptAll(byte[][] ciphertexts, byte[][] additionalData) {
+		return measure(KeychainOperation.DECRYPT_BATCH, () -> delegate.decryptAll(ciphertexts, additionalData));
+	}
+
+	@Override
+	public void preload() {
+		delegate.preload();
+	}
+
+	@Override
+	public boolean isSupported() {
+		return delegate.isSupported();
+	}
+
+	private <T> T measure(KeychainOperation operation, Supplier<T> call) {
+		long start = KeychainMetrics.start();
+		T result = null;
+		try {
+			result = call.get();
+			return result;
+		} finally {
+			KeychainMetrics.completed(component, operation, start, result != null);
+		}
+	}
+
+}
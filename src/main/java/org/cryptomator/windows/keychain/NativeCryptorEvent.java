@@ -0,0 +1,75 @@
+package org.cryptomator.windows.keychain;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.function.Supplier;
+
+/**
+ * JFR event spanning a native call of {@link WinDataProtection} or {@link WindowsHello}, including the time waiting for the user.
+ */
+@Name("org.cryptomator.windows.keychain.NativeCryptorCall")
+@Label("Native Cryptor Call")
+@Description("Call of the data protection API or Windows Hello")
+@Category({"Cryptomator", "Keychain"})
+@StackTrace(false)
+final class NativeCryptorEvent extends jdk.jfr.Event {
+
+	@Label("Cryptor")
+	String cryptor;
+
+	@Label("Function")
+	String function;
+
+	@Label("Items")
+	@Description("Number of blobs processed by the call")
+	int items;
+
+	@Label("Succeeded")
+	boolean succeeded;
+
+	/**
+	 * Runs a single-item native call, which fails by returning {@code null}.
+	 */
+	static byte[] record(String cryptor, String function, Supplier<byte[]> call) {
+		var event = new NativeCryptorEvent();
+		event.begin();
+		byte[] result = null;
+		try {
+			result = call.get();
+			return result;
+		} finally {
+			event.commit(cryptor, function, 1, result != null);
+		}
+	}
+
+	/**
+	 * Runs a batch native call, which fails by returning {@code null}.
+	 */
+	static byte[][] recordAll(String cryptor, String function, int items, Supplier<byte[][]> call) {
+		var event = new NativeCryptorEvent();
+		event.begin();
+		byte[][] result = null;
+		try {
+			result = call.get();
+			return result;
+		} finally {
+			event.commit(cryptor, function, items, result != null);
+		}
+	}
+
+	private void commit(String cryptor, String function, int items, boolean succeeded) {
+		end();
+		if (shouldCommit()) {
+			this.cryptor = cryptor;
+			this.function = function;
+			this.items = items;
+			this.succeeded = succeeded;
+			commit();
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.cryptomator.windows.keychain;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Immutable keychain content, consisting of a base map shared between versions and the entries changed since the base was created.
+ * <p>
+ * Hence a mutation does not copy all entries: Changing {@code k} entries costs {@code O(d + k)}, where {@code d} is the number of entries changed since the base was created.
+ * Once the changes exceed the square root of the number of entries {@code n}, they are {@link #merged() merged} into a new base at a cost of {@code O(n)},
+ * which amounts to {@code O(√n)} per changed entry. As saving the keychain costs {@code O(n)} anyway, the content is merged after each save, too,
+ * i.e. all entries are copied once per commit window.
+ */
+final class OverlayKeychainMap extends AbstractMap<String, KeychainEntry> {
+
+	private static final int MIN_MERGE_THRESHOLD = 16;
+
+	private final Map<String, KeychainEntry> base; //never mutated
+	private final Map<String, KeychainEntry> changes; //never mutated, null values denote removed entries
+	private final int size;
+
+	private OverlayKeychainMap(Map<String, KeychainEntry> base, Map<String, KeychainEntry> changes, int size) {
+		this.base = base;
+		this.changes = changes;
+		this.size = size;
+	}
+
+	/**
+	 * Wraps the given content, unless it is an overlay already.
+	 *
+	 * @param entries the keychain content, which must not be mutated afterwards
+	 * @return the content as overlay
+	 */
+	static OverlayKeychainMap of(Map<String, KeychainEntry> entries) {
+		return entries instanceof OverlayKeychainMap overlay ? overlay : new OverlayKeychainMap(entries, Map.of(), entries.size());
+	}
+
+	/**
+	 * Creates a new version of this content with the given entries replaced.
+	 *
+	 * @param updates the new entry for each changed id, {@code null} meaning absent
+	 * @return the updated content, sharing the base with this content unless the changes grew too large
+	 */
+	OverlayKeychainMap with(Map<String, KeychainEntry> updates) {
+		var updatedChanges = new HashMap<>(changes);
+		int updatedSize = size;
+		for (var update : updates.entrySet()) {
+			boolean present = get(update.getKey()) != null;
+			if (present && update.getValue() == null) {
+				updatedSize--;
+			} else if (!present && update.getValue() != null) {
+				updatedSize++;
+			}
+			updatedChanges.put(update.getKey(), update.getValue());
+		}
+		var updated = new OverlayKeychainMap(base, updatedChanges, updatedSize);
+		return updatedChanges.size() > Math.max(MIN_MERGE_THRESHOLD, Math.sqrt(updatedSize)) ? updated.merged() : updated;
+	}
+
+	/**
+	 * Copies the base and applies all changes to it.
+	 *
+	 * @return the same content without any changes on top of its base
+	 */
+	OverlayKeychainMap merged() {
+		if (changes.isEmpty()) {
+			return this;
+		}
+		var merged = base instanceof LazyKeychainMap lazy ? lazy.copy() : new HashMap<>(base);
+		changes.forEach((id, entry) -> {
+			if (entry != null) {
+				merged.put(id, entry);
+			} else {
+				merged.remove(id);
+			}
+		});
+		return new OverlayKeychainMap(merged, Map.of(), size);
+	}
+
+	//visible for testing
+	int changes() {
+		return changes.size();
+	}
+
+	@Override
+	public KeychainEntry get(Object key) {
+		if (!(key instanceof String id)) {
+			return null;
+		}
+		return changes.containsKey(id) ? changes.get(id) : base.get(id);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Entry<String, KeychainEntry>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<String, KeychainEntry>> iterator() {
+				var unchanged = base.entrySet().stream().filter(e -> !changes.containsKey(e.getKey()));
+				var present = changes.entrySet().stream().filter(e -> e.getValue() != null);
+				return Stream.concat(unchanged, present).<Entry<String, KeychainEntry>>map(SimpleImmutableEntry::new).iterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+}
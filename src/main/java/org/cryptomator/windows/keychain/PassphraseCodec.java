@@ -0,0 +1,153 @@
+package org.cryptomator.windows.keychain;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Converts passphrases to UTF-8 and back without intermediate copies on the heap.
+ * <p>
+ * Intermediate buffers are allocated off-heap, hence the GC cannot move and thereby duplicate them, and they are zeroed right after use.
+ * Buffers, encoders and decoders are kept in a small pool shared by all threads, so a conversion allocates hardly anything besides its result,
+ * while many short-lived virtual threads do not leave a buffer each behind. Conversions exceeding the pool allocate a scratch of their own.
+ * Malformed input is replaced, just like {@link java.nio.charset.Charset#encode(CharBuffer)} does.
+ */
+class PassphraseCodec {
+
+	private static final long INITIAL_SCRATCH_SIZE = 256;
+	static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+	private static final ConcurrentLinkedQueue<Scratch> POOL = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger POOLED = new AtomicInteger(); //approximates POOL.size(), which is not constant-time
+
+	private PassphraseCodec() {
+	}
+
+	/**
+	 * Encrypts the UTF-8 representation of the passphrase, which is passed to the cryptor {@link WindowsKeychainAccessBase.PassphraseCryptor#encryptSegment(MemorySegment, byte[]) off-heap}.
+	 *
+	 * @param passphrase the passphrase to encrypt
+	 * @param salt       additional data fed into the encryption
+	 * @param cryptor    the cryptor to use
+	 * @return the ciphertext or {@code null} if encryption failed
+	 */
+	static byte[] encrypt(CharSequence passphrase, byte[] salt, WindowsKeychainAccessBase.PassphraseCryptor cryptor) {
+		var scratch = Scratch.acquire();
+		try {
+			int length = scratch.encode(passphrase);
+			return cryptor.encryptSegment(scratch.segment.asSlice(0, length), salt);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	/**
+	 * Encodes the passphrase to a heap array, e.g. for cryptors only accepting arrays.
+	 *
+	 * @param passphrase the passphrase to encode
+	 * @return the UTF-8 representation of the passphrase. The caller is responsible for zeroing it.
+	 */
+	static byte[] encode(CharSequence passphrase) {
+		var scratch = Scratch.acquire();
+		try {
+			var cleartext = new byte[scratch.encode(passphrase)];
+			scratch.bytes.get(0, cleartext);
+			return cleartext;
+		} finally {
+			scratch.release();
+		}
+	}
+
+	/**
+	 * Decodes a UTF-8 representation of a passphrase.
+	 *
+	 * @param cleartext the UTF-8 bytes. The caller is responsible for zeroing them.
+	 * @return the passphrase
+	 */
+	static char[] decode(byte[] cleartext) {
+		var scratch = Scratch.acquire();
+		try {
+			return scratch.decode(cleartext);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	//visible for testing
+	static int pooled() {
+		return POOLED.get();
+	}
+
+	private static class Scratch {
+
+		private final CharsetEncoder encoder = UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharsetDecoder decoder = UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private MemorySegment segment;
+		private ByteBuffer bytes;
+		private CharBuffer chars;
+
+		private Scratch() {
+			allocate(INITIAL_SCRATCH_SIZE);
+		}
+
+		// a scratch is removed from the pool while in use, hence a cryptor converting passphrases itself gets a scratch of its own
+		static Scratch acquire() {
+			var scratch = POOL.poll();
+			if (scratch == null) {
+				return new Scratch();
+			}
+			POOLED.decrementAndGet();
+			return scratch;
+		}
+
+		void release() {
+			segment.fill((byte) 0x00);
+			if (POOLED.incrementAndGet() <= POOL_SIZE) {
+				POOL.offer(this);
+			} else {
+				POOLED.decrementAndGet();
+			}
+		}
+
+		// memory of an automatic arena is freed once a scratch not kept in the pool is garbage collected. It is zeroed after each use anyway.
+		private void allocate(long size) {
+			segment = Arena.ofAuto().allocate(size, Character.BYTES);
+			bytes = segment.asByteBuffer();
+			chars = segment.asByteBuffer().order(ByteOrder.nativeOrder()).asCharBuffer();
+		}
+
+		private void ensureCapacity(long size) {
+			if (segment.byteSize() < size) {
+				segment.fill((byte) 0x00);
+				allocate(Math.max(size, 2 * segment.byteSize()));
+			}
+		}
+
+		int encode(CharSequence passphrase) {
+			ensureCapacity((long) passphrase.length() * (long) Math.ceil(encoder.maxBytesPerChar()));
+			bytes.clear();
+			encoder.reset().encode(CharBuffer.wrap(passphrase), bytes, true);
+			encoder.flush(bytes);
+			return bytes.position();
+		}
+
+		char[] decode(byte[] cleartext) {
+			ensureCapacity((long) cleartext.length * (long) Math.ceil(decoder.maxCharsPerByte()) * Character.BYTES);
+			chars.clear();
+			decoder.reset().decode(ByteBuffer.wrap(cleartext), chars, true);
+			decoder.flush(chars);
+			var passphrase = new char[chars.position()];
+			chars.get(0, passphrase);
+			return passphrase;
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.cryptomator.windows.keychain;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
+
+/**
+ * Generates salts and nonces without contention.
+ * <p>
+ * Each platform thread uses a DRBG of its own, while virtual threads, which are too many and too short-lived to instantiate a DRBG each, share a DRBG per stripe.
+ * Each DRBG produces random bytes in blocks of {@value POOL_SIZE} bytes, which are handed out in small portions and zeroed once handed out,
+ * amortizing the cost of a DRBG call over many salts. Hence, this is not meant to generate keys.
+ * A DRBG is reseeded from the system's entropy source after it has produced {@value RESEED_INTERVAL} bytes.
+ * Besides new salts, caller-supplied arrays and segments can be filled without allocating.
+ */
+class SaltGenerator {
+
+	static final int SALT_SIZE = 2 * Long.BYTES;
+	static final long RESEED_INTERVAL = 1L << 20;
+	private static final int POOL_SIZE = 512;
+	private static final ThreadLocal<Drbg> PER_THREAD = ThreadLocal.withInitial(Drbg::new);
+
+	private SaltGenerator() {
+	}
+
+	/**
+	 * @return {@value SALT_SIZE} new random bytes
+	 */
+	static byte[] generateSalt() {
+		var salt = new byte[SALT_SIZE];
+		nextBytes(salt);
+		return salt;
+	}
+
+	/**
+	 * Fills the given array with random bytes.
+	 *
+	 * @param bytes the array to fill
+	 */
+	static void nextBytes(byte[] bytes) {
+		current().nextBytes(bytes);
+	}
+
+	/**
+	 * Fills the given segment with random bytes.
+	 *
+	 * @param segment the segment to fill
+	 */
+	static void fill(MemorySegment segment) {
+		current().fill(segment);
+	}
+
+	private static Drbg current() {
+		var thread = Thread.currentThread();
+		return thread.isVirtual() ? Stripes.INSTANCES[(int) (thread.threadId() % Stripes.INSTANCES.length)] : PER_THREAD.get();
+	}
+
+	// initialization-on-demand pattern, as virtual threads may never ask for random bytes
+	private static class Stripes {
+		static final Drbg[] INSTANCES = new Drbg[Runtime.getRuntime().availableProcessors()];
+
+		static {
+			Arrays.setAll(INSTANCES, i -> new Drbg());
+		}
+	}
+
+	//visible for testing
+	static class Drbg {
+
+		private final SecureRandom random;
+		private final byte[] pool = new byte[POOL_SIZE];
+		private int poolPosition = POOL_SIZE; //guarded by this, the pool is drained
+		private long bytesSinceReseed; //guarded by this
+		private long reseeds; //guarded by this
+
+		Drbg() {
+			try {
+				this.random = SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(256, RESEED_ONLY, null));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("DRBG is guaranteed to be supported.", e);
+			}
+		}
+
+		synchronized void nextBytes(byte[] bytes) {
+			for (int offset = 0; offset < bytes.length; ) {
+				int length = Math.min(bytes.length - offset, refillIfDrained());
+				System.arraycopy(pool, poolPosition, bytes, offset, length);
+				Arrays.fill(pool, poolPosition, poolPosition + length, (byte) 0x00);
+				poolPosition += length;
+				offset += length;
+			}
+		}
+
+		synchronized void fill(MemorySegment segment) {
+			for (long offset = 0; offset < segment.byteSize(); ) {
+				int length = (int) Math.min(segment.byteSize() - offset, refillIfDrained());
+				MemorySegment.copy(pool, poolPosition, segment, ValueLayout.JAVA_BYTE, offset, length);
+				Arrays.fill(pool, poolPosition, poolPosition + length, (byte) 0x00);
+				poolPosition += length;
+				offset += length;
+			}
+		}
+
+		// returns the number of bytes available in the pool
+		private int refillIfDrained() {
+			if (poolPosition == POOL_SIZE) {
+				bytesSinceReseed += POOL_SIZE;
+				if (bytesSinceReseed > RESEED_INTERVAL) {
+					random.reseed();
+					reseeds++;
+					bytesSinceReseed = POOL_SIZE;
+				}
+				random.nextBytes(pool);
+				poolPosition = 0;
+			}
+			return POOL_SIZE - poolPosition;
+		}
+
+		//visible for testing
+		synchronized long reseeds() {
+			return reseeds;
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.cryptomator.windows.keychain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps decrypted passphrases for a limited time, so repeated loads skip decryption.
+ * <p>
+ * A passphrase expires, if it has not been accessed within the idle timeout or once the absolute timeout has passed since it was cached.
+ * Passphrases are stored off-heap and zeroed on eviction, which happens on access and periodically in the background.
+ * The off-heap memory is allocated in chunks from a single arena and split into slots, which are reused once zeroed.
+ * Hence caching a passphrase neither creates nor closes an arena, as closing a shared arena is an expensive operation involving all threads.
+ * The background sweeping stops, once the cache is empty, and the memory is only released, when the cache is {@link #close() closed}.
+ * <p>
+ * The cache can be {@link #seal() sealed}, which evicts all passphrases and keeps new ones from being cached until it is {@link #unseal() unsealed} again.
+ * The timeouts are set in milliseconds with the JVM properties {@value IDLE_TIMEOUT_PROPERTY} and {@value MAX_TIMEOUT_PROPERTY}, where {@code 0} means unlimited.
+ * If neither is set, passphrases are not cached at all.
+ */
+class SecretCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SecretCache.class);
+	static final String IDLE_TIMEOUT_PROPERTY = "cryptomator.integrationsWin.keychainCacheIdleTimeout";
+	static final String MAX_TIMEOUT_PROPERTY = "cryptomator.integrationsWin.keychainCacheMaxTimeout";
+	static final int SLOT_CHARS = 32;
+	private static final int SLOTS_PER_CHUNK = 64;
+
+	private final long idleNanos; //0 means unlimited
+	private final long maxNanos; //0 means unlimited
+	private final LongSupplier nanoClock;
+	private final Map<String, Secret> secrets = new HashMap<>(); //guarded by this
+	private long invalidations; //guarded by this
+	private boolean sealed; //guarded by this
+	private boolean closed; //guarded by this
+	private ScheduledExecutorService sweeper; //guarded by this, null while the cache is empty
+	private final Arena arena = Arena.ofShared(); //closed with the cache
+	private final Deque<MemorySegment> freeSlots = new ArrayDeque<>(); //guarded by this
+	private int allocatedSlots; //guarded by this
+
+	SecretCache(Duration idleTimeout, Duration maxTimeout) {
+		this(idleTimeout, maxTimeout, System::nanoTime);
+	}
+
+	//visible for testing
+	SecretCache(Duration idleTimeout, Duration maxTimeout, LongSupplier nanoClock) {
+		if (idleTimeout.isNegative() || maxTimeout.isNegative() || (idleTimeout.isZero() && maxTimeout.isZero())) {
+			throw new IllegalArgumentException("At least one timeout must be positive and none negative");
+		}
+		this.idleNanos = idleTimeout.toNanos();
+		this.maxNanos = maxTimeout.toNanos();
+		this.nanoClock = nanoClock;
+	}
+
+	/**
+	 * Creates a cache with the timeouts set by JVM properties.
+	 *
+	 * @return a new cache or {@code null}, if caching is disabled
+	 */
+	static SecretCache fromSystemProperties() {
+		var idleTimeout = Duration.ofMillis(Long.getLong(IDLE_TIMEOUT_PROPERTY, 0));
+		var maxTimeout = Duration.ofMillis(Long.getLong(MAX_TIMEOUT_PROPERTY, 0));
+		if (idleTimeout.isNegative() || maxTimeout.isNegative()) {
+			LOG.warn("Ignoring negative passphrase cache timeout. Passphrases are not cached.");
+			return null;
+		} else if (idleTimeout.isZero() && maxTimeout.isZero()) {
+			return null;
+		} else {
+			return new SecretCache(idleTimeout, maxTimeout);
+		}
+	}
+
+	/**
+	 * @param id Identifier of the passphrase
+	 * @return a copy of the cached passphrase or {@code null}, if the passphrase is not cached or expired
+	 */
+	synchronized char[] get(String id) {
+		var secret = secrets.get(id);
+		if (secret == null) {
+			return null;
+		}
+		long now = nanoClock.getAsLong();
+		if (secret.isExpired(now)) {
+			evict(id);
+			return null;
+		}
+		secret.lastAccess = now;
+		return secret.copy();
+	}
+
+	/**
+	 * Returns a stamp to pass to {@link #put(String, char[], long)}, taken before the passphrase is read from the keychain.
+	 *
+	 * @return the current stamp
+	 */
+	synchronized long stamp() {
+		return invalidations;
+	}
+
+	/**
+	 * Caches a copy of the passphrase, unless the cache is sealed or any passphrase was invalidated since the stamp was taken.
+	 *
+	 * @param id         Identifier of the passphrase
+	 * @param passphrase the passphrase to cache. The caller remains responsible for zeroing it.
+	 * @param stamp      the {@link #stamp()} taken before the passphrase was read
+	 */
+	synchronized void put(String id, char[] passphrase, long stamp) {
+		if (sealed || closed || stamp != invalidations) {
+			return; //possibly outdated
+		}
+		evict(id);
+		secrets.put(id, new Secret(passphrase, nanoClock.getAsLong()));
+		startSweeping();
+	}
+
+	/**
+	 * Evicts the passphrases, e.g. since they are about to be changed.
+	 *
+	 * @param ids Identifiers of the passphrases
+	 */
+	synchronized void invalidate(Iterable<String> ids) {
+		invalidations++;
+		ids.forEach(this::evict);
+	}
+
+	/**
+	 * Evicts all passphrases and stops caching new ones.
+	 */
+	synchronized void seal() {
+		sealed = true;
+		invalidations++;
+		secrets.values().forEach(Secret::destroy);
+		secrets.clear();
+		stopSweeping();
+	}
+
+	/**
+	 * Resumes caching passphrases.
+	 */
+	synchronized void unseal() {
+		sealed = false;
+	}
+
+	synchronized boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * Evicts all passphrases, stops caching new ones and releases the off-heap memory. A closed cache cannot be unsealed.
+	 */
+	synchronized void close() {
+		if (!closed) {
+			seal();
+			closed = true;
+			freeSlots.clear();
+			arena.close();
+		}
+	}
+
+	//visible for testing
+	synchronized int size() {
+		return secrets.size();
+	}
+
+	//visible for testing
+	synchronized int allocatedSlots() {
+		return allocatedSlots;
+	}
+
+	//visible for testing
+	synchronized boolean isSweeping() {
+		return sweeper != null;
+	}
+
+	//visible for testing
+	synchronized void sweep() {
+		long now = nanoClock.getAsLong();
+		secrets.entrySet().removeIf(e -> {
+			if (e.getValue().isExpired(now)) {
+				e.getValue().destroy();
+				return true;
+			}
+			return false;
+		});
+		if (secrets.isEmpty()) {
+			stopSweeping();
+		}
+	}
+
+	private void evict(String id) {
+		var secret = secrets.remove(id);
+		if (secret != null) {
+			secret.destroy();
+		}
+	}
+
+	// expired passphrases must not linger until the next access, hence they are evicted periodically
+	private void startSweeping() {
+		if (sweeper == null) {
+			long interval = Math.max(TimeUnit.SECONDS.toNanos(1), Math.min(idleNanos > 0 ? idleNanos : Long.MAX_VALUE, maxNanos > 0 ? maxNanos : Long.MAX_VALUE) / 2);
+			sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("keychain-cache-sweeper").daemon().factory());
+			sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	// an idle cache must not keep a thread alive, sweeping is started again with the next cached passphrase
+	private void stopSweeping() {
+		if (sweeper != null) {
+			sweeper.shutdown();
+			sweeper = null;
+		}
+	}
+
+	private MemorySegment takeSlot() {
+		if (freeSlots.isEmpty()) {
+			var chunk = arena.allocate((long) SLOTS_PER_CHUNK * SLOT_CHARS * Character.BYTES, ValueLayout.JAVA_CHAR.byteAlignment());
+			for (int i = 0; i < SLOTS_PER_CHUNK; i++) {
+				freeSlots.push(chunk.asSlice((long) i * SLOT_CHARS * Character.BYTES, (long) SLOT_CHARS * Character.BYTES));
+			}
+			allocatedSlots += SLOTS_PER_CHUNK;
+		}
+		return freeSlots.pop();
+	}
+
+	// all access is guarded by SecretCache.this, as the slots are shared with the cache
+	private class Secret {
+
+		private final MemorySegment[] slots;
+		private final int length;
+		private final long created;
+		private long lastAccess;
+
+		Secret(char[] passphrase, long now) {
+			this.length = passphrase.length;
+			this.slots = new MemorySegment[(length + SLOT_CHARS - 1) / SLOT_CHARS];
+			for (int i = 0; i < slots.length; i++) {
+				slots[i] = takeSlot();
+				MemorySegment.copy(passphrase, i * SLOT_CHARS, slots[i], ValueLayout.JAVA_CHAR, 0, Math.min(SLOT_CHARS, length - i * SLOT_CHARS));
+			}
+			this.created = now;
+			this.lastAccess = now;
+		}
+
+		boolean isExpired(long now) {
+			return (idleNanos > 0 && now - lastAccess >= idleNanos) || (maxNanos > 0 && now - created >= maxNanos);
+		}
+
+		char[] copy() {
+			var result = new char[length];
+			for (int i = 0; i < slots.length; i++) {
+				MemorySegment.copy(slots[i], ValueLayout.JAVA_CHAR, 0, result, i * SLOT_CHARS, Math.min(SLOT_CHARS, length - i * SLOT_CHARS));
+			}
+			return result;
+		}
+
+		void destroy() {
+			for (var slot : slots) {
+				slot.fill((byte) 0x00);
+				freeSlots.push(slot);
+			}
+		}
+	}
+
+}
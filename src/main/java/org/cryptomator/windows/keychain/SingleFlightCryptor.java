@@ -0,0 +1,109 @@
+package org.cryptomator.windows.keychain;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls to a cryptor, which needs to be unlocked once per key, e.g. by a user prompt, before it can be used without interaction.
+ * <p>
+ * Until a call for a key id has succeeded, only a single call is in flight per key id. Concurrent callers wait for it to complete and afterwards proceed in parallel,
+ * so the unlock (and prompt) is shared among them. If the call in flight fails, e.g. because the user cancelled the prompt, the next waiting caller starts a new one.
+ * As the state is kept per key id, all instances for the same key share a single flight.
+ * <p>
+ * A call failing after the unlock, e.g. because the key has been deleted or the authorization has expired, resets the state of the key id,
+ * so the next unlock is shared again instead of every caller unlocking on its own.
+ */
+class SingleFlightCryptor implements WindowsKeychainAccessBase.PassphraseCryptor {
+
+	private static final ConcurrentMap<String, KeyState> KEY_STATES = new ConcurrentHashMap<>();
+
+	private final WindowsKeychainAccessBase.PassphraseCryptor delegate;
+	private final KeyState keyState;
+
+	SingleFlightCryptor(String keyId, WindowsKeychainAccessBase.PassphraseCryptor delegate) {
+		this.delegate = delegate;
+		this.keyState = KEY_STATES.computeIfAbsent(keyId, id -> new KeyState());
+	}
+
+	@Override
+	public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+		return call(() -> delegate.encrypt(cleartext, additionalData));
+	}
+
+	@Override
+	public byte[] encryptSegment(MemorySegment cleartext, byte[] additionalData) {
+		return call(() -> delegate.encryptSegment(cleartext, additionalData));
+	}
+
+	@Override
+	public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+		return call(() -> delegate.decrypt(ciphertext, additionalData));
+	}
+
+	@Override
+	public byte[][] encryptAll(byte[][] cleartexts, byte[][] additionalData) {
+		return callAll(() -> delegate.encryptAll(cleartexts, additionalData));
+	}
+
+	@Override
+	public byte[][] decryptAll(byte[][] ciphertexts, byte[][] additionalData) {
+		return callAll(() -> delegate.decryptAll(ciphertexts, additionalData));
+	}
+
+	@Override
+	public void preload() {
+		delegate.preload();
+	}
+
+	@Override
+	public boolean isSupported() {
+		return delegate.isSupported();
+	}
+
+	private byte[] call(Supplier<byte[]> operation) {
+		return keyState.call(operation, Objects::nonNull);
+	}
+
+	private byte[][] callAll(Supplier<byte[][]> operation) {
+		return keyState.call(operation, results -> results != null && Arrays.stream(results).anyMatch(Objects::nonNull));
+	}
+
+	private static class KeyState {
+
+		private final AtomicReference<CompletableFuture<Void>> inFlight = new AtomicReference<>();
+		private volatile boolean unlocked;
+
+		<T> T call(Supplier<T> operation, Predicate<T> succeeded) {
+			while (!unlocked) {
+				var flight = new CompletableFuture<Void>();
+				var current = inFlight.compareAndExchange(null, flight);
+				if (current == null) {
+					try {
+						var result = operation.get();
+						if (succeeded.test(result)) {
+							unlocked = true;
+						}
+						return result;
+					} finally {
+						inFlight.set(null);
+						flight.complete(null);
+					}
+				}
+				current.join();
+			}
+			var result = operation.get();
+			if (!succeeded.test(result)) {
+				unlocked = false;
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.cryptomator.windows.keychain;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, each guarding all ids hashing to it.
+ * Operations on the same id are mutually exclusive, while operations on different ids usually acquire different locks.
+ */
+class StripedLocks {
+
+	static final int DEFAULT_STRIPES = 32;
+
+	private final Lock[] locks;
+
+	/**
+	 * @param stripes number of locks, must be a power of two
+	 */
+	StripedLocks(int stripes) {
+		if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+			throw new IllegalArgumentException("Number of stripes must be a power of two");
+		}
+		this.locks = new Lock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * @param id an id
+	 * @return the lock guarding the given id
+	 */
+	Lock lockFor(String id) {
+		return locks[stripeOf(id)];
+	}
+
+	/**
+	 * Returns the locks guarding any of the given ids. Acquiring them in the returned order avoids deadlocks among callers locking several ids.
+	 *
+	 * @param ids some ids
+	 * @return the distinct locks guarding the ids, in a fixed global order
+	 */
+	List<Lock> locksFor(Collection<String> ids) {
+		return ids.stream().mapToInt(this::stripeOf).distinct().sorted().mapToObj(i -> locks[i]).toList();
+	}
+
+	private int stripeOf(String id) {
+		int h = id.hashCode();
+		return (h ^ (h >>> 16)) & (locks.length - 1);
+	}
+
+}
@@ -2,16 +2,50 @@ package org.cryptomator.windows.keychain;
 
 import org.cryptomator.windows.common.NativeLibLoader;
 
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
 class WinDataProtection implements WindowsKeychainAccessBase.PassphraseCryptor {
 
+	private static final String CRYPTOR = "WinDataProtection";
+
 	@Override
 	public byte[] encrypt(byte[] cleartext, byte[] salt) {
-		return Native.INSTANCE.protect(cleartext, salt);
+		return NativeCryptorEvent.record(CRYPTOR, "protect", () -> Native.INSTANCE.protect(cleartext, salt));
+	}
+
+	@Override
+	public byte[] encryptSegment(MemorySegment cleartext, byte[] salt) {
+		return NativeCryptorEvent.record(CRYPTOR, "protectBuffer", () -> Native.INSTANCE.protectBuffer(cleartext.asByteBuffer(), salt));
 	}
 
 	@Override
 	public byte[] decrypt(byte[] ciphertext, byte[] salt) {
-		return Native.INSTANCE.unprotect(ciphertext, salt);
+		return NativeCryptorEvent.record(CRYPTOR, "unprotect", () -> Native.INSTANCE.unprotect(ciphertext, salt));
+	}
+
+	@Override
+	public byte[][] encryptAll(byte[][] cleartexts, byte[][] salts) {
+		checkBatch(cleartexts, salts);
+		return NativeCryptorEvent.recordAll(CRYPTOR, "protectAll", cleartexts.length, () -> Native.INSTANCE.protectAll(cleartexts, salts));
+	}
+
+	@Override
+	public byte[][] decryptAll(byte[][] ciphertexts, byte[][] salts) {
+		checkBatch(ciphertexts, salts);
+		return NativeCryptorEvent.recordAll(CRYPTOR, "unprotectAll", ciphertexts.length, () -> Native.INSTANCE.unprotectAll(ciphertexts, salts));
+	}
+
+	// the native batch functions rely on each input having a salt
+	private static void checkBatch(byte[][] inputs, byte[][] salts) {
+		if (inputs.length != salts.length) {
+			throw new IllegalArgumentException("Got " + inputs.length + " inputs, but " + salts.length + " salts.");
+		}
+		for (int i = 0; i < inputs.length; i++) {
+			Objects.requireNonNull(inputs[i], "inputs[" + i + "]");
+			Objects.requireNonNull(salts[i], "salts[" + i + "]");
+		}
 	}
 
 	@Override
@@ -19,6 +53,11 @@ class WinDataProtection implements WindowsKeychainAccessBase.PassphraseCryptor {
 		return true;
 	}
 
+	@Override
+	public void preload() {
+		NativeLibLoader.loadLib();
+	}
+
 	// initialization-on-demand pattern, as loading the .dll is an expensive operation
 	private static class Native {
 		static final Native INSTANCE = new Native();
@@ -30,6 +69,14 @@ class WinDataProtection implements WindowsKeychainAccessBase.PassphraseCryptor {
 		public native byte[] protect(byte[] cleartext, byte[] salt);
 
 		public native byte[] unprotect(byte[] ciphertext, byte[] salt);
+
+		// reads the cleartext from a direct buffer, avoiding a copy on the heap
+		public native byte[] protectBuffer(ByteBuffer cleartext, byte[] salt);
+
+		// processes all blobs in a single call, distributing them among worker threads
+		public native byte[][] protectAll(byte[][] cleartexts, byte[][] salts);
+
+		public native byte[][] unprotectAll(byte[][] ciphertexts, byte[][] salts);
 	}
 
 }
@@ -3,8 +3,12 @@ package org.cryptomator.windows.keychain;
 import org.cryptomator.windows.common.NativeLibLoader;
 import org.cryptomator.windows.common.WinStrings;
 
+import java.util.function.LongFunction;
+
 class WindowsHello implements WindowsKeychainAccessBase.PassphraseCryptor {
 
+	private static final String CRYPTOR = "WindowsHello";
+
 	private final byte[] keyId;
 
 	public WindowsHello(String keyId) {
@@ -13,21 +17,48 @@ class WindowsHello implements WindowsKeychainAccessBase.PassphraseCryptor {
 
 	@Override
 	public byte[] encrypt(byte[] cleartext, byte[] salt) {
-		return Native.INSTANCE.encrypt(keyId, cleartext, salt);
+		return NativeCryptorEvent.record(CRYPTOR, "encrypt", () -> cancellable(callId -> Native.INSTANCE.encrypt(callId, keyId, cleartext, salt)));
 	}
 
 	@Override
 	public byte[] decrypt(byte[] ciphertext, byte[] salt) {
-		return Native.INSTANCE.decrypt(keyId, ciphertext, salt);
+		return NativeCryptorEvent.record(CRYPTOR, "decrypt", () -> cancellable(callId -> Native.INSTANCE.decrypt(callId, keyId, ciphertext, salt)));
 	}
 
 	public boolean isSupported() {
 		return Native.INSTANCE.isSupported();
 	}
 
+	// a native call made with a deadline gets its own id, so cancelling it after the deadline only closes its own prompt
+	private static byte[] cancellable(LongFunction<byte[]> nativeCall) {
+		var call = CryptorDeadline.currentCall();
+		if (call == null) {
+			return nativeCall.apply(Native.NOT_CANCELLABLE);
+		}
+		long callId = Native.INSTANCE.begin();
+		try {
+			if (!call.register(() -> Native.INSTANCE.cancel(callId))) {
+				return null; //abandoned already
+			}
+			try {
+				return nativeCall.apply(callId);
+			} finally {
+				call.unregister();
+			}
+		} finally {
+			Native.INSTANCE.end(callId);
+		}
+	}
+
+	@Override
+	public void preload() {
+		NativeLibLoader.loadLib();
+	}
+
 	// initialization-on-demand pattern, as loading the .dll is an expensive operation
 	private static class Native {
 		static final Native INSTANCE = new Native();
+		static final long NOT_CANCELLABLE = 0;
 
 		private Native() {
 			NativeLibLoader.loadLib();
@@ -35,9 +66,18 @@ class WindowsHello implements WindowsKeychainAccessBase.PassphraseCryptor {
 
 		public native boolean isSupported();
 
-		public native byte[] encrypt(byte[] keyId, byte[] cleartext, byte[] salt);
+		public native byte[] encrypt(long callId, byte[] keyId, byte[] cleartext, byte[] salt);
+
+		public native byte[] decrypt(long callId, byte[] keyId, byte[] ciphertext, byte[] salt);
+
+		/**
+		 * @return the id of a new cancellable call, which must be {@link #end(long) ended} after use
+		 */
+		public native long begin();
+
+		public native void end(long callId);
 
-		public native byte[] decrypt(byte[] keyId, byte[] ciphertext, byte[] salt);
+		public native void cancel(long callId);
 	}
 
 }
@@ -6,6 +6,9 @@ import org.cryptomator.integrations.common.Priority;
 import org.cryptomator.integrations.keychain.KeychainAccessProvider;
 import org.cryptomator.windows.common.Localization;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
 /**
  * Windows implementation for the {@link KeychainAccessProvider} based on the <a href="https://en.wikipedia.org/wiki/Data_Protection_API">data protection API</a>.
  * The storage locations to check for encrypted data can be set with the JVM property {@value WINDOWS_HELLO_KEYCHAIN_PATHS_PROPERTY} with the paths seperated with the character defined in the JVM property path.separator.
@@ -20,7 +23,23 @@ public final class WindowsHelloKeychainAccess extends WindowsKeychainAccessBase
 
 	@SuppressWarnings("unused") // default constructor required by ServiceLoader
 	public WindowsHelloKeychainAccess() {
-		super(new FileKeychain(WINDOWS_HELLO_KEYCHAIN_PATHS_PROPERTY),
-				new WindowsHello(System.getProperty(WINDOWS_HELLO_KEY_ID_PROPERTY, "org.cryptomator.integrations-win")));
+		this(System.getProperty(WINDOWS_HELLO_KEY_ID_PROPERTY, "org.cryptomator.integrations-win"));
+	}
+
+	// concurrent unlocks share a single Windows Hello prompt
+	private WindowsHelloKeychainAccess(String keyId) {
+		super("WindowsHelloKeychainAccess", KeychainStorage.create(WINDOWS_HELLO_KEYCHAIN_PATHS_PROPERTY), new SingleFlightCryptor(keyId, new MeasuredCryptor("WindowsHello", new WindowsHello(keyId))));
+	}
+
+	/**
+	 * Re-encrypts all entries encrypted with the Windows Hello key of the given former key id with the current key, e.g. after changing {@value WINDOWS_HELLO_KEY_ID_PROPERTY}.
+	 *
+	 * @param formerKeyId the key id the entries are currently encrypted with
+	 * @param progress    called with the number of processed entries and the total number of entries after each entry
+	 * @return a future completing as soon as the re-encrypted entries are committed
+	 * @see #rekey(PassphraseCryptor, BiConsumer)
+	 */
+	public CompletableFuture<Void> rekeyFrom(String formerKeyId, BiConsumer<Integer, Integer> progress) {
+		return rekey(new SingleFlightCryptor(formerKeyId, new MeasuredCryptor("WindowsHello", new WindowsHello(formerKeyId))), progress);
 	}
 }
@@ -2,81 +2,585 @@ package org.cryptomator.windows.keychain;
 
 import org.cryptomator.integrations.keychain.KeychainAccessException;
 import org.cryptomator.integrations.keychain.KeychainAccessProvider;
+import org.cryptomator.windows.keychain.metrics.KeychainMetrics;
+import org.cryptomator.windows.keychain.metrics.KeychainOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
+/**
+ * Base class of the keychain access providers, storing passphrases encrypted by a {@link PassphraseCryptor} in a {@link Keychain}.
+ * <p>
+ * Keychain and cryptor are initialized lazily on first use. If the JVM property {@value PRELOAD_PROPERTY} is set, both are initialized
+ * concurrently in the background right after construction instead. The first access then only waits for the work still outstanding.
+ * <p>
+ * If the JVM property {@value EnvelopeCryptor#PROPERTY} is set, the cryptor only protects a single data key and entries are encrypted by an {@link EnvelopeCryptor}.
+ * The id of the data key is reserved: All operations on passphrases reject it, whether envelope encryption is enabled or not.
+ * <p>
+ * Decrypted passphrases can be kept in a {@link SecretCache} for a limited time. While the cache is {@link #lock() locked}, this provider {@link #isLocked() reports to be locked}.
+ * Passphrases are invalidated on mutations by this provider as well as on {@link Keychain#addChangeListener(Consumer) changes by other processes}.
+ * <p>
+ * If the JVM property {@value CryptorDeadline#TIMEOUT_PROPERTY} is set, each call of the cryptor has a {@link CryptorDeadline deadline}, after which a {@link CryptorTimeoutException} is thrown.
+ * <p>
+ * Latencies and failures of all operations are reported to the {@link KeychainMetrics}.
+ */
 abstract class WindowsKeychainAccessBase implements KeychainAccessProvider {
 
+	private static final Logger LOG = LoggerFactory.getLogger(WindowsKeychainAccessBase.class);
+	static final String PRELOAD_PROPERTY = "cryptomator.integrationsWin.keychainPreload";
+
+	private static final Executor CRYPTO_EXECUTOR = Executors.newCachedThreadPool(Thread.ofPlatform().name("keychain-crypto-", 0).daemon().factory());
+	private static final Executor IO_EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("keychain-io-", 0).factory());
+	//visible for testing
+	static final int REKEY_PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private final String metricsComponent;
 	private final Keychain keychain;
 	private final PassphraseCryptor passphraseCryptor;
+	private final StripedLocks idLocks = new StripedLocks(StripedLocks.DEFAULT_STRIPES);
+	private final CompletableFuture<Void> preloaded;
+	private final SecretCache secretCache; //null if passphrases are not cached
+	private final Duration cryptorTimeout; //zero if cryptor calls have no deadline
+
+	/**
+	 * @param metricsComponent  name of this provider in the {@link KeychainMetrics}, fixed to keep reported series stable
+	 * @param keychain          the storage of the entries
+	 * @param passphraseCryptor the cryptor encrypting the passphrases
+	 */
+	protected WindowsKeychainAccessBase(String metricsComponent, Keychain keychain, PassphraseCryptor passphraseCryptor) {
+		this(metricsComponent, keychain, EnvelopeCryptor.wrapIfEnabled(passphraseCryptor, keychain), Boolean.getBoolean(PRELOAD_PROPERTY), SecretCache.fromSystemProperties(), CryptorDeadline.fromSystemProperties());
+	}
+
+	WindowsKeychainAccessBase(String metricsComponent, Keychain keychain, PassphraseCryptor passphraseCryptor, boolean preload, SecretCache secretCache) {
+		this(metricsComponent, keychain, passphraseCryptor, preload, secretCache, Duration.ZERO);
+	}
 
-	protected WindowsKeychainAccessBase(Keychain keychain, PassphraseCryptor passphraseCryptor) {
+	WindowsKeychainAccessBase(String metricsComponent, Keychain keychain, PassphraseCryptor passphraseCryptor, boolean preload, SecretCache secretCache, Duration cryptorTimeout) {
+		this.metricsComponent = metricsComponent;
 		this.keychain = keychain;
 		this.passphraseCryptor = passphraseCryptor;
+		this.secretCache = secretCache;
+		this.cryptorTimeout = cryptorTimeout;
+		if (secretCache != null) {
+			keychain.addChangeListener(change -> secretCache.invalidate(change.ids()));
+		}
+		this.preloaded = preload ? preload() : CompletableFuture.completedFuture(null);
+	}
+
+	// keychain and cryptor synchronize their lazy initialization, hence an access during preloading waits for the pending part only
+	private CompletableFuture<Void> preload() {
+		Executor preloader = task -> Thread.ofVirtual().name("keychain-preload").start(task);
+		var cryptor = CompletableFuture.runAsync(passphraseCryptor::preload, preloader);
+		var storage = CompletableFuture.runAsync(() -> {
+			try {
+				keychain.preload();
+			} catch (KeychainAccessException e) {
+				throw new CompletionException(e);
+			}
+		}, preloader);
+		return CompletableFuture.allOf(cryptor, storage).exceptionally(e -> {
+			LOG.warn("Failed to preload keychain. Retrying on first access.", e);
+			return null;
+		});
+	}
+
+	//visible for testing
+	CompletableFuture<Void> preloaded() {
+		return preloaded;
 	}
 
 	@Override
 	public void storePassphrase(String id, String displayName, CharSequence passphrase) throws KeychainAccessException {
-		var keychainEntry = encryptPassphrase(passphrase);
-		keychain.put(id, keychainEntry);
+		measure(KeychainOperation.STORE_PASSPHRASE, () -> {
+			checkIds(List.of(id));
+			var keychainEntry = encryptPassphrase(passphrase);
+			withIdLock(id, () -> keychain.put(id, keychainEntry));
+			return null;
+		});
+	}
+
+	/**
+	 * Stores several passphrases at once. The keychain is updated atomically and persisted a single time.
+	 *
+	 * @param passphrases the passphrases to store, keyed by their id
+	 * @throws KeychainAccessException if any id is reserved, encrypting any of the passphrases fails or the keychain cannot be updated. In this case, none of the passphrases is stored.
+	 */
+	public void storePassphrases(Map<String, ? extends CharSequence> passphrases) throws KeychainAccessException {
+		measure(KeychainOperation.STORE_PASSPHRASES, () -> {
+			checkIds(passphrases.keySet());
+			putPassphrases(passphrases);
+			return null;
+		});
+	}
+
+	private void putPassphrases(Map<String, ? extends CharSequence> passphrases) throws KeychainAccessException {
+		var ids = List.copyOf(passphrases.keySet());
+		var cleartexts = new byte[ids.size()][];
+		var salts = new byte[ids.size()][];
+		try {
+			for (int i = 0; i < ids.size(); i++) {
+				cleartexts[i] = PassphraseCodec.encode(passphrases.get(ids.get(i)));
+				salts[i] = Util.generateSalt();
+			}
+			var ciphertexts = CryptorDeadline.call(cryptorTimeout, () -> passphraseCryptor.encryptAll(cleartexts, salts), CryptorDeadline::zeroAll);
+			var entries = new LinkedHashMap<String, KeychainEntry>();
+			for (int i = 0; i < ids.size(); i++) {
+				if (ciphertexts[i] == null) {
+					throw new KeychainAccessException("Encrypting the passphrase failed.");
+				}
+				entries.put(ids.get(i), new KeychainEntry(ciphertexts[i], salts[i]));
+			}
+			withIdLocks(entries.keySet(), () -> keychain.putAll(entries));
+		} finally {
+			for (var cleartext : cleartexts) {
+				if (cleartext != null) {
+					Arrays.fill(cleartext, (byte) 0x00);
+				}
+			}
+		}
 	}
 
 	private KeychainEntry encryptPassphrase(CharSequence passphrase) throws KeychainAccessException {
-		ByteBuffer buf = UTF_8.encode(CharBuffer.wrap(passphrase));
-		byte[] cleartext = new byte[buf.remaining()];
+		var salt = Util.generateSalt();
+		var ciphertext = CryptorDeadline.call(cryptorTimeout, () -> PassphraseCodec.encrypt(passphrase, salt, passphraseCryptor), CryptorDeadline::zero);
+		if (ciphertext == null) {
+			throw new KeychainAccessException("Encrypting the passphrase failed.");
+		}
+		return new KeychainEntry(ciphertext, salt);
+	}
+
+	@Override
+	public char[] loadPassphrase(String id) throws KeychainAccessException {
+		return measure(KeychainOperation.LOAD_PASSPHRASE, () -> {
+			checkIds(List.of(id));
+			var cached = cachedPassphrase(id);
+			if (cached != null) {
+				return cached;
+			}
+			long stamp = secretCache != null ? secretCache.stamp() : 0; //taken before reading, so a concurrent mutation keeps an outdated passphrase from being cached
+			var entry = keychain.get(id);
+			return entry != null ? decryptPassphrase(id, entry, stamp) : null;
+		});
+	}
+
+	/**
+	 * Loads several passphrases at once, e.g. to unlock multiple vaults on startup.
+	 * All entries are passed to the {@link PassphraseCryptor#decryptAll(byte[][], byte[][]) cryptor in a single call}, which may decrypt them concurrently.
+	 *
+	 * @param ids Identifiers of the passphrases
+	 * @return the passphrases keyed by their id. Passphrases not found or not decryptable are absent.
+	 * @throws KeychainAccessException if any id is reserved, the keychain cannot be read or the cryptor does not respond in time
+	 */
+	public Map<String, char[]> loadPassphrases(Collection<String> ids) throws KeychainAccessException {
+		return measure(KeychainOperation.LOAD_PASSPHRASES, () -> {
+			checkIds(ids);
+			return readPassphrases(ids);
+		});
+	}
+
+	private Map<String, char[]> readPassphrases(Collection<String> ids) throws KeychainAccessException {
+		var result = new LinkedHashMap<String, char[]>();
+		var pendingIds = new ArrayList<String>();
+		var pendingEntries = new ArrayList<KeychainEntry>();
+		if (secretCache != null) {
+			keychain.refresh();
+		}
+		long stamp = secretCache != null ? secretCache.stamp() : 0;
+		for (var id : new LinkedHashSet<>(ids)) {
+			var cached = secretCache != null ? secretCache.get(id) : null;
+			var entry = cached == null ? keychain.get(id) : null;
+			if (cached != null) {
+				result.put(id, cached);
+			} else if (entry != null) {
+				pendingIds.add(id);
+				pendingEntries.add(entry);
+			}
+		}
+		if (pendingIds.isEmpty()) {
+			return result;
+		}
+		var ciphertexts = pendingEntries.stream().map(KeychainEntry::ciphertext).toArray(byte[][]::new);
+		var salts = pendingEntries.stream().map(KeychainEntry::salt).toArray(byte[][]::new);
+		var cleartexts = CryptorDeadline.call(cryptorTimeout, () -> passphraseCryptor.decryptAll(ciphertexts, salts), CryptorDeadline::zeroAll);
+		for (int i = 0; i < pendingIds.size(); i++) {
+			var passphrase = decode(pendingIds.get(i), cleartexts[i], stamp);
+			if (passphrase != null) {
+				result.put(pendingIds.get(i), passphrase);
+			}
+		}
+		return result;
+	}
+
+	// changes by other processes are picked up first, so their outdated passphrases are invalidated instead of being returned
+	private char[] cachedPassphrase(String id) throws KeychainAccessException {
+		if (secretCache == null) {
+			return null;
+		}
+		keychain.refresh();
+		return secretCache.get(id);
+	}
+
+	// decrypts the entry and caches the passphrase, unless any mutation happened since the stamp was taken
+	private char[] decryptPassphrase(String id, KeychainEntry entry, long stamp) throws KeychainAccessException {
+		return decode(id, passphraseCryptor.decrypt(entry.ciphertext(), entry.salt(), cryptorTimeout), stamp);
+	}
+
+	// decodes and zeroes the cleartext, caching the passphrase unless any mutation happened since the stamp was taken
+	private char[] decode(String id, byte[] cleartext, long stamp) {
+		if (cleartext == null) {
+			return null;
+		}
 		try {
-			buf.get(cleartext);
-			var salt = Util.generateSalt();
-			var ciphertext = passphraseCryptor.encrypt(cleartext, salt);
-			if (ciphertext == null) {
-				throw new KeychainAccessException("Encrypting the passphrase failed.");
+			char[] passphrase = PassphraseCodec.decode(cleartext);
+			if (secretCache != null) {
+				secretCache.put(id, passphrase, stamp);
 			}
-			return new KeychainEntry(ciphertext, salt);
+			return passphrase;
 		} finally {
-			Arrays.fill(buf.array(), (byte) 0x00);
 			Arrays.fill(cleartext, (byte) 0x00);
 		}
 	}
 
 	@Override
-	public char[] loadPassphrase(String id) throws KeychainAccessException {
-		KeychainEntry entry = keychain.get(id);
-		if (entry == null) {
+	public void deletePassphrase(String id) throws KeychainAccessException {
+		measure(KeychainOperation.DELETE_PASSPHRASE, () -> {
+			checkIds(List.of(id));
+			withIdLock(id, () -> keychain.remove(id));
+			return null;
+		});
+	}
+
+	@Override
+	public void changePassphrase(String id, String displayName, CharSequence passphrase) throws KeychainAccessException {
+		measure(KeychainOperation.CHANGE_PASSPHRASE, () -> {
+			checkIds(List.of(id));
+			var keychainEntry = encryptPassphrase(passphrase);
+			withIdLock(id, () -> keychain.change(id, keychainEntry));
 			return null;
+		});
+	}
+
+	/**
+	 * Non-blocking variant of {@link #loadPassphrase(String)}.
+	 * <p>
+	 * The keychain is read on a virtual thread, while the passphrase is decrypted on a platform thread, as native calls pin their carrier thread.
+	 * Completing the returned future early, e.g. by {@link CompletableFuture#cancel(boolean) cancelling} it or by {@link CompletableFuture#orTimeout(long, TimeUnit) a timeout},
+	 * skips all steps not yet started. A step already in progress, e.g. a native call waiting for the user, runs to completion, but its result is discarded.
+	 * A bounded wait for the user is set by the {@link CryptorDeadline cryptor deadline} instead, which also cancels the native call.
+	 *
+	 * @param id Identifier of the passphrase
+	 * @return a future completing with the passphrase or {@code null}, if not found or not decryptable
+	 */
+	public CompletableFuture<char[]> loadPassphraseAsync(String id) {
+		var result = this.<char[]>measuredFuture(KeychainOperation.LOAD_PASSPHRASE);
+		runStep(IO_EXECUTOR, result, () -> {
+			checkIds(List.of(id));
+			var cached = cachedPassphrase(id);
+			if (cached != null) {
+				completeWithPassphrase(result, cached);
+				return;
+			}
+			long stamp = secretCache != null ? secretCache.stamp() : 0;
+			var entry = keychain.get(id);
+			if (entry == null) {
+				result.complete(null);
+				return;
+			}
+			runStep(CRYPTO_EXECUTOR, result, () -> completeWithPassphrase(result, decryptPassphrase(id, entry, stamp)));
+		});
+		return result;
+	}
+
+	/**
+	 * Non-blocking variant of {@link #storePassphrase(String, String, CharSequence)}. See {@link #loadPassphraseAsync(String)} for threading and cancellation.
+	 * The passphrase must not be modified until the returned future is completed.
+	 *
+	 * @param id          Identifier of the passphrase
+	 * @param displayName Name of the passphrase
+	 * @param passphrase  The passphrase to store
+	 * @return a future completing as soon as the passphrase is stored
+	 */
+	public CompletableFuture<Void> storePassphraseAsync(String id, String displayName, CharSequence passphrase) {
+		var result = this.<Void>measuredFuture(KeychainOperation.STORE_PASSPHRASE);
+		runStep(CRYPTO_EXECUTOR, result, () -> {
+			checkIds(List.of(id));
+			var keychainEntry = encryptPassphrase(passphrase);
+			runStep(IO_EXECUTOR, result, () -> {
+				withIdLock(id, () -> keychain.put(id, keychainEntry));
+				result.complete(null);
+			});
+		});
+		return result;
+	}
+
+	/**
+	 * Non-blocking variant of {@link #deletePassphrase(String)}. See {@link #loadPassphraseAsync(String)} for threading and cancellation.
+	 *
+	 * @param id Identifier of the passphrase
+	 * @return a future completing as soon as the passphrase is deleted
+	 */
+	public CompletableFuture<Void> deletePassphraseAsync(String id) {
+		var result = this.<Void>measuredFuture(KeychainOperation.DELETE_PASSPHRASE);
+		runStep(IO_EXECUTOR, result, () -> {
+			checkIds(List.of(id));
+			withIdLock(id, () -> keychain.remove(id));
+			result.complete(null);
+		});
+		return result;
+	}
+
+	/**
+	 * Non-blocking variant of {@link #changePassphrase(String, String, CharSequence)}. See {@link #storePassphraseAsync(String, String, CharSequence)}.
+	 *
+	 * @param id          Identifier of the passphrase
+	 * @param displayName Name of the passphrase
+	 * @param passphrase  The new passphrase
+	 * @return a future completing as soon as the passphrase is changed
+	 */
+	public CompletableFuture<Void> changePassphraseAsync(String id, String displayName, CharSequence passphrase) {
+		var result = this.<Void>measuredFuture(KeychainOperation.CHANGE_PASSPHRASE);
+		runStep(CRYPTO_EXECUTOR, result, () -> {
+			checkIds(List.of(id));
+			var keychainEntry = encryptPassphrase(passphrase);
+			runStep(IO_EXECUTOR, result, () -> {
+				withIdLock(id, () -> keychain.change(id, keychainEntry));
+				result.complete(null);
+			});
+		});
+		return result;
+	}
+
+	// entries of reserved ids, e.g. the data key of envelope encryption, are no passphrases. Reading them would leak keys, writing them would destroy entries.
+	private static void checkIds(Collection<String> ids) throws KeychainAccessException {
+		for (var id : ids) {
+			if (EnvelopeCryptor.isReserved(id)) {
+				throw new KeychainAccessException("Keychain id " + id + " is reserved.");
+			}
 		}
+	}
+
+	// runs a step of an async operation, unless the operation is already completed, e.g. cancelled. A failing step completes the operation exceptionally.
+	private static void runStep(Executor executor, CompletableFuture<?> result, AsyncStep step) {
+		if (result.isDone()) {
+			return; //cancelled or failed, no need to hand over to another thread
+		}
+		try {
+			executor.execute(() -> {
+				if (result.isDone()) {
+					return;
+				}
+				try {
+					step.run();
+				} catch (KeychainAccessException | RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	// nobody receives the passphrase, if the operation was completed in the meantime, hence it is zeroed
+	private static void completeWithPassphrase(CompletableFuture<char[]> result, char[] passphrase) {
+		if (!result.complete(passphrase) && passphrase != null) {
+			Arrays.fill(passphrase, (char) 0x00);
+		}
+	}
+
+	@FunctionalInterface
+	private interface AsyncStep {
+		void run() throws KeychainAccessException;
+	}
+
+	// reports the latency of the operation to the keychain metrics under the fixed component name passed to the constructor
+	private <T> T measure(KeychainOperation operation, MeasuredOperation<T> action) throws KeychainAccessException {
+		long start = KeychainMetrics.start();
+		boolean succeeded = false;
+		try {
+			T result = action.run();
+			succeeded = true;
+			return result;
+		} finally {
+			KeychainMetrics.completed(metricsComponent, operation, start, succeeded);
+		}
+	}
+
+	// creates the result of an async operation, whose latency is reported once completed, including cancellation
+	private <T> CompletableFuture<T> measuredFuture(KeychainOperation operation) {
+		var result = new CompletableFuture<T>();
+		long start = KeychainMetrics.start();
+		result.whenComplete((value, e) -> KeychainMetrics.completed(metricsComponent, operation, start, e == null));
+		return result;
+	}
+
+	@FunctionalInterface
+	private interface MeasuredOperation<T> {
+		T run() throws KeychainAccessException;
+	}
+
+	/**
+	 * Re-encrypts all entries, which have been encrypted by the given former cryptor, with the cryptor of this provider, e.g. after the Windows Hello key id has changed.
+	 * <p>
+	 * Entries are decrypted and encrypted in parallel by a bounded number of platform threads. All re-encrypted entries are committed with a single atomic update of the keychain,
+	 * skipping entries changed in the meantime. Entries not decryptable by the former cryptor are kept as they are.
+	 * If envelope encryption is enabled, only the data key and entries written before envelope encryption are re-encrypted, as all other entries are encrypted by the data key.
+	 * <p>
+	 * Cancelling the returned future before the commit has started leaves the keychain untouched.
+	 *
+	 * @param formerCryptor the cryptor the entries are currently encrypted with
+	 * @param progress      called with the number of processed entries and the total number of entries after each entry
+	 * @return a future completing as soon as the re-encrypted entries are committed
+	 */
+	public CompletableFuture<Void> rekey(PassphraseCryptor formerCryptor, BiConsumer<Integer, Integer> progress) {
+		var result = this.<Void>measuredFuture(KeychainOperation.REKEY);
+		runStep(IO_EXECUTOR, result, () -> {
+			var targetCryptor = passphraseCryptor instanceof EnvelopeCryptor envelope ? envelope.osCryptor() : passphraseCryptor;
+			var entries = new LinkedHashMap<String, KeychainEntry>();
+			for (var id : keychain.ids()) {
+				var entry = keychain.get(id);
+				if (entry != null && !(targetCryptor != passphraseCryptor && EnvelopeCryptor.isEnvelope(entry.ciphertext()))) {
+					entries.put(id, entry);
+				}
+			}
+			if (entries.isEmpty()) {
+				result.complete(null);
+				return;
+			}
+			var rekeyed = new ConcurrentHashMap<String, KeychainEntry>();
+			var processed = new AtomicInteger();
+			var pending = new ConcurrentLinkedQueue<>(entries.entrySet());
+			Runnable worker = () -> {
+				for (var entry = pending.poll(); entry != null && !result.isDone(); entry = pending.poll()) { //stops if cancelled or failed
+					try {
+						var reencrypted = reencrypt(entry.getKey(), entry.getValue(), formerCryptor, targetCryptor, cryptorTimeout);
+						if (reencrypted != null) {
+							rekeyed.put(entry.getKey(), reencrypted);
+						}
+					} catch (RuntimeException e) {
+						pending.clear(); //the other workers stop, too
+						throw e;
+					}
+					progress.accept(processed.incrementAndGet(), entries.size());
+				}
+			};
+			// a bounded number of workers drains the queue, so the shared crypto pool is not flooded
+			var tasks = IntStream.range(0, Math.min(entries.size(), REKEY_PARALLELISM)).mapToObj(i -> CompletableFuture.runAsync(worker, CRYPTO_EXECUTOR)).toArray(CompletableFuture[]::new);
+			CompletableFuture.allOf(tasks).whenComplete((unused, e) -> {
+				if (e != null) {
+					result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+					return;
+				}
+				runStep(IO_EXECUTOR, result, () -> {
+					commitRekeyed(entries, rekeyed);
+					result.complete(null);
+				});
+			});
+		});
+		return result;
+	}
+
+	// returns null, if the former cryptor cannot decrypt the entry
+	private static KeychainEntry reencrypt(String id, KeychainEntry entry, PassphraseCryptor formerCryptor, PassphraseCryptor targetCryptor, Duration timeout) {
 		byte[] cleartext = null;
-		CharBuffer intermediate = null;
 		try {
-			cleartext = passphraseCryptor.decrypt(entry.ciphertext(), entry.salt());
+			cleartext = formerCryptor.decrypt(entry.ciphertext(), entry.salt(), timeout);
 			if (cleartext == null) {
+				LOG.warn("Keeping keychain entry {}, which is not decryptable with the former key.", id);
 				return null;
 			}
-			intermediate = UTF_8.decode(ByteBuffer.wrap(cleartext));
-			char[] passphrase = new char[intermediate.remaining()];
-			intermediate.get(passphrase);
-			return passphrase;
+			var salt = Util.generateSalt();
+			var ciphertext = targetCryptor.encrypt(cleartext, salt, timeout);
+			if (ciphertext == null) {
+				throw new KeychainAccessException("Re-encrypting keychain entry " + id + " failed.");
+			}
+			return new KeychainEntry(ciphertext, salt);
+		} catch (KeychainAccessException e) {
+			throw new CompletionException(e);
 		} finally {
 			if (cleartext != null) {
 				Arrays.fill(cleartext, (byte) 0x00);
 			}
-			if (intermediate != null) {
-				Arrays.fill(intermediate.array(), (char) 0x00);
+		}
+	}
+
+	// entries changed while re-encrypting have been written with the current cryptor, hence they are skipped
+	private void commitRekeyed(Map<String, KeychainEntry> original, Map<String, KeychainEntry> rekeyed) throws KeychainAccessException {
+		withIdLocks(rekeyed.keySet(), () -> {
+			var unchanged = new LinkedHashMap<String, KeychainEntry>();
+			for (var entry : rekeyed.entrySet()) {
+				if (Objects.equals(keychain.get(entry.getKey()), original.get(entry.getKey()))) {
+					unchanged.put(entry.getKey(), entry.getValue());
+				}
+			}
+			keychain.putAll(unchanged);
+		});
+	}
+
+	// mutations of the same id are linearizable, including their persistence, while mutations of other ids proceed concurrently
+	private void withIdLock(String id, KeychainMutation mutation) throws KeychainAccessException {
+		var lock = idLocks.lockFor(id);
+		lock.lock();
+		try {
+			mutation.apply();
+		} finally {
+			invalidateCache(List.of(id));
+			lock.unlock();
+		}
+	}
+
+	private void withIdLocks(Collection<String> ids, KeychainMutation mutation) throws KeychainAccessException {
+		var locks = idLocks.locksFor(ids);
+		int locked = 0;
+		try {
+			for (var lock : locks) {
+				lock.lock();
+				locked++;
+			}
+			mutation.apply();
+		} finally {
+			if (locked == locks.size()) {
+				invalidateCache(ids);
+			}
+			for (int i = locked - 1; i >= 0; i--) {
+				locks.get(i).unlock();
 			}
 		}
 	}
 
-	@Override
-	public void deletePassphrase(String id) throws KeychainAccessException {
-		keychain.remove(id);
+	// invalidates after the mutation, so a concurrent load either reads the new entry or does not cache what it read
+	private void invalidateCache(Collection<String> ids) {
+		if (secretCache != null) {
+			secretCache.invalidate(ids);
+		}
 	}
 
-	@Override
-	public void changePassphrase(String id, String displayName, CharSequence passphrase) throws KeychainAccessException {
-		keychain.change(id, encryptPassphrase(passphrase));
+	@FunctionalInterface
+	private interface KeychainMutation {
+		void apply() throws KeychainAccessException;
 	}
 
 	@Override
@@ -86,7 +590,26 @@ abstract class WindowsKeychainAccessBase implements KeychainAccessProvider {
 
 	@Override
 	public boolean isLocked() {
-		return false;
+		return secretCache != null && secretCache.isSealed();
+	}
+
+	/**
+	 * Evicts all cached passphrases and stops caching passphrases until {@link #unlock() unlocked}.
+	 * Has no effect, if passphrases are not cached.
+	 */
+	public void lock() {
+		if (secretCache != null) {
+			secretCache.seal();
+		}
+	}
+
+	/**
+	 * Resumes caching passphrases after {@link #lock() locking}.
+	 */
+	public void unlock() {
+		if (secretCache != null) {
+			secretCache.unseal();
+		}
 	}
 
 	interface Keychain {
@@ -110,6 +633,14 @@ abstract class WindowsKeychainAccessBase implements KeychainAccessProvider {
 		 */
 		KeychainEntry get(String id) throws KeychainAccessException;
 
+		/**
+		 * Lists the ids of all entries.
+		 *
+		 * @return a snapshot of the ids of all entries
+		 * @throws KeychainAccessException if the keychain cannot be accessed
+		 */
+		Set<String> ids() throws KeychainAccessException;
+
 		/**
 		 * Removes a keychain entry.
 		 *
@@ -129,6 +660,125 @@ abstract class WindowsKeychainAccessBase implements KeychainAccessProvider {
 		 */
 		KeychainEntry change(String id, KeychainEntry newValue) throws KeychainAccessException;
 
+		/**
+		 * Loads the keychain from the underlying storage, unless already done.
+		 * All other methods load the keychain on demand, hence calling this method in advance is optional.
+		 *
+		 * @throws KeychainAccessException if the keychain cannot be loaded
+		 */
+		default void preload() throws KeychainAccessException {
+			//no-op
+		}
+
+		/**
+		 * Puts several entries in the keychain. See {@link #update(Consumer)} for guarantees.
+		 *
+		 * @param entries the {@link KeychainEntry KeychainEntries} to be stored, keyed by their id
+		 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+		 */
+		default void putAll(Map<String, KeychainEntry> entries) throws KeychainAccessException {
+			update(batch -> entries.forEach(batch::put));
+		}
+
+		/**
+		 * Removes several keychain entries. See {@link #update(Consumer)} for guarantees.
+		 *
+		 * @param ids Identifiers of the keychain entries
+		 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+		 */
+		default void removeAll(Collection<String> ids) throws KeychainAccessException {
+			update(batch -> ids.forEach(batch::remove));
+		}
+
+		/**
+		 * Applies several mutations as a single unit.
+		 * <p>
+		 * Implementations override this method to apply all mutations atomically with a single write to the underlying storage:
+		 * Either all mutations are persisted or none. The default implementation applies the mutations one after another.
+		 *
+		 * @param mutations adds the mutations to apply to a {@link Batch}. Called exactly once, before the keychain is accessed.
+		 * @throws KeychainAccessException if the keychain cannot be accessed or persisted
+		 */
+		default void update(Consumer<Batch> mutations) throws KeychainAccessException {
+			for (var update : KeychainBatch.of(mutations).updates().entrySet()) {
+				var id = update.getKey();
+				var previous = get(id);
+				var updated = update.getValue().apply(previous);
+				if (Objects.equals(previous, updated)) {
+					continue;
+				} else if (updated == null) {
+					remove(id);
+				} else {
+					put(id, updated);
+				}
+			}
+		}
+
+		/**
+		 * Mutations to be applied by {@link #update(Consumer)}. Mutations of the same id are applied in order.
+		 */
+		interface Batch {
+
+			/**
+			 * @param id    Identifier of the keychain entry
+			 * @param value {@link KeychainEntry} to be stored in the keychain
+			 * @see Keychain#put(String, KeychainEntry)
+			 */
+			void put(String id, KeychainEntry value);
+
+			/**
+			 * Puts the entry, unless an entry is associated with the id already. Other than a {@link Keychain#get(String) lookup} followed by a {@link #put(String, KeychainEntry) put},
+			 * this cannot overwrite an entry written concurrently, as implementations apply batches atomically.
+			 *
+			 * @param id    Identifier of the keychain entry
+			 * @param value {@link KeychainEntry} to be stored in the keychain, if absent
+			 */
+			void putIfAbsent(String id, KeychainEntry value);
+
+			/**
+			 * @param id Identifier of the keychain entry
+			 * @see Keychain#remove(String)
+			 */
+			void remove(String id);
+
+			/**
+			 * @param id       Identifier of the keychain entry
+			 * @param newValue the new {@link KeychainEntry} to be associated for {@code id}, if an entry is associated already
+			 * @see Keychain#change(String, KeychainEntry)
+			 */
+			void change(String id, KeychainEntry newValue);
+		}
+
+		/**
+		 * Registers a listener, which is notified about entries changed by other processes, as soon as this keychain has picked up the changes.
+		 * Keychains not shared with other processes do not need to override this method.
+		 *
+		 * @param listener receives the ids, which have been added, changed or removed
+		 */
+		default void addChangeListener(Consumer<KeychainChange> listener) {
+			//no-op
+		}
+
+		/**
+		 * Picks up changes by other processes, which the keychain does not notice on its own, and notifies the {@link #addChangeListener(Consumer) listeners}.
+		 * Keychains not shared with other processes do not need to override this method.
+		 *
+		 * @throws KeychainAccessException if the keychain cannot be accessed
+		 */
+		default void refresh() throws KeychainAccessException {
+			//no-op
+		}
+
+		/**
+		 * Persists all mutations, which are not yet written to the underlying storage.
+		 * Implementations writing through on every mutation do not need to override this method.
+		 *
+		 * @throws KeychainAccessException if the keychain cannot be persisted
+		 */
+		default void flush() throws KeychainAccessException {
+			//no-op
+		}
+
 		boolean isSupported();
 	}
 
@@ -144,6 +794,23 @@ abstract class WindowsKeychainAccessBase implements KeychainAccessProvider {
 		 */
 		byte[] encrypt(byte[] cleartext, byte[] additionalData);
 
+		/**
+		 * Encrypts the given off-heap cleartext, see {@link #encrypt(byte[], byte[])}.
+		 * Implementations should consume the segment directly. By default, it is copied to a heap array, which is zeroed after use.
+		 *
+		 * @param cleartext      The cleartext to encrypt. The caller is responsible for zeroing it after use.
+		 * @param additionalData Additional data fed into the encryption.
+		 * @return The ciphertext or {@code null} if encryption failed.
+		 */
+		default byte[] encryptSegment(MemorySegment cleartext, byte[] additionalData) {
+			var copy = cleartext.toArray(ValueLayout.JAVA_BYTE);
+			try {
+				return encrypt(copy, additionalData);
+			} finally {
+				Arrays.fill(copy, (byte) 0x00);
+			}
+		}
+
 		/**
 		 * Decrypts the given ciphertext using a key provided by Windows.
 		 *
@@ -153,6 +820,78 @@ abstract class WindowsKeychainAccessBase implements KeychainAccessProvider {
 		 */
 		byte[] decrypt(byte[] ciphertext, byte[] additionalData);
 
+		/**
+		 * Encrypts the given cleartext like {@link #encrypt(byte[], byte[])}, but waits for at most the given timeout, see {@link CryptorDeadline}.
+		 * The cleartext must not be modified before this method returns.
+		 * <p>
+		 * Implementations waiting for the user or the operating system make this call cancellable by registering their native work with the {@link CryptorDeadline#currentCall() current call}.
+		 * Once the deadline has passed, only the native work of this call is cancelled, e.g. its prompt is closed. Calls of other callers are not affected.
+		 *
+		 * @param cleartext      The cleartext to encrypt.
+		 * @param additionalData Additional data fed into the encryption.
+		 * @param timeout        The maximum time to wait or {@link Duration#ZERO} to wait indefinitely.
+		 * @return The ciphertext or {@code null} if encryption failed.
+		 * @throws CryptorTimeoutException if encryption did not complete in time
+		 * @throws KeychainAccessException if the calling thread is interrupted while waiting
+		 */
+		default byte[] encrypt(byte[] cleartext, byte[] additionalData, Duration timeout) throws KeychainAccessException {
+			return CryptorDeadline.call(timeout, () -> encrypt(cleartext, additionalData), CryptorDeadline::zero);
+		}
+
+		/**
+		 * Decrypts the given ciphertext like {@link #decrypt(byte[], byte[])}, but waits for at most the given timeout, see {@link CryptorDeadline}.
+		 * Like {@link #encrypt(byte[], byte[], Duration)}, cancellation after the deadline only affects this call.
+		 *
+		 * @param ciphertext     The ciphertext to decrypt.
+		 * @param additionalData Additional data fed into decryption.
+		 * @param timeout        The maximum time to wait or {@link Duration#ZERO} to wait indefinitely.
+		 * @return The cleartext or {@code null} if decryption failed. The cleartext of a call, which did not complete in time, is zeroed.
+		 * @throws CryptorTimeoutException if decryption did not complete in time
+		 * @throws KeychainAccessException if the calling thread is interrupted while waiting
+		 */
+		default byte[] decrypt(byte[] ciphertext, byte[] additionalData, Duration timeout) throws KeychainAccessException {
+			return CryptorDeadline.call(timeout, () -> decrypt(ciphertext, additionalData), CryptorDeadline::zero);
+		}
+
+		/**
+		 * Initializes expensive resources, e.g. native libraries.
+		 * All other methods initialize them on demand, hence calling this method in advance is optional.
+		 */
+		default void preload() {
+			//no-op
+		}
+
+		/**
+		 * Encrypts several cleartexts at once. Implementations may process them concurrently or in a single native call.
+		 * The caller is responsible for zeroing the cleartext arrays after use.
+		 *
+		 * @param cleartexts     The cleartexts to encrypt.
+		 * @param additionalData Additional data of each cleartext, see {@link #encrypt(byte[], byte[])}.
+		 * @return The ciphertexts in the same order, each {@code null} if its encryption failed.
+		 */
+		default byte[][] encryptAll(byte[][] cleartexts, byte[][] additionalData) {
+			var ciphertexts = new byte[cleartexts.length][];
+			for (int i = 0; i < cleartexts.length; i++) {
+				ciphertexts[i] = encrypt(cleartexts[i], additionalData[i]);
+			}
+			return ciphertexts;
+		}
+
+		/**
+		 * Decrypts several ciphertexts at once. Implementations may process them concurrently or in a single native call.
+		 *
+		 * @param ciphertexts    The ciphertexts to decrypt.
+		 * @param additionalData Additional data of each ciphertext, see {@link #decrypt(byte[], byte[])}.
+		 * @return The cleartexts in the same order, each {@code null} if its decryption failed.
+		 */
+		default byte[][] decryptAll(byte[][] ciphertexts, byte[][] additionalData) {
+			var cleartexts = new byte[ciphertexts.length][];
+			for (int i = 0; i < ciphertexts.length; i++) {
+				cleartexts[i] = decrypt(ciphertexts[i], additionalData[i]);
+			}
+			return cleartexts;
+		}
+
 		boolean isSupported();
 	}
 }
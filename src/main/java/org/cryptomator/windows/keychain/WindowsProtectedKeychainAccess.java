@@ -20,7 +20,7 @@ public final class WindowsProtectedKeychainAccess extends WindowsKeychainAccessB
 
 	//no-arg constructuor required for ServiceLoader
 	public WindowsProtectedKeychainAccess() {
-		super(new FileKeychain(KEYCHAIN_PATHS_PROPERTY),new WinDataProtection());
+		super("WindowsProtectedKeychainAccess", KeychainStorage.create(KEYCHAIN_PATHS_PROPERTY), new MeasuredCryptor("WinDataProtection", new WinDataProtection()));
 	}
 
 }
@@ -0,0 +1,88 @@
+package org.cryptomator.windows.keychain.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps metrics in memory, separately for each component and operation, e.g. to assert on them in tests or to inspect them in a diagnostics view.
+ * <p>
+ * Each operation is counted and its latency is recorded in a {@link LatencyHistogram}, regardless of whether it succeeded. Failures and written bytes are counted in addition.
+ */
+public class InMemoryKeychainMetrics implements KeychainMetricsListener {
+
+	private final ConcurrentMap<Key, Stats> stats = new ConcurrentHashMap<>();
+
+	@Override
+	public void operationCompleted(String component, KeychainOperation operation, long durationNanos, boolean succeeded) {
+		var s = stats(component, operation);
+		s.latencies.record(durationNanos);
+		if (!succeeded) {
+			s.failures.increment();
+		}
+	}
+
+	@Override
+	public void bytesWritten(String component, KeychainOperation operation, long bytes) {
+		stats(component, operation).bytesWritten.add(bytes);
+	}
+
+	private Stats stats(String component, KeychainOperation operation) {
+		return stats.computeIfAbsent(new Key(component, operation), k -> new Stats());
+	}
+
+	/**
+	 * @param component the fixed name of the component, see {@link KeychainMetricsListener}
+	 * @param operation the operation
+	 * @return the latencies of all completed operations, empty if none is recorded
+	 */
+	public LatencyHistogram latencies(String component, KeychainOperation operation) {
+		var s = stats.get(new Key(component, operation));
+		return s != null ? s.latencies : new LatencyHistogram();
+	}
+
+	/**
+	 * @param component the fixed name of the component, see {@link KeychainMetricsListener}
+	 * @param operation the operation
+	 * @return the number of completed operations, including failed ones
+	 */
+	public long count(String component, KeychainOperation operation) {
+		return latencies(component, operation).count();
+	}
+
+	/**
+	 * @param component the fixed name of the component, see {@link KeychainMetricsListener}
+	 * @param operation the operation
+	 * @return the number of failed operations
+	 */
+	public long failures(String component, KeychainOperation operation) {
+		var s = stats.get(new Key(component, operation));
+		return s != null ? s.failures.sum() : 0;
+	}
+
+	/**
+	 * @param component the fixed name of the component, see {@link KeychainMetricsListener}
+	 * @param operation the operation
+	 * @return the total number of bytes written
+	 */
+	public long bytesWritten(String component, KeychainOperation operation) {
+		var s = stats.get(new Key(component, operation));
+		return s != null ? s.bytesWritten.sum() : 0;
+	}
+
+	/**
+	 * Discards all metrics recorded so far.
+	 */
+	public void reset() {
+		stats.clear();
+	}
+
+	private record Key(String component, KeychainOperation operation) {}
+
+	private static class Stats {
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final LongAdder failures = new LongAdder();
+		final LongAdder bytesWritten = new LongAdder();
+	}
+
+}
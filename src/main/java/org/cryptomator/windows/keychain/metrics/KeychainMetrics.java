@@ -0,0 +1,113 @@
+package org.cryptomator.windows.keychain.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Dispatches keychain metrics to the registered {@link KeychainMetricsListener listeners}.
+ * <p>
+ * Listeners provided via the {@link ServiceLoader} are registered on first use. Without any listener, measuring an operation costs a volatile read.
+ * Keychain components measure an operation by calling {@link #start()} before and {@link #completed(String, KeychainOperation, long, boolean)} after it.
+ */
+public final class KeychainMetrics {
+
+	private static final Logger LOG = LoggerFactory.getLogger(KeychainMetrics.class);
+	private static final long DISABLED = 0L;
+
+	private static volatile KeychainMetricsListener[] listeners = loadListeners(); //copy-on-write, guarded by KeychainMetrics.class
+
+	private KeychainMetrics() {
+	}
+
+	private static KeychainMetricsListener[] loadListeners() {
+		var loaded = new ArrayList<KeychainMetricsListener>();
+		try {
+			ServiceLoader.load(KeychainMetricsListener.class, KeychainMetrics.class.getClassLoader()).forEach(loaded::add);
+		} catch (ServiceConfigurationError e) {
+			LOG.warn("Failed to load keychain metrics listeners.", e);
+		}
+		return loaded.toArray(KeychainMetricsListener[]::new);
+	}
+
+	/**
+	 * Registers a listener in addition to the ones provided via the {@link ServiceLoader}.
+	 *
+	 * @param listener the listener to add
+	 */
+	public static synchronized void addListener(KeychainMetricsListener listener) {
+		var extended = Arrays.copyOf(listeners, listeners.length + 1);
+		extended[listeners.length] = listener;
+		listeners = extended;
+	}
+
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public static synchronized void removeListener(KeychainMetricsListener listener) {
+		listeners = Arrays.stream(listeners).filter(l -> l != listener).toArray(KeychainMetricsListener[]::new);
+	}
+
+	/**
+	 * @return the registered listeners
+	 */
+	public static List<KeychainMetricsListener> listeners() {
+		return List.of(listeners);
+	}
+
+	/**
+	 * Starts measuring an operation.
+	 *
+	 * @return the start time to pass to {@link #completed(String, KeychainOperation, long, boolean)}
+	 */
+	public static long start() {
+		return listeners.length == 0 ? DISABLED : System.nanoTime();
+	}
+
+	/**
+	 * Reports a completed operation to all listeners.
+	 *
+	 * @param component the fixed name of the component, which performed the operation, see {@link KeychainMetricsListener}
+	 * @param operation the operation
+	 * @param start     the value returned by {@link #start()} before the operation. Nothing is reported, if no listener was registered at that time.
+	 * @param succeeded {@code false}, if the operation failed
+	 */
+	public static void completed(String component, KeychainOperation operation, long start, boolean succeeded) {
+		if (start == DISABLED) {
+			return;
+		}
+		long duration = System.nanoTime() - start;
+		for (var listener : listeners) {
+			try {
+				listener.operationCompleted(component, operation, duration, succeeded);
+			} catch (RuntimeException e) {
+				LOG.warn("Keychain metrics listener failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * Reports bytes written by an operation to all listeners.
+	 *
+	 * @param component the fixed name of the component, which performed the operation, see {@link KeychainMetricsListener}
+	 * @param operation the operation
+	 * @param bytes     the number of bytes written
+	 */
+	public static void bytesWritten(String component, KeychainOperation operation, long bytes) {
+		for (var listener : listeners) {
+			try {
+				listener.bytesWritten(component, operation, bytes);
+			} catch (RuntimeException e) {
+				LOG.warn("Keychain metrics listener failed.", e);
+			}
+		}
+	}
+
+}
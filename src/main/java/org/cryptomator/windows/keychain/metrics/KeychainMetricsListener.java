@@ -0,0 +1,42 @@
+package org.cryptomator.windows.keychain.metrics;
+
+/**
+ * Receives latencies, failures and written bytes of keychain operations.
+ * <p>
+ * Implementations are discovered with the {@link java.util.ServiceLoader} or added with {@link KeychainMetrics#addListener(KeychainMetricsListener)}.
+ * They are called synchronously on the thread completing the operation, possibly concurrently, hence they must be thread-safe and return quickly.
+ * Exceptions thrown by a listener are logged and do not affect the operation.
+ * <p>
+ * Operations are reported under fixed component names, which are kept stable across releases:
+ * <ul>
+ *     <li>{@code WindowsProtectedKeychainAccess} and {@code WindowsHelloKeychainAccess}: operations of the keychain access providers</li>
+ *     <li>{@code WinDataProtection} and {@code WindowsHello}: encryption and decryption by the respective cryptor</li>
+ *     <li>{@code FileKeychain}: loading and saving keychain files</li>
+ * </ul>
+ *
+ * @see InMemoryKeychainMetrics
+ */
+public interface KeychainMetricsListener {
+
+	/**
+	 * Called after an operation has completed.
+	 *
+	 * @param component     the fixed name of the component, which performed the operation, e.g. {@code WindowsHello} or {@code FileKeychain}
+	 * @param operation     the operation
+	 * @param durationNanos the duration of the operation in nanoseconds
+	 * @param succeeded     {@code false}, if the operation failed
+	 */
+	void operationCompleted(String component, KeychainOperation operation, long durationNanos, boolean succeeded);
+
+	/**
+	 * Called after an operation has written to disk.
+	 *
+	 * @param component the fixed name of the component, which performed the operation, see {@link KeychainMetricsListener}
+	 * @param operation the operation
+	 * @param bytes     the number of bytes written
+	 */
+	default void bytesWritten(String component, KeychainOperation operation, long bytes) {
+		//no-op
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.cryptomator.windows.keychain.metrics;
+
+/**
+ * Operations reported to a {@link KeychainMetricsListener}.
+ */
+public enum KeychainOperation {
+
+	/**
+	 * A passphrase is stored by a keychain access provider.
+	 */
+	STORE_PASSPHRASE,
+
+	/**
+	 * Several passphrases are stored at once by a keychain access provider.
+	 */
+	STORE_PASSPHRASES,
+
+	/**
+	 * A passphrase is loaded by a keychain access provider. Succeeds as well, if the passphrase is not found.
+	 */
+	LOAD_PASSPHRASE,
+
+	/**
+	 * Several passphrases are loaded at once by a keychain access provider.
+	 */
+	LOAD_PASSPHRASES,
+
+	/**
+	 * A passphrase is changed by a keychain access provider.
+	 */
+	CHANGE_PASSPHRASE,
+
+	/**
+	 * A passphrase is deleted by a keychain access provider.
+	 */
+	DELETE_PASSPHRASE,
+
+	/**
+	 * All entries of a keychain are re-encrypted.
+	 */
+	REKEY,
+
+	/**
+	 * A single cleartext is encrypted by the operating system, e.g. by the data protection API or Windows Hello. Fails, if no ciphertext is returned.
+	 */
+	ENCRYPT,
+
+	/**
+	 * A single ciphertext is decrypted by the operating system. Fails, if no cleartext is returned, e.g. as the user cancelled a prompt.
+	 */
+	DECRYPT,
+
+	/**
+	 * A batch of cleartexts is encrypted by the operating system.
+	 */
+	ENCRYPT_BATCH,
+
+	/**
+	 * A batch of ciphertexts is decrypted by the operating system.
+	 */
+	DECRYPT_BATCH,
+
+	/**
+	 * A keychain file is read.
+	 */
+	KEYCHAIN_LOAD,
+
+	/**
+	 * A keychain file is written. Reports the {@link KeychainMetricsListener#bytesWritten(String, KeychainOperation, long) bytes written}.
+	 */
+	KEYCHAIN_SAVE
+}
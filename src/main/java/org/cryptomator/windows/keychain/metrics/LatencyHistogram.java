@@ -0,0 +1,111 @@
+package org.cryptomator.windows.keychain.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds with logarithmically sized buckets, similar to an HdrHistogram.
+ * <p>
+ * Values below {@value SUB_BUCKETS} are counted exactly. Above, each power of two is divided into {@value HALF_SUB_BUCKETS} buckets of equal width,
+ * hence a value is recorded with a relative error below 1/{@value HALF_SUB_BUCKETS} (about 1.6 %), while the histogram has a fixed size of 16 KiB.
+ * Values beyond {@value HIGHEST_TRACKABLE_VALUE} ns (about two minutes) are counted in the last bucket, but are still taken into account by {@link #max()} and {@link #mean()}.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	private static final long HIGHEST_TRACKABLE_VALUE = (1L << 37) - 1;
+	private static final int BUCKETS = indexOf(HIGHEST_TRACKABLE_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos the latency in nanoseconds. Negative values are recorded as {@code 0}.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(Math.min(value, HIGHEST_TRACKABLE_VALUE)));
+		count.increment();
+		sum.add(value);
+		long currentMax;
+		while ((currentMax = max.get()) < value && !max.compareAndSet(currentMax, value)) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the highest recorded latency in nanoseconds or {@code 0}, if none is recorded
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * @return the arithmetic mean of all recorded latencies in nanoseconds or {@code 0}, if none is recorded
+	 */
+	public double mean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Computes the latency, which the given percentage of recorded latencies does not exceed.
+	 *
+	 * @param percentile the percentile between {@code 0} and {@code 100}, e.g. {@code 99.9}
+	 * @return the highest latency in nanoseconds, which is equivalent to the percentile within the precision of this histogram, or {@code 0}, if none is recorded
+	 */
+	public long valueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+		}
+		var snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long cumulated = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulated += snapshot[i];
+			if (cumulated >= rank) {
+				return Math.min(highestEquivalentValue(i), max());
+			}
+		}
+		return 0;
+	}
+
+	//visible for testing
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1); //at least 1
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+	}
+
+	//visible for testing
+	static long highestEquivalentValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -2,6 +2,11 @@
 #include <windows.h>
 #include <wincrypt.h>
 #include "org_cryptomator_windows_keychain_WinDataProtection_Native.h"
+#include <algorithm>
+#include <atomic>
+#include <system_error>
+#include <thread>
+#include <vector>
 
 JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_protect(JNIEnv *env, jobject thisObj, jbyteArray cleartext, jbyteArray salt) {
   DATA_BLOB cleartextBlob;
@@ -26,6 +31,32 @@ JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtec
   }
 }
 
+JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_protectBuffer(JNIEnv *env, jobject thisObj, jobject cleartext, jbyteArray salt) {
+  DATA_BLOB cleartextBlob;
+  cleartextBlob.pbData = (BYTE *) env->GetDirectBufferAddress(cleartext);
+  cleartextBlob.cbData = (DWORD) env->GetDirectBufferCapacity(cleartext);
+  if (cleartextBlob.pbData == NULL && cleartextBlob.cbData != 0) {
+    return NULL; // not a direct buffer
+  }
+  DATA_BLOB saltBlob;
+  saltBlob.pbData = (BYTE *) env->GetByteArrayElements(salt, JNI_FALSE);
+  saltBlob.cbData = (DWORD) env->GetArrayLength(salt);
+
+  DATA_BLOB ciphertextBlob;
+  BOOL success = CryptProtectData(&cleartextBlob, NULL, &saltBlob, NULL, NULL, 0, &ciphertextBlob);
+
+  env->ReleaseByteArrayElements(salt, (jbyte*) saltBlob.pbData, JNI_ABORT);
+
+  if (success) {
+    jbyteArray ciphertext = env->NewByteArray(ciphertextBlob.cbData);
+    env->SetByteArrayRegion(ciphertext, 0, ciphertextBlob.cbData, (jbyte *) ciphertextBlob.pbData);
+    LocalFree(ciphertextBlob.pbData);
+    return ciphertext;
+  } else {
+    return NULL;
+  }
+}
+
 JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_unprotect(JNIEnv *env, jobject thisObj, jbyteArray ciphertext, jbyteArray salt) {
   DATA_BLOB ciphertextBlob;
   ciphertextBlob.pbData = (BYTE *) env->GetByteArrayElements(ciphertext, JNI_FALSE);
@@ -47,4 +78,150 @@ JNIEXPORT jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtec
   } else {
     return NULL;
   }
-}
\ No newline at end of file
+}
+
+struct DataProtectionJob {
+  std::vector<BYTE> input;
+  std::vector<BYTE> salt;
+  std::vector<BYTE> output;
+  BOOL success = FALSE;
+};
+
+static std::vector<BYTE> copyByteArray(JNIEnv *env, jbyteArray array) {
+  jsize length = env->GetArrayLength(array);
+  std::vector<BYTE> result(length);
+  env->GetByteArrayRegion(array, 0, length, (jbyte *) result.data());
+  return result;
+}
+
+static void runJob(DataProtectionJob &job, bool protect) {
+  DATA_BLOB inputBlob;
+  inputBlob.pbData = job.input.data();
+  inputBlob.cbData = (DWORD) job.input.size();
+  DATA_BLOB saltBlob;
+  saltBlob.pbData = job.salt.data();
+  saltBlob.cbData = (DWORD) job.salt.size();
+
+  DATA_BLOB outputBlob;
+  job.success = protect
+    ? CryptProtectData(&inputBlob, NULL, &saltBlob, NULL, NULL, 0, &outputBlob)
+    : CryptUnprotectData(&inputBlob, NULL, &saltBlob, NULL, NULL, 0, &outputBlob);
+  if (job.success) {
+    job.output.assign(outputBlob.pbData, outputBlob.pbData + outputBlob.cbData);
+    SecureZeroMemory(outputBlob.pbData, outputBlob.cbData);
+    LocalFree(outputBlob.pbData);
+  }
+  SecureZeroMemory(job.input.data(), job.input.size());
+}
+
+// Looked up once, as FindClass is expensive. Racing threads create the same global reference, only one of them is kept.
+static jclass byteArrayClass(JNIEnv *env) {
+  static std::atomic<jclass> cached{NULL};
+  jclass result = cached.load();
+  if (result == NULL) {
+    jclass local = env->FindClass("[B");
+    if (local == NULL) {
+      return NULL; // exception pending
+    }
+    result = (jclass) env->NewGlobalRef(local);
+    env->DeleteLocalRef(local);
+    if (result == NULL) {
+      return NULL; // exception pending
+    }
+    jclass expected = NULL;
+    if (!cached.compare_exchange_strong(expected, result)) {
+      env->DeleteGlobalRef(result);
+      result = expected;
+    }
+  }
+  return result;
+}
+
+// Wipes all secrets copied out of the JVM, if the jobs are abandoned due to a pending exception.
+static jobjectArray abandonJobs(std::vector<DataProtectionJob> &jobs) {
+  for (auto &job : jobs) {
+    SecureZeroMemory(job.input.data(), job.input.size());
+    SecureZeroMemory(job.output.data(), job.output.size());
+  }
+  return NULL;
+}
+
+// Copies all blobs out of the JVM, runs DPAPI on as many threads as there are cores and copies the results back.
+// DPAPI is thread-safe and the worker threads never touch the JNIEnv.
+// Both arrays are expected to have the same length and no null elements, which the caller checks.
+static jobjectArray runJobs(JNIEnv *env, jobjectArray inputs, jobjectArray salts, bool protect) {
+  jclass resultClass = byteArrayClass(env);
+  if (resultClass == NULL) {
+    return NULL;
+  }
+  jsize count = env->GetArrayLength(inputs);
+  std::vector<DataProtectionJob> jobs(count);
+  for (jsize i = 0; i < count; i++) {
+    jbyteArray input = (jbyteArray) env->GetObjectArrayElement(inputs, i);
+    if (env->ExceptionCheck()) {
+      return abandonJobs(jobs);
+    }
+    jbyteArray salt = (jbyteArray) env->GetObjectArrayElement(salts, i);
+    if (env->ExceptionCheck()) {
+      env->DeleteLocalRef(input);
+      return abandonJobs(jobs);
+    }
+    if (input == NULL || salt == NULL) {
+      env->DeleteLocalRef(input);
+      env->DeleteLocalRef(salt);
+      env->ThrowNew(env->FindClass("java/lang/NullPointerException"), "null element");
+      return abandonJobs(jobs);
+    }
+    jobs[i].input = copyByteArray(env, input);
+    jobs[i].salt = copyByteArray(env, salt);
+    env->DeleteLocalRef(input);
+    env->DeleteLocalRef(salt);
+  }
+
+  std::atomic<size_t> next{0};
+  auto work = [&jobs, &next, protect]() {
+    for (size_t i = next++; i < jobs.size(); i = next++) {
+      runJob(jobs[i], protect);
+    }
+  };
+  size_t workerCount = (std::min)(jobs.size(), (size_t) (std::max)(1u, std::thread::hardware_concurrency())); // parenthesized, as windows.h defines min and max macros
+  std::vector<std::thread> workers;
+  for (size_t i = 1; i < workerCount; i++) {
+    try {
+      workers.emplace_back(work);
+    } catch (const std::system_error &) {
+      break; // remaining jobs are processed by the existing threads
+    }
+  }
+  work();
+  for (auto &worker : workers) {
+    worker.join();
+  }
+
+  jobjectArray results = env->NewObjectArray(count, resultClass, NULL);
+  if (env->ExceptionCheck()) {
+    return abandonJobs(jobs);
+  }
+  for (jsize i = 0; i < count; i++) {
+    if (jobs[i].success) {
+      jbyteArray output = env->NewByteArray((jsize) jobs[i].output.size());
+      if (env->ExceptionCheck()) {
+        env->DeleteLocalRef(results);
+        return abandonJobs(jobs);
+      }
+      env->SetByteArrayRegion(output, 0, (jsize) jobs[i].output.size(), (jbyte *) jobs[i].output.data());
+      env->SetObjectArrayElement(results, i, output);
+      env->DeleteLocalRef(output);
+    }
+    SecureZeroMemory(jobs[i].output.data(), jobs[i].output.size());
+  }
+  return results;
+}
+
+JNIEXPORT jobjectArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_protectAll(JNIEnv *env, jobject thisObj, jobjectArray cleartexts, jobjectArray salts) {
+  return runJobs(env, cleartexts, salts, true);
+}
+
+JNIEXPORT jobjectArray JNICALL Java_org_cryptomator_windows_keychain_WinDataProtection_00024Native_unprotectAll(JNIEnv *env, jobject thisObj, jobjectArray ciphertexts, jobjectArray salts) {
+  return runJobs(env, ciphertexts, salts, false);
+}
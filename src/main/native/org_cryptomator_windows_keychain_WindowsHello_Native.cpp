@@ -16,6 +16,7 @@
 #include <stdexcept>
 #include <iostream>
 #include <atomic>
+#include <algorithm>
 
 using namespace winrt;
 using namespace Windows::Security::Credentials;
@@ -26,6 +27,15 @@ using namespace Windows::Storage::Streams;
 static std::atomic<int> g_promptFocusCount{ 0 };
 static std::mutex cacheMutex;
 static std::unordered_map<std::wstring, std::vector<uint8_t>> keyCache;
+// A call started by Native.begin(), whose operations possibly waiting for the user are cancelled by Native.cancel(callId)
+struct PendingCall {
+    bool cancelled = false;
+    std::vector<Windows::Foundation::IAsyncInfo> operations;
+};
+static constexpr jlong NOT_CANCELLABLE = org_cryptomator_windows_keychain_WindowsHello_Native_NOT_CANCELLABLE;
+static std::mutex pendingMutex;
+static jlong lastCallId = NOT_CANCELLABLE; // guarded by pendingMutex
+static std::unordered_map<jlong, PendingCall> pendingCalls; // guarded by pendingMutex, calls between Native.begin() and Native.end()
 static constexpr auto HKDF_INFO = L"org.cryptomator.windows.keychain.windowsHello";
 static constexpr auto HELLO_CHALLENGE = L"Cryptobot_says:Thank_you,_purejava!";
 
@@ -147,18 +157,50 @@ IBuffer DeriveKeyUsingHKDF(const IBuffer& inputData, const IBuffer& salt) {
 }
 
 
+// Waits for the operation, which can be cancelled meanwhile by another thread cancelling the given call. A cancelled operation throws winrt::hresult_canceled.
+template <typename TOperation>
+auto awaitCancellable(const TOperation& operation, jlong callId) {
+    if (callId == NOT_CANCELLABLE) {
+        return operation.get();
+    }
+    const Windows::Foundation::IAsyncInfo info = operation;
+    {
+        std::lock_guard<std::mutex> lock(pendingMutex);
+        auto call = pendingCalls.find(callId);
+        if (call == pendingCalls.end() || call->second.cancelled) {
+            info.Cancel();
+            throw winrt::hresult_canceled();
+        }
+        call->second.operations.push_back(info);
+    }
+    struct Unregister {
+        const Windows::Foundation::IAsyncInfo& info;
+        jlong callId;
+        ~Unregister() {
+            std::lock_guard<std::mutex> lock(pendingMutex);
+            auto call = pendingCalls.find(callId);
+            if (call != pendingCalls.end()) {
+                auto& operations = call->second.operations;
+                operations.erase(std::remove(operations.begin(), operations.end(), info), operations.end());
+            }
+        }
+    } unregister{ info, callId };
+    return operation.get();
+}
+
+
 // Sign the fixed challenge with the user's Windows Hello credentials
-IBuffer getSignature(const std::wstring& keyId) {
-    auto result = KeyCredentialManager::RequestCreateAsync(keyId, KeyCredentialCreationOption::FailIfExists).get();
+IBuffer getSignature(const std::wstring& keyId, jlong callId) {
+    auto result = awaitCancellable(KeyCredentialManager::RequestCreateAsync(keyId, KeyCredentialCreationOption::FailIfExists), callId);
 
     if (result.Status() == KeyCredentialStatus::CredentialAlreadyExists) {
-        result = KeyCredentialManager::OpenAsync(keyId).get();
+        result = awaitCancellable(KeyCredentialManager::OpenAsync(keyId), callId);
     } else if (result.Status() != KeyCredentialStatus::Success) {
         throw std::runtime_error("Failed to retrieve WindowsHello credential. Error code: " + std::to_string(GetLastError()) );
     }
 
     auto challengeBuffer = CryptographicBuffer::ConvertStringToBinary(HELLO_CHALLENGE, BinaryStringEncoding::Utf16LE);
-    const auto signature = result.Credential().RequestSignAsync(challengeBuffer).get();
+    const auto signature = awaitCancellable(result.Credential().RequestSignAsync(challengeBuffer), callId);
 
     if (signature.Status() != KeyCredentialStatus::Success) {
         if (signature.Status() != KeyCredentialStatus::UserCanceled) {
@@ -172,7 +214,7 @@ IBuffer getSignature(const std::wstring& keyId) {
 }
 
 
-IBuffer getOrCreateKey(const std::wstring& keyId, IBuffer salt) {
+IBuffer getOrCreateKey(const std::wstring& keyId, IBuffer salt, jlong callId) {
     IBuffer signature;
     bool foundInCache = false;
     {
@@ -188,7 +230,7 @@ IBuffer getOrCreateKey(const std::wstring& keyId, IBuffer salt) {
         }
     }
     if (!foundInCache) {
-        signature = getSignature(keyId);
+        signature = getSignature(keyId, callId);
         auto copyToProtect = iBufferToVector(signature);
         // cache
         try {
@@ -250,6 +292,7 @@ jboolean JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_
  *
  * @param env The JNI environment pointer.
  * @param obj The Java object instance.
+ * @param callId The id returned by {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_begin begin}, by which the call can be cancelled, or 0 if not cancellable.
  * @param keyId The identifier for the key credential used for key derivation.
  * @param cleartext The data to encrypt.
  * @param salt The salt to use for key derivation.
@@ -266,7 +309,7 @@ jboolean JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_
  * @note This function is designed to be called from Java via JNI and requires the appropriate Java class and method signatures.
  */
 jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_encrypt
-(JNIEnv* env, jobject obj, jbyteArray keyId, jbyteArray cleartext, jbyteArray salt) {
+(JNIEnv* env, jobject obj, jlong callId, jbyteArray keyId, jbyteArray cleartext, jbyteArray salt) {
     queueSecurityPromptFocus();
     std::vector<uint8_t> cleartextVec = jbyteArrayToVector(env, cleartext);
     try {
@@ -279,7 +322,7 @@ jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Nativ
         auto toReleaseKeyId = (LPCWSTR)env->GetByteArrayElements(keyId, NULL);
         const std::wstring keyIdentifier(toReleaseKeyId);
         env->ReleaseByteArrayElements(keyId, (jbyte*) toReleaseKeyId, JNI_ABORT);
-        IBuffer keyMaterial = getOrCreateKey(keyIdentifier, saltBuffer);
+        IBuffer keyMaterial = getOrCreateKey(keyIdentifier, saltBuffer, callId);
 
         //encrypt
         auto ivBuffer = CryptographicBuffer::GenerateRandom(16); // 128-bit IV for AES-CBC
@@ -312,6 +355,10 @@ jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Nativ
         SecureZeroMemory(cleartextVec.data(), cleartextVec.size());
         return vectorToJbyteArray(env, output);
     }
+    catch (winrt::hresult_canceled const&) {
+        SecureZeroMemory(cleartextVec.data(), cleartextVec.size());
+        return NULL; //cancelled after the deadline
+    }
     catch (winrt::hresult_error const& hre) {
         SecureZeroMemory(cleartextVec.data(), cleartextVec.size());
         HRESULT hr = hre.code();
@@ -340,6 +387,7 @@ jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Nativ
  *
  * @param env The JNI environment pointer.
  * @param obj The Java object instance.
+ * @param callId The id returned by {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_begin begin}, by which the call can be cancelled, or 0 if not cancellable.
  * @param keyId The identifier for the key credential used for key derivation.
  * @param cleartext The data to decrypt.
  * @param salt The salt to use for key derivation.
@@ -357,7 +405,7 @@ jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Nativ
  * @note This function is designed to be called from Java via JNI and requires the appropriate Java class and method signatures.
  */
 jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_decrypt
-(JNIEnv* env, jobject obj, jbyteArray keyId, jbyteArray ciphertext, jbyteArray salt) {
+(JNIEnv* env, jobject obj, jlong callId, jbyteArray keyId, jbyteArray ciphertext, jbyteArray salt) {
     queueSecurityPromptFocus();
     try {
         // Convert Java byte arrays to C++ vectors
@@ -377,7 +425,7 @@ jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Nativ
         // Create the keyMaterial with Windows Hello
         auto toReleaseKeyId = (LPCWSTR)env->GetByteArrayElements(keyId, NULL);
         const std::wstring keyIdentifier(toReleaseKeyId);
-        IBuffer keyMaterial = getOrCreateKey(keyIdentifier, saltBuffer);
+        IBuffer keyMaterial = getOrCreateKey(keyIdentifier, saltBuffer, callId);
 
         // Split the input data
         std::vector<uint8_t> iv(ciphertextVec.begin(), ciphertextVec.begin() + ivSize);
@@ -417,6 +465,9 @@ jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Nativ
         }
         return decryptedArray;
     }
+    catch (winrt::hresult_canceled const&) {
+        return NULL; //cancelled after the deadline
+    }
     catch (winrt::hresult_error const& hre) {
         HRESULT hr = hre.code();
         winrt::hstring message = hre.message();
@@ -435,3 +486,68 @@ jbyteArray JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Nativ
         return NULL;
     }
 }
+
+/**
+ * Starts a cancellable call of {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_encrypt encrypt} or
+ * {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_decrypt decrypt}.
+ *
+ * @param env The JNI environment pointer.
+ * @param obj The Java object instance.
+ * @return The id of the call, which must be passed to {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_end end} after use.
+ *
+ * @note This function is designed to be called from Java via JNI and requires the appropriate Java class and method signatures.
+ */
+jlong JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_begin
+(JNIEnv* env, jobject obj) {
+    std::lock_guard<std::mutex> lock(pendingMutex);
+    const jlong callId = ++lastCallId;
+    pendingCalls.emplace(callId, PendingCall{});
+    return callId;
+}
+
+/**
+ * Ends a call started by {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_begin begin}. Cancelling it afterwards has no effect.
+ *
+ * @param env The JNI environment pointer.
+ * @param obj The Java object instance.
+ * @param callId The id of the call.
+ *
+ * @note This function is designed to be called from Java via JNI and requires the appropriate Java class and method signatures.
+ */
+void JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_end
+(JNIEnv* env, jobject obj, jlong callId) {
+    std::lock_guard<std::mutex> lock(pendingMutex);
+    pendingCalls.erase(callId);
+}
+
+/**
+ * Cancels the pending Windows Hello operations of a single call, e.g. a prompt left open by the user.
+ *
+ * @param env The JNI environment pointer.
+ * @param obj The Java object instance.
+ * @param callId The id of the call returned by {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_begin begin}.
+ *
+ * The call of {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_encrypt encrypt} or
+ * {@link Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_decrypt decrypt} made with this id returns NULL afterwards, even if it has not reached its prompt yet.
+ * Operations of other calls and operations already completed are not affected.
+ *
+ * @note This function is designed to be called from Java via JNI and requires the appropriate Java class and method signatures.
+ */
+void JNICALL Java_org_cryptomator_windows_keychain_WindowsHello_00024Native_cancel
+(JNIEnv* env, jobject obj, jlong callId) {
+    std::lock_guard<std::mutex> lock(pendingMutex);
+    auto call = pendingCalls.find(callId);
+    if (call == pendingCalls.end()) {
+        return; //ended already
+    }
+    call->second.cancelled = true;
+    for (auto& operation : call->second.operations) {
+        try {
+            operation.Cancel();
+        }
+        catch (winrt::hresult_error const& hre) {
+            HRESULT hr = hre.code();
+            std::cerr << "Error: " << winrt::to_string(hre.message()) << " (HRESULT: 0x" << std::hex << hr << ")" << std::endl;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.cryptomator.windows.common;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class NativeLibLoaderTest {
+
+	@Test
+	@DisplayName("Loading the library emits a JFR event")
+	@DisabledOnOs(value = OS.WINDOWS, disabledReason = "The library is loaded once per JVM, possibly by another test")
+	public void testLoadLibEvent() {
+		var events = new CopyOnWriteArrayList<RecordedEvent>();
+		try (var stream = new RecordingStream()) {
+			stream.enable("org.cryptomator.windows.common.NativeLibLoad");
+			stream.onEvent("org.cryptomator.windows.common.NativeLibLoad", events::add);
+			stream.startAsync();
+			NativeLibLoader.loadLib(); //fails, as the library is not built on this platform
+			stream.stop();
+		}
+
+		Assertions.assertEquals(1, events.size());
+		Assertions.assertTrue(events.getFirst().getString("library").endsWith(".dll"));
+		Assertions.assertFalse(events.getFirst().getBoolean("succeeded"));
+	}
+
+}
@@ -1,5 +1,7 @@
 package org.cryptomator.windows.common;
 
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.MethodOrderer;
@@ -7,6 +9,8 @@ import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import static org.cryptomator.windows.capi.common.Windows_h.ERROR_FILE_NOT_FOUND;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -73,6 +77,28 @@ public class WindowsRegistryIT {
 		}
 	}
 
+	@Test
+	@DisplayName("Transactions emit a JFR event with the number of keys touched")
+	@Order(1)
+	public void testTransactionEvent() throws WindowsException {
+		var events = new CopyOnWriteArrayList<RecordedEvent>();
+		try (var stream = new RecordingStream()) {
+			stream.enable("org.cryptomator.windows.common.RegistryTransaction");
+			stream.onEvent("org.cryptomator.windows.common.RegistryTransaction", events::add);
+			stream.startAsync();
+			try (var t = WindowsRegistry.startTransaction()) {
+				t.deleteRegKey(RegistryKey.HKEY_CURRENT_USER, "i\\do\\not\\exist", true);
+				t.deleteRegKey(RegistryKey.HKEY_CURRENT_USER, "i\\do\\not\\exist\\either", true);
+				t.commit();
+			}
+			stream.stop();
+		}
+
+		Assertions.assertEquals(1, events.size());
+		Assertions.assertEquals(2, events.getFirst().getInt("keysTouched"));
+		Assertions.assertTrue(events.getFirst().getBoolean("committed"));
+	}
+
 	// sequence required tests
 
 	@Test
@@ -0,0 +1,68 @@
+package org.cryptomator.windows.keychain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class AtomicFilesTest {
+
+	@TempDir
+	Path tmpDir;
+
+	@ParameterizedTest
+	@DisplayName("File is written with every durability level and no temporary file remains")
+	@EnumSource(Durability.class)
+	public void testWrite(Durability durability) throws IOException {
+		var target = tmpDir.resolve("keychain.json");
+
+		var written = AtomicFiles.write(target, durability, ByteBuffer.wrap("foo".getBytes(UTF_8)), ByteBuffer.wrap("bar".getBytes(UTF_8)));
+
+		Assertions.assertEquals(6, written);
+		Assertions.assertEquals("foobar", Files.readString(target, UTF_8));
+		Assertions.assertTrue(Files.notExists(AtomicFiles.tmpFileOf(target)));
+	}
+
+	@Test
+	@DisplayName("Existing file and leftovers of an interrupted write are replaced")
+	public void testReplace() throws IOException {
+		var target = tmpDir.resolve("keychain.json");
+		Files.writeString(target, "old content");
+		Files.writeString(AtomicFiles.tmpFileOf(target), "half-written garbage from a crash");
+
+		AtomicFiles.write(target, Durability.DATA, ByteBuffer.wrap("new".getBytes(UTF_8)));
+
+		Assertions.assertEquals("new", Files.readString(target, UTF_8));
+		Assertions.assertTrue(Files.notExists(AtomicFiles.tmpFileOf(target)));
+	}
+
+	@Test
+	@DisplayName("Failing write leaves the target untouched")
+	public void testFailingWrite() throws IOException {
+		var target = tmpDir.resolve("keychain.json");
+		Files.writeString(target, "old content");
+		Files.createDirectory(AtomicFiles.tmpFileOf(target)); //makes opening the temporary file fail
+
+		Assertions.assertThrows(IOException.class, () -> AtomicFiles.write(target, Durability.NONE, ByteBuffer.wrap("new".getBytes(UTF_8))));
+		Assertions.assertEquals("old content", Files.readString(target, UTF_8));
+	}
+
+	@Test
+	@DisplayName("Missing parent directory fails")
+	public void testMissingParent() {
+		var target = tmpDir.resolve("foo/keychain.json");
+
+		Assertions.assertThrows(NoSuchFileException.class, () -> AtomicFiles.write(target, Durability.NONE, ByteBuffer.wrap(new byte[1])));
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.cryptomator.windows.keychain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+public class BinaryKeychainFormatTest {
+
+	private static final Map<String, KeychainEntry> CONTENT = Map.of( //
+			"cryptomator-device-p12", new KeychainEntry("foobar".getBytes(), "saltySalt".getBytes()), //
+			"äd3", new KeychainEntry("iAmAWalrus".getBytes(), "surlaw".getBytes()), //
+			"empty", new KeychainEntry(new byte[0], new byte[0]));
+
+	private static byte[] concat(ByteBuffer[] buffers) {
+		var out = new ByteArrayOutputStream();
+		for (var buf : buffers) {
+			var bytes = new byte[buf.remaining()];
+			buf.get(bytes);
+			out.writeBytes(bytes);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	@DisplayName("Encoded keychain can be read again")
+	public void testRoundTrip() throws MalformedKeychainException {
+		var encoded = concat(BinaryKeychainFormat.encode(CONTENT));
+
+		var result = BinaryKeychainFormat.read(MemorySegment.ofArray(encoded));
+
+		Assertions.assertEquals(CONTENT, result);
+	}
+
+	@Test
+	@DisplayName("Empty keychain can be read again")
+	public void testEmpty() throws MalformedKeychainException {
+		var encoded = concat(BinaryKeychainFormat.encode(Map.of()));
+
+		var result = BinaryKeychainFormat.read(MemorySegment.ofArray(encoded));
+
+		Assertions.assertTrue(result.isEmpty());
+	}
+
+	@ParameterizedTest
+	@DisplayName("Truncated keychain is rejected")
+	@ValueSource(ints = {0, 3, 11, 12, 20, 1})
+	public void testTruncated(int cutOff) {
+		var encoded = concat(BinaryKeychainFormat.encode(CONTENT));
+		var truncated = Arrays.copyOf(encoded, cutOff == 1 ? encoded.length - 1 : cutOff);
+
+		Assertions.assertThrows(MalformedKeychainException.class, () -> BinaryKeychainFormat.read(MemorySegment.ofArray(truncated)));
+	}
+
+	@Test
+	@DisplayName("Trailing data is rejected")
+	public void testTrailingData() {
+		var encoded = concat(BinaryKeychainFormat.encode(CONTENT));
+		var extended = Arrays.copyOf(encoded, encoded.length + 1);
+
+		Assertions.assertThrows(MalformedKeychainException.class, () -> BinaryKeychainFormat.read(MemorySegment.ofArray(extended)));
+	}
+
+	@Test
+	@DisplayName("Unknown version is rejected")
+	public void testUnknownVersion() {
+		var encoded = concat(BinaryKeychainFormat.encode(CONTENT));
+		ByteBuffer.wrap(encoded).putInt(Integer.BYTES, BinaryKeychainFormat.VERSION + 1);
+
+		Assertions.assertThrows(MalformedKeychainException.class, () -> BinaryKeychainFormat.read(MemorySegment.ofArray(encoded)));
+	}
+
+}
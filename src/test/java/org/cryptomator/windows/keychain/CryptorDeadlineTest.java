@@ -0,0 +1,169 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CryptorDeadlineTest {
+
+	private static final byte[] SALT = {'s'};
+	private static final Duration TIMEOUT = Duration.ofMillis(100);
+
+	@Test
+	@DisplayName("Without a deadline, the cryptor is called on the caller's thread")
+	public void testNoDeadline() throws Exception {
+		var caller = Thread.currentThread();
+		var cryptor = new BlockingCryptor(false) {
+			@Override
+			public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+				Assertions.assertSame(caller, Thread.currentThread());
+				return ciphertext.clone();
+			}
+		};
+
+		Assertions.assertArrayEquals(new byte[] {'x'}, cryptor.decrypt(new byte[] {'x'}, SALT, Duration.ZERO));
+	}
+
+	@Test
+	@DisplayName("A call completing before the deadline returns its result")
+	public void testInTime() throws Exception {
+		var cryptor = new BlockingCryptor(false);
+		cryptor.release();
+
+		Assertions.assertArrayEquals(new byte[] {'x'}, cryptor.decrypt(new byte[] {'x'}, SALT, TIMEOUT));
+	}
+
+	@Test
+	@DisplayName("A call exceeding the deadline throws promptly and is cancelled, releasing its worker")
+	public void testCancelled() throws InterruptedException {
+		var cryptor = new BlockingCryptor(true);
+
+		long start = System.nanoTime();
+		Assertions.assertThrows(CryptorTimeoutException.class, () -> cryptor.decrypt(new byte[] {'x'}, SALT, TIMEOUT));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		Assertions.assertTrue(elapsed < 2_000, "Took " + elapsed + " ms");
+		Assertions.assertEquals(1, cryptor.cancellations.get());
+		awaitIdleWorkers();
+	}
+
+	@Test
+	@DisplayName("Only the abandoned call is cancelled, while other calls still within their deadline keep running")
+	public void testCancellationScope() throws Exception {
+		var cryptor = new BlockingCryptor(true);
+		var other = CompletableFuture.supplyAsync(() -> {
+			try {
+				return cryptor.decrypt(new byte[] {'y'}, SALT, Duration.ofSeconds(10));
+			} catch (KeychainAccessException e) {
+				throw new CompletionException(e);
+			}
+		}, task -> Thread.ofPlatform().start(task));
+		cryptor.waiting.acquire(); //other call is pending
+
+		Assertions.assertThrows(CryptorTimeoutException.class, () -> cryptor.decrypt(new byte[] {'x'}, SALT, TIMEOUT));
+		cryptor.release();
+
+		Assertions.assertArrayEquals(new byte[] {'y'}, other.get(10, TimeUnit.SECONDS));
+		Assertions.assertEquals(1, cryptor.cancellations.get());
+		awaitIdleWorkers();
+	}
+
+	@Test
+	@DisplayName("The result of an abandoned call, which cannot be cancelled, is zeroed once it returns")
+	public void testAbandoned() throws InterruptedException {
+		var cryptor = new BlockingCryptor(false);
+
+		Assertions.assertThrows(CryptorTimeoutException.class, () -> cryptor.decrypt(new byte[] {'x'}, SALT, TIMEOUT));
+		cryptor.release();
+
+		awaitIdleWorkers();
+		Assertions.assertArrayEquals(new byte[1], cryptor.result.get());
+	}
+
+	@Test
+	@DisplayName("Exceptions of the cryptor are passed to the caller")
+	public void testException() {
+		var cryptor = new BlockingCryptor(false) {
+			@Override
+			public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+				throw new IllegalArgumentException("fail");
+			}
+		};
+
+		var e = Assertions.assertThrows(IllegalArgumentException.class, () -> cryptor.decrypt(new byte[] {'x'}, SALT, TIMEOUT));
+		Assertions.assertEquals("fail", e.getMessage());
+	}
+
+	private static void awaitIdleWorkers() throws InterruptedException {
+		for (int i = 0; i < 100 && CryptorDeadline.busyWorkers() > 0; i++) {
+			Thread.sleep(20);
+		}
+		Assertions.assertEquals(0, CryptorDeadline.busyWorkers());
+	}
+
+	/**
+	 * Returns a copy of the ciphertext as cleartext, but only once released, e.g. by the user closing a prompt.
+	 * If cancellable, each call with a deadline registers with its {@link CryptorDeadline#currentCall() call}. Cancelling a call releases it only, which then returns {@code null}.
+	 */
+	static class BlockingCryptor implements WindowsKeychainAccessBase.PassphraseCryptor {
+
+		final CompletableFuture<Void> released = new CompletableFuture<>();
+		final Semaphore waiting = new Semaphore(0);
+		final AtomicInteger cancellations = new AtomicInteger();
+		final AtomicReference<byte[]> result = new AtomicReference<>();
+		private final boolean cancellable;
+
+		BlockingCryptor(boolean cancellable) {
+			this.cancellable = cancellable;
+		}
+
+		void release() {
+			released.complete(null);
+		}
+
+		@Override
+		public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+			return decrypt(cleartext, additionalData);
+		}
+
+		@Override
+		public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+			var call = cancellable ? CryptorDeadline.currentCall() : null;
+			var cancelled = new CompletableFuture<Void>();
+			if (call != null && !call.register(() -> {
+				cancellations.incrementAndGet();
+				cancelled.complete(null);
+			})) {
+				return null;
+			}
+			try {
+				waiting.release();
+				CompletableFuture.anyOf(released, cancelled).join();
+			} finally {
+				if (call != null) {
+					call.unregister();
+				}
+			}
+			if (cancelled.isDone()) {
+				return null;
+			}
+			result.set(ciphertext.clone());
+			return result.get();
+		}
+
+		@Override
+		public boolean isSupported() {
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.cryptomator.windows.keychain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures the in-JVM part of envelope encryption, i.e. encrypting and decrypting a single entry once the data key is available.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EnvelopeCryptorBenchmark {
+
+	private static final byte[] CLEARTEXT = "correct horse battery staple".getBytes(UTF_8);
+
+	private Path tmpDir;
+	private EnvelopeCryptor cryptor;
+	private byte[] salt;
+	private byte[] ciphertext;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		tmpDir = Files.createTempDirectory("keychain-bench");
+		cryptor = new EnvelopeCryptor(new EnvelopeCryptorTest.FakeOsCryptor(), new FileKeychain(List.of(tmpDir.resolve("keychain.json"))));
+		salt = Util.generateSalt();
+		ciphertext = cryptor.encrypt(CLEARTEXT, salt);
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		try (var files = Files.walk(tmpDir)) {
+			for (var p : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[] encrypt() {
+		return cryptor.encrypt(CLEARTEXT, salt);
+	}
+
+	@Benchmark
+	public byte[] decrypt() {
+		return cryptor.decrypt(ciphertext, salt);
+	}
+
+}
@@ -0,0 +1,193 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class EnvelopeCryptorTest {
+
+	private static final byte[] CLEARTEXT = "correct horse battery staple".getBytes(UTF_8);
+
+	@TempDir
+	Path tmpDir;
+	FileKeychain keychain;
+	FakeOsCryptor osCryptor;
+	EnvelopeCryptor cryptor;
+
+	@BeforeEach
+	public void beforeEach() {
+		keychain = new FileKeychain(List.of(tmpDir.resolve("keychain.json")));
+		osCryptor = spy(new FakeOsCryptor());
+		cryptor = new EnvelopeCryptor(osCryptor, keychain);
+	}
+
+	@Test
+	@DisplayName("Entries are encrypted in the JVM with a single data key protected by the OS cryptor")
+	public void testRoundTrip() throws KeychainAccessException {
+		var salts = List.of(Util.generateSalt(), Util.generateSalt(), Util.generateSalt());
+		var ciphertexts = salts.stream().map(salt -> cryptor.encrypt(CLEARTEXT, salt)).toList();
+
+		var otherInstance = new EnvelopeCryptor(osCryptor, new FileKeychain(List.of(tmpDir.resolve("keychain.json"))));
+		for (int i = 0; i < salts.size(); i++) {
+			Assertions.assertTrue(EnvelopeCryptor.isEnvelope(ciphertexts.get(i)));
+			Assertions.assertArrayEquals(CLEARTEXT, otherInstance.decrypt(ciphertexts.get(i), salts.get(i)));
+		}
+		Assertions.assertNotNull(keychain.get(EnvelopeCryptor.DATA_KEY_ID));
+		verify(osCryptor, times(1)).encrypt(any(), any());
+		verify(osCryptor, times(1)).decrypt(any(), any());
+	}
+
+	@Test
+	@DisplayName("Off-heap cleartexts are encrypted directly")
+	public void testEncryptSegment() {
+		var salt = Util.generateSalt();
+		try (var arena = Arena.ofConfined()) {
+			var cleartext = arena.allocate(CLEARTEXT.length);
+			MemorySegment.copy(CLEARTEXT, 0, cleartext, ValueLayout.JAVA_BYTE, 0, CLEARTEXT.length);
+
+			var ciphertext = cryptor.encryptSegment(cleartext, salt);
+
+			Assertions.assertArrayEquals(CLEARTEXT, cryptor.decrypt(ciphertext, salt));
+		}
+	}
+
+	@Test
+	@DisplayName("Same cleartext and salt result in different ciphertexts")
+	public void testRandomNonce() {
+		var salt = Util.generateSalt();
+		Assertions.assertFalse(Arrays.equals(cryptor.encrypt(CLEARTEXT, salt), cryptor.encrypt(CLEARTEXT, salt)));
+	}
+
+	@Test
+	@DisplayName("Ciphertexts are bound to their salt and tampering is detected")
+	public void testIntegrity() {
+		var salt = Util.generateSalt();
+		var ciphertext = cryptor.encrypt(CLEARTEXT, salt);
+
+		Assertions.assertNull(cryptor.decrypt(ciphertext, Util.generateSalt()));
+		ciphertext[ciphertext.length - 1] ^= 0x01;
+		Assertions.assertNull(cryptor.decrypt(ciphertext, salt));
+	}
+
+	@Test
+	@DisplayName("Entries encrypted by the OS cryptor stay readable")
+	public void testLegacyEntries() {
+		var salt = Util.generateSalt();
+		var legacy = osCryptor.encrypt(CLEARTEXT, salt);
+
+		Assertions.assertArrayEquals(CLEARTEXT, cryptor.decrypt(legacy, salt));
+	}
+
+	@Test
+	@DisplayName("Batch decryption passes only legacy entries to the OS cryptor, in a single call")
+	public void testDecryptAll() {
+		var salts = new byte[][] {Util.generateSalt(), Util.generateSalt(), Util.generateSalt()};
+		var ciphertexts = new byte[][] {cryptor.encrypt(CLEARTEXT, salts[0]), osCryptor.encrypt(CLEARTEXT, salts[1]), cryptor.encrypt(CLEARTEXT, salts[2])};
+
+		var cleartexts = cryptor.decryptAll(ciphertexts, salts);
+
+		for (var cleartext : cleartexts) {
+			Assertions.assertArrayEquals(CLEARTEXT, cleartext);
+		}
+		verify(osCryptor, times(1)).decryptAll(argThat(legacy -> legacy.length == 1 && Arrays.equals(legacy[0], ciphertexts[1])), any());
+	}
+
+	@Test
+	@DisplayName("Decryption without data key fails without creating one")
+	public void testNoDataKey() throws KeychainAccessException {
+		var ciphertext = new EnvelopeCryptor(osCryptor, new FileKeychain(List.of(tmpDir.resolve("other.json")))).encrypt(CLEARTEXT, new byte[0]);
+
+		Assertions.assertNull(cryptor.decrypt(ciphertext, new byte[0]));
+		Assertions.assertNull(keychain.get(EnvelopeCryptor.DATA_KEY_ID));
+	}
+
+	@Test
+	@DisplayName("Encryption fails, if the data key cannot be protected")
+	public void testOsCryptorFails() throws KeychainAccessException {
+		doReturn(null).when(osCryptor).encrypt(any(), any());
+
+		Assertions.assertNull(cryptor.encrypt(CLEARTEXT, Util.generateSalt()));
+		Assertions.assertNull(keychain.get(EnvelopeCryptor.DATA_KEY_ID));
+		verify(osCryptor, never()).decrypt(any(), any());
+	}
+
+	@Test
+	@DisplayName("Cryptors creating a data key concurrently use the one stored first")
+	public void testConcurrentCreation() throws Exception {
+		var paths = List.of(tmpDir.resolve("shared.json"));
+		var settings = FileKeychain.Settings.FOR_TESTING.withShared(true);
+		var bothCreating = new CyclicBarrier(2);
+		var racingOsCryptor = new FakeOsCryptor() {
+			@Override
+			public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+				try {
+					bothCreating.await(10, TimeUnit.SECONDS); //both have found no data key
+				} catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+					throw new IllegalStateException(e);
+				}
+				return super.encrypt(cleartext, additionalData);
+			}
+		};
+		var cryptor1 = new EnvelopeCryptor(racingOsCryptor, new FileKeychain(paths, settings));
+		var cryptor2 = new EnvelopeCryptor(racingOsCryptor, new FileKeychain(paths, settings));
+		var salt = Util.generateSalt();
+
+		var ciphertext1 = CompletableFuture.supplyAsync(() -> cryptor1.encrypt(CLEARTEXT, salt), task -> Thread.ofPlatform().start(task));
+		var ciphertext2 = cryptor2.encrypt(CLEARTEXT, salt);
+
+		var otherInstance = new EnvelopeCryptor(osCryptor, new FileKeychain(paths, settings));
+		Assertions.assertArrayEquals(CLEARTEXT, otherInstance.decrypt(ciphertext1.get(10, TimeUnit.SECONDS), salt));
+		Assertions.assertArrayEquals(CLEARTEXT, otherInstance.decrypt(ciphertext2, salt));
+		Assertions.assertArrayEquals(CLEARTEXT, cryptor1.decrypt(ciphertext2, salt));
+		Assertions.assertArrayEquals(CLEARTEXT, cryptor2.decrypt(ciphertext1.get(), salt));
+	}
+
+	// stands in for the data protection api: prefixes the additional data, which is checked on decryption
+	static class FakeOsCryptor implements WindowsKeychainAccessBase.PassphraseCryptor {
+
+		@Override
+		public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+			var result = Arrays.copyOf(additionalData, additionalData.length + cleartext.length);
+			System.arraycopy(cleartext, 0, result, additionalData.length, cleartext.length);
+			return result;
+		}
+
+		@Override
+		public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+			if (ciphertext.length < additionalData.length || !Arrays.equals(additionalData, Arrays.copyOf(ciphertext, additionalData.length))) {
+				return null;
+			}
+			return Arrays.copyOfRange(ciphertext, additionalData.length, ciphertext.length);
+		}
+
+		@Override
+		public boolean isSupported() {
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a single keychain write for each {@link Durability} level.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileKeychainBenchmark {
+
+	@Param({"NONE", "DATA", "DATA_AND_DIRECTORY"})
+	public String durability;
+
+	@Param({"20"})
+	public int entries;
+
+	private Path tmpDir;
+	private FileKeychain keychain;
+	private byte counter;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, KeychainAccessException {
+		tmpDir = Files.createTempDirectory("keychain-bench");
+		keychain = new FileKeychain(List.of(tmpDir.resolve("keychain.json")), FileKeychain.Settings.FOR_TESTING.withDurability(Durability.valueOf(durability)));
+		for (int i = 0; i < entries; i++) {
+			keychain.put("vault" + i, new KeychainEntry(new byte[256], Util.generateSalt()));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		try (var files = Files.walk(tmpDir)) {
+			for (var p : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	@Benchmark
+	public void writeKeychain() throws KeychainAccessException {
+		keychain.put("vault0", new KeychainEntry(new byte[] {counter++}, new byte[16]));
+	}
+
+}
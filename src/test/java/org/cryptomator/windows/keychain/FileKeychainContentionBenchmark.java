@@ -0,0 +1,75 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of keychain reads, while another thread keeps writing the keychain to disk.
+ */
+@State(Scope.Group)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FileKeychainContentionBenchmark {
+
+	private static final int ENTRIES = 20;
+
+	private Path tmpDir;
+	private FileKeychain keychain;
+	private byte counter;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, KeychainAccessException {
+		tmpDir = Files.createTempDirectory("keychain-bench");
+		keychain = new FileKeychain(List.of(tmpDir.resolve("keychain.json")), FileKeychain.Settings.FOR_TESTING.withDurability(Durability.DATA));
+		for (int i = 0; i < ENTRIES; i++) {
+			keychain.put("vault" + i, new KeychainEntry(new byte[256], Util.generateSalt()));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		try (var files = Files.walk(tmpDir)) {
+			for (var p : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	@Benchmark
+	@Group("readWhileSaving")
+	@GroupThreads(3)
+	public KeychainEntry read() throws KeychainAccessException {
+		return keychain.get("vault1");
+	}
+
+	@Benchmark
+	@Group("readWhileSaving")
+	@GroupThreads(1)
+	public void write() throws KeychainAccessException {
+		keychain.put("vault0", new KeychainEntry(new byte[] {counter++}, new byte[16]));
+	}
+
+}
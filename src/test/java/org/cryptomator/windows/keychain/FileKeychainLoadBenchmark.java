@@ -0,0 +1,107 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the first load of a keychain, whose only existing file is the last of several candidate paths, e.g. after an update changed the default location.
+ * Every path is read with an injected latency, as seen on slow or roaming profile drives.
+ * {@link #sequential()} probes the paths one after another for comparison.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileKeychainLoadBenchmark {
+
+	@Param({"3"})
+	public int paths;
+
+	@Param({"5", "20"})
+	public long latencyMillis;
+
+	private Path tmpDir;
+	private List<Path> keychainPaths;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, KeychainAccessException {
+		tmpDir = Files.createTempDirectory("keychain-bench");
+		keychainPaths = IntStream.range(0, paths).mapToObj(i -> tmpDir.resolve("keychain" + i + ".json")).toList();
+		var keychain = new FileKeychain(List.of(keychainPaths.getLast()), FileKeychain.Settings.FOR_TESTING);
+		for (int i = 0; i < 20; i++) {
+			keychain.put("vault" + i, new KeychainEntry(new byte[256], Util.generateSalt()));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		try (var files = Files.walk(tmpDir)) {
+			for (var p : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	@Benchmark
+	public KeychainEntry parallel() throws KeychainAccessException {
+		return new SlowFileKeychain(keychainPaths, latencyMillis).get("vault0");
+	}
+
+	@Benchmark
+	public Optional<Map<String, KeychainEntry>> sequential() throws KeychainAccessException {
+		var keychain = new SlowFileKeychain(keychainPaths, latencyMillis);
+		for (var path : keychainPaths) {
+			var maybeKeychain = keychain.parse(path);
+			if (maybeKeychain.isPresent()) {
+				return maybeKeychain;
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static class SlowFileKeychain extends FileKeychain {
+
+		private final long latencyMillis;
+
+		SlowFileKeychain(List<Path> keychainPaths, long latencyMillis) {
+			super(keychainPaths, Settings.FOR_TESTING);
+			this.latencyMillis = latencyMillis;
+		}
+
+		@Override
+		Optional<Map<String, KeychainEntry>> parse(Path keychainPath) throws KeychainAccessException {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new KeychainAccessException("Interrupted", e);
+			}
+			return super.parse(keychainPath);
+		}
+	}
+
+}
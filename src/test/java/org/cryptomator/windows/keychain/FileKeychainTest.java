@@ -1,6 +1,11 @@
 package org.cryptomator.windows.keychain;
 
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
 import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.cryptomator.windows.keychain.metrics.InMemoryKeychainMetrics;
+import org.cryptomator.windows.keychain.metrics.KeychainMetrics;
+import org.cryptomator.windows.keychain.metrics.KeychainOperation;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -14,12 +19,22 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -82,12 +97,25 @@ public class FileKeychainTest {
 		var fileKeychainSpy = spy(fileKeychain);
 		Mockito.doNothing().when(fileKeychainSpy).load();
 		Mockito.doNothing().when(fileKeychainSpy).save();
+		var entry = new KeychainEntry(new byte[] {'a'}, new byte[] {'s'});
+		fileKeychainSpy.put("test3000", entry);
 
 		var result = fileKeychainSpy.remove("test3000");
 
-		var ordering = Mockito.inOrder(fileKeychainSpy);
-		ordering.verify(fileKeychainSpy).load();
-		ordering.verify(fileKeychainSpy).save();
+		verify(fileKeychainSpy, times(2)).save();
+		Assertions.assertEquals(entry, result);
+	}
+
+	@Test
+	public void removinNotExisting() throws KeychainAccessException {
+		var fileKeychainSpy = spy(fileKeychain);
+		Mockito.doNothing().when(fileKeychainSpy).load();
+		Mockito.doNothing().when(fileKeychainSpy).save();
+
+		var result = fileKeychainSpy.remove("test3000");
+
+		verify(fileKeychainSpy).load();
+		verify(fileKeychainSpy, never()).save();
 		Assertions.assertNull(result);
 	}
 
@@ -96,15 +124,40 @@ public class FileKeychainTest {
 		var fileKeychainSpy = spy(fileKeychain);
 		Mockito.doNothing().when(fileKeychainSpy).load();
 		Mockito.doNothing().when(fileKeychainSpy).save();
+		var oldEntry = new KeychainEntry(new byte[] {'a'}, new byte[] {'s'});
+		fileKeychainSpy.put("test3000", oldEntry);
+
+		var result = fileKeychainSpy.change("test3000", new KeychainEntry(new byte[] {'b'}, new byte[] {'s'}));
+
+		verify(fileKeychainSpy, times(2)).save();
+		Assertions.assertEquals(oldEntry, result);
+	}
+
+	@Test
+	public void changinNotExisting() throws KeychainAccessException {
+		var fileKeychainSpy = spy(fileKeychain);
+		Mockito.doNothing().when(fileKeychainSpy).load();
+		Mockito.doNothing().when(fileKeychainSpy).save();
 
 		var result = fileKeychainSpy.change("test3000", new KeychainEntry(new byte[] {}, new byte[] {}));
 
-		var ordering = Mockito.inOrder(fileKeychainSpy);
-		ordering.verify(fileKeychainSpy).load();
-		ordering.verify(fileKeychainSpy).save();
+		verify(fileKeychainSpy).load();
+		verify(fileKeychainSpy, never()).save();
 		Assertions.assertNull(result);
 	}
 
+	@Test
+	public void puttinSameEntryTwiceSavesOnce() throws KeychainAccessException {
+		var fileKeychainSpy = spy(fileKeychain);
+		Mockito.doNothing().when(fileKeychainSpy).load();
+		Mockito.doNothing().when(fileKeychainSpy).save();
+
+		fileKeychainSpy.put("test3000", new KeychainEntry(new byte[] {'a'}, new byte[] {'s'}));
+		fileKeychainSpy.put("test3000", new KeychainEntry(new byte[] {'a'}, new byte[] {'s'}));
+
+		verify(fileKeychainSpy, times(1)).save();
+	}
+
 	@Test
 	public void youOnlyLoadOnce() throws KeychainAccessException {
 		var fileKeychainSpy = spy(fileKeychain);
@@ -124,14 +177,113 @@ public class FileKeychainTest {
 	@Test
 	public void loadInternalUsesFirstFittingPath() throws KeychainAccessException {
 		var fileKeychain = spy(new FileKeychain(keychainPaths));
+		var entry1 = new KeychainEntry(new byte[]{1}, new byte[]{1});
+		var entry2 = new KeychainEntry(new byte[]{2}, new byte[]{2});
 
 		when(fileKeychain.parse(keychainPaths.get(0))).thenReturn(Optional.empty());
-		when(fileKeychain.parse(keychainPaths.get(1))).thenReturn(Optional.of(Map.of()));
+		when(fileKeychain.parse(keychainPaths.get(1))).thenReturn(Optional.of(Map.of("id", entry1)));
+		when(fileKeychain.parse(keychainPaths.get(2))).thenReturn(Optional.of(Map.of("id", entry2)));
 
-		fileKeychain.loadInternal();
+		fileKeychain.load();
 		verify(fileKeychain).parse(keychainPaths.get(0));
 		verify(fileKeychain).parse(keychainPaths.get(1));
-		verify(fileKeychain, never()).parse(keychainPaths.get(2));
+		Assertions.assertEquals(entry1, fileKeychain.get("id"));
+	}
+
+	@Test
+	@DisplayName("A slow path of higher priority wins over a fast path of lower priority")
+	public void loadInternalHonorsPriority() throws KeychainAccessException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+		var entry0 = new KeychainEntry(new byte[]{0}, new byte[]{0});
+		var entry1 = new KeychainEntry(new byte[]{1}, new byte[]{1});
+
+		Mockito.doAnswer(invocation -> {
+			Thread.sleep(200);
+			return Optional.of(Map.of("id", entry0));
+		}).when(fileKeychain).parse(keychainPaths.get(0));
+		Mockito.doReturn(Optional.of(Map.of("id", entry1))).when(fileKeychain).parse(keychainPaths.get(1));
+
+		fileKeychain.load();
+		Assertions.assertEquals(entry0, fileKeychain.get("id"));
+	}
+
+	@Test
+	@DisplayName("Paths are parsed concurrently and lower priority parsing is cancelled")
+	public void loadInternalCancelsLowerPriorityPaths() throws KeychainAccessException, InterruptedException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+		var started = new CountDownLatch(1);
+		var interrupted = new CountDownLatch(1);
+
+		Mockito.doAnswer(invocation -> {
+			Assertions.assertTrue(started.await(5, TimeUnit.SECONDS)); //only returns, if path 2 is parsed in parallel
+			return Optional.of(Map.of());
+		}).when(fileKeychain).parse(keychainPaths.get(0));
+		Mockito.doAnswer(invocation -> {
+			started.countDown();
+			try {
+				Thread.sleep(Duration.ofMinutes(1));
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return Optional.empty();
+		}).when(fileKeychain).parse(keychainPaths.get(2));
+
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), fileKeychain::load);
+		Assertions.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	@DisplayName("A read error of a higher priority path is not masked by a lower priority path")
+	public void loadInternalPropagatesErrorOfHigherPriority() throws KeychainAccessException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+
+		Mockito.doThrow(new KeychainAccessException("broken")).when(fileKeychain).parse(keychainPaths.get(0));
+		Mockito.doReturn(Optional.of(Map.of())).when(fileKeychain).parse(keychainPaths.get(1));
+
+		var e = Assertions.assertThrows(KeychainAccessException.class, fileKeychain::loadInternal);
+		Assertions.assertEquals("broken", e.getMessage());
+	}
+
+	@Test
+	@DisplayName("A batch update is published at once and saved a single time")
+	public void updateSavesOnce() throws KeychainAccessException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+		var entry1 = new KeychainEntry(new byte[] {1}, new byte[] {1});
+		var entry2 = new KeychainEntry(new byte[] {2}, new byte[] {2});
+		fileKeychain.putAll(Map.of("id1", entry1, "id2", entry1));
+
+		fileKeychain.update(batch -> {
+			batch.put("id3", entry1);
+			batch.remove("id3");
+			batch.change("id1", entry2);
+			batch.remove("id2");
+			batch.change("id4", entry2);
+		});
+
+		verify(fileKeychain, times(2)).save();
+		var reloaded = new FileKeychain(keychainPaths);
+		Assertions.assertEquals(Map.of("id1", entry2), reloaded.snapshot());
+	}
+
+	@Test
+	@DisplayName("A batch update without effect is not saved")
+	public void updateWithoutEffect() throws KeychainAccessException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+
+		fileKeychain.removeAll(List.of("id1", "id2"));
+		fileKeychain.update(batch -> batch.change("id1", new KeychainEntry(new byte[] {1}, new byte[] {1})));
+
+		verify(fileKeychain, never()).save();
+	}
+
+	@Test
+	public void preloadLoadsOnce() throws KeychainAccessException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+
+		fileKeychain.preload();
+		fileKeychain.get("id");
+
+		verify(fileKeychain, times(1)).loadInternal();
 	}
 
 	@Test
@@ -150,6 +302,50 @@ public class FileKeychainTest {
 		Assertions.assertInstanceOf(IOException.class, exception.getCause());
 	}
 
+	@Test
+	public void saveReportsMetrics() throws KeychainAccessException, IOException {
+		var metrics = new InMemoryKeychainMetrics();
+		KeychainMetrics.addListener(metrics);
+		try {
+			var fileKeychain = new FileKeychain(keychainPaths);
+			fileKeychain.put("id", new KeychainEntry(new byte[] {'c'}, new byte[] {'s'}));
+			Assertions.assertThrows(KeychainAccessException.class, spy(new FileKeychain(List.of(keychainFileDir.resolve("foo/bar"))))::save); //reported under the same name as the spied class
+
+			Assertions.assertEquals(1, metrics.count("FileKeychain", KeychainOperation.KEYCHAIN_LOAD));
+			Assertions.assertEquals(2, metrics.count("FileKeychain", KeychainOperation.KEYCHAIN_SAVE));
+			Assertions.assertEquals(1, metrics.failures("FileKeychain", KeychainOperation.KEYCHAIN_SAVE));
+			Assertions.assertEquals(Files.size(keychainPaths.get(0)), metrics.bytesWritten("FileKeychain", KeychainOperation.KEYCHAIN_SAVE));
+		} finally {
+			KeychainMetrics.removeListener(metrics);
+		}
+	}
+
+	@Test
+	public void saveAndParseEmitJfrEvents() throws KeychainAccessException, IOException {
+		var events = new CopyOnWriteArrayList<RecordedEvent>();
+		try (var stream = new RecordingStream()) {
+			stream.enable("org.cryptomator.windows.keychain.KeychainSave");
+			stream.enable("org.cryptomator.windows.keychain.KeychainLoad");
+			stream.onEvent(events::add);
+			stream.startAsync();
+			var fileKeychain = new FileKeychain(keychainPaths);
+			fileKeychain.put("id", new KeychainEntry(new byte[] {'c'}, new byte[] {'s'}));
+			fileKeychain.parse(keychainPaths.get(0));
+			stream.stop();
+		}
+
+		var size = Files.size(keychainPaths.get(0));
+		var saves = events.stream().filter(e -> e.getEventType().getName().endsWith("KeychainSave")).toList();
+		var loads = events.stream().filter(e -> e.getEventType().getName().endsWith("KeychainLoad")).toList();
+		Assertions.assertEquals(1, saves.size());
+		Assertions.assertEquals(keychainPaths.get(0).toString(), saves.getFirst().getString("path"));
+		Assertions.assertEquals(size, saves.getFirst().getLong("bytes"));
+		Assertions.assertEquals(1, saves.getFirst().getInt("entries"));
+		Assertions.assertTrue(saves.getFirst().getBoolean("succeeded"));
+		Assertions.assertTrue(loads.stream().anyMatch(e -> !e.getBoolean("succeeded")), "Missing keychain files are recorded on first load");
+		Assertions.assertTrue(loads.stream().anyMatch(e -> e.getBoolean("succeeded") && e.getLong("bytes") == size && e.getInt("entries") == 1));
+	}
+
 	@Test
 	public void parseSuccess() throws KeychainAccessException, IOException {
 		var keychainFile = keychainFileDir.resolve("realJson.json");
@@ -178,6 +374,355 @@ public class FileKeychainTest {
 		Assertions.assertTrue(result.isEmpty());
 	}
 
+	@Test
+	public void parseBinary() throws KeychainAccessException {
+		var fileKeychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withFormat(KeychainFormat.BINARY));
+		var entry = new KeychainEntry("foobar".getBytes(StandardCharsets.UTF_8), "saltySalt".getBytes(StandardCharsets.UTF_8));
+		fileKeychain.put("äd3", entry);
+
+		var result = fileKeychain.parse(keychainPaths.get(0));
+
+		Assertions.assertTrue(result.isPresent());
+		Assertions.assertEquals(Map.of("äd3", entry), result.get());
+	}
+
+	@Test
+	public void parseWrongBinary() throws KeychainAccessException, IOException {
+		var fileKeychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withFormat(KeychainFormat.BINARY));
+		fileKeychain.put("äd3", new KeychainEntry(new byte[] {'a'}, new byte[] {'s'}));
+		var keychainFile = keychainPaths.get(0);
+		Files.write(keychainFile, Arrays.copyOf(Files.readAllBytes(keychainFile), 16));
+
+		var result = fileKeychain.parse(keychainFile);
+
+		Assertions.assertTrue(result.isEmpty());
+	}
+
+	@Test
+	public void switchinFormats() throws KeychainAccessException, IOException {
+		var keychainFile = keychainPaths.get(0);
+		Files.writeString(keychainFile, CONTENT, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		var jsonSize = Files.size(keychainFile);
+		var fileKeychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withFormat(KeychainFormat.BINARY));
+
+		fileKeychain.remove("äd3");
+		fileKeychain.put("äd3", new KeychainEntry("iAmAWalrus".getBytes(StandardCharsets.UTF_8), "surlaw".getBytes(StandardCharsets.UTF_8)));
+
+		Assertions.assertTrue(Files.size(keychainFile) < jsonSize);
+		var result = fileKeychain.parse(keychainFile);
+		Assertions.assertEquals(2, result.orElseThrow().size());
+	}
+
+	@Test
+	@DisplayName("Reads are not blocked by a concurrent save")
+	public void readinDuringSave() throws KeychainAccessException, InterruptedException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+		var oldEntry = new KeychainEntry(new byte[] {'a'}, new byte[] {'s'});
+		var newEntry = new KeychainEntry(new byte[] {'b'}, new byte[] {'s'});
+		fileKeychain.put("test3000", oldEntry);
+		var saving = new CountDownLatch(1);
+		var finishSave = new CountDownLatch(1);
+		Mockito.doAnswer(invocation -> {
+			saving.countDown();
+			finishSave.await();
+			return invocation.callRealMethod();
+		}).when(fileKeychain).save();
+
+		var writer = Thread.ofPlatform().start(() -> {
+			try {
+				fileKeychain.put("test3000", newEntry);
+			} catch (KeychainAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		try {
+			saving.await();
+			var result = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> fileKeychain.get("test3000"));
+			Assertions.assertEquals(newEntry, result);
+		} finally {
+			finishSave.countDown();
+			writer.join();
+		}
+	}
+
+	@Test
+	@DisplayName("Concurrent writers share a single save")
+	public void writinConcurrently() throws KeychainAccessException, InterruptedException {
+		var fileKeychain = spy(new FileKeychain(keychainPaths));
+		fileKeychain.load();
+		var saving = new CountDownLatch(1);
+		var finishSave = new CountDownLatch(1);
+		Mockito.doAnswer(invocation -> {
+			saving.countDown();
+			finishSave.await();
+			return invocation.callRealMethod();
+		}).when(fileKeychain).save();
+
+		var writers = new ArrayList<Thread>();
+		for (int i = 0; i < 3; i++) {
+			var id = "id" + i;
+			writers.add(Thread.ofPlatform().start(() -> {
+				try {
+					fileKeychain.put(id, new KeychainEntry(new byte[] {'a'}, new byte[] {'s'}));
+				} catch (KeychainAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}));
+			if (i == 0) {
+				saving.await();
+			}
+		}
+		while (fileKeychain.get("id1") == null || fileKeychain.get("id2") == null) {
+			Thread.sleep(1);
+		}
+		finishSave.countDown();
+		for (var writer : writers) {
+			writer.join();
+		}
+
+		verify(fileKeychain, times(1)).save();
+		Assertions.assertEquals(3, fileKeychain.parse(keychainPaths.get(0)).orElseThrow().size());
+	}
+
+	@Nested
+	@DisplayName("Shared mode")
+	public class Shared {
+
+		private final KeychainEntry entry1 = new KeychainEntry(new byte[] {'a'}, new byte[] {'s'});
+		private final KeychainEntry entry2 = new KeychainEntry(new byte[] {'b'}, new byte[] {'t'});
+
+		private FileKeychain newSharedKeychain() {
+			return new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withShared(true));
+		}
+
+		@Test
+		@DisplayName("Mutations of another keychain instance are neither lost nor overwritten")
+		public void testConcurrentInstances() throws KeychainAccessException {
+			var keychain1 = newSharedKeychain();
+			var keychain2 = newSharedKeychain();
+			keychain1.load();
+			keychain2.load();
+
+			keychain1.put("id1", entry1);
+			keychain2.put("id2", entry2);
+
+			Assertions.assertEquals(entry2, keychain1.get("id2"));
+			Assertions.assertEquals(entry1, keychain2.get("id1"));
+			Assertions.assertEquals(2, keychain1.parse(keychainPaths.get(0)).orElseThrow().size());
+		}
+
+		@Test
+		@DisplayName("Keychain file is only read again after the generation changed")
+		public void testReloadOnlyIfChanged() throws KeychainAccessException {
+			var keychain1 = spy(newSharedKeychain());
+			var keychain2 = newSharedKeychain();
+
+			keychain1.get("id1");
+			keychain1.get("id1");
+			verify(keychain1, times(1)).loadInternal();
+
+			keychain2.put("id1", entry1);
+			Assertions.assertEquals(entry1, keychain1.get("id1"));
+			Assertions.assertEquals(entry1, keychain1.get("id1"));
+			verify(keychain1, times(2)).loadInternal();
+		}
+
+		@Test
+		@DisplayName("Removal by another instance is visible")
+		public void testRemoval() throws KeychainAccessException {
+			var keychain1 = newSharedKeychain();
+			var keychain2 = newSharedKeychain();
+			keychain1.put("id1", entry1);
+			Assertions.assertEquals(entry1, keychain2.get("id1"));
+
+			Assertions.assertEquals(entry1, keychain2.remove("id1"));
+
+			Assertions.assertNull(keychain1.get("id1"));
+			Assertions.assertNull(keychain1.change("id1", entry2));
+		}
+
+		@Test
+		@DisplayName("Listeners are notified about mutations of another instance")
+		public void testChangeListener() throws KeychainAccessException {
+			var keychain1 = newSharedKeychain();
+			var keychain2 = newSharedKeychain();
+			keychain1.put("id1", entry1);
+			keychain1.put("id2", entry1);
+			var changes = new ArrayList<KeychainChange>();
+			keychain1.addChangeListener(changes::add);
+
+			keychain2.change("id1", entry2);
+			keychain2.remove("id2");
+			keychain1.refresh();
+			keychain1.refresh();
+
+			Assertions.assertEquals(List.of(new KeychainChange(Set.of(), Set.of("id1"), Set.of("id2"))), changes);
+			keychain2.put("id3", entry1);
+			keychain1.put("id4", entry2);
+			Assertions.assertEquals(Set.of("id3"), changes.getLast().ids());
+		}
+
+		@Test
+		@DisplayName("Write-behind is rejected")
+		public void testNoWriteBehind() {
+			var settings = FileKeychain.Settings.FOR_TESTING.withShared(true);
+			Assertions.assertThrows(IllegalArgumentException.class, () -> settings.withCommitDelay(Duration.ofSeconds(1)));
+		}
+	}
+
+	@Nested
+	@DisplayName("Watch mode")
+	public class Watch {
+
+		private final KeychainEntry entry1 = new KeychainEntry(new byte[] {'a'}, new byte[] {'s'});
+		private final KeychainEntry entry2 = new KeychainEntry(new byte[] {'b'}, new byte[] {'t'});
+
+		@Test
+		@DisplayName("Only differing entries are applied")
+		public void testDifferencesApplied() throws KeychainAccessException {
+			var keychain = new FileKeychain(keychainPaths);
+			var otherProcess = new FileKeychain(keychainPaths);
+			keychain.put("unchanged", entry1);
+			keychain.put("changed", entry1);
+			keychain.put("removed", entry1);
+			var unchangedBefore = keychain.get("unchanged");
+			otherProcess.put("changed", entry2);
+			otherProcess.remove("removed");
+			otherProcess.put("added", entry2);
+
+			var change = keychain.applyExternalChanges();
+
+			Assertions.assertEquals(new KeychainChange(Set.of("added"), Set.of("changed"), Set.of("removed")), change);
+			Assertions.assertSame(unchangedBefore, keychain.get("unchanged"));
+			Assertions.assertEquals(entry2, keychain.get("changed"));
+			Assertions.assertEquals(entry2, keychain.get("added"));
+			Assertions.assertNull(keychain.get("removed"));
+			Assertions.assertTrue(keychain.applyExternalChanges().isEmpty());
+		}
+
+		@Test
+		@DisplayName("Pending local changes are not reverted")
+		public void testPendingChangesKept() throws KeychainAccessException {
+			var keychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withCommitDelay(Duration.ofMinutes(1)));
+			var otherProcess = new FileKeychain(keychainPaths);
+			keychain.put("local", entry1);
+			otherProcess.put("remote", entry2);
+
+			var change = keychain.applyExternalChanges();
+
+			Assertions.assertTrue(change.isEmpty());
+			Assertions.assertEquals(entry1, keychain.get("local"));
+		}
+
+		@Test
+		@DisplayName("Listeners are notified about changes of the watched file")
+		public void testWatcher() throws KeychainAccessException, InterruptedException, IOException {
+			var keychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withWatch(true));
+			var otherProcess = new FileKeychain(keychainPaths);
+			var changes = new LinkedBlockingQueue<KeychainChange>();
+			keychain.addChangeListener(changes::add);
+			try {
+				keychain.load();
+
+				otherProcess.put("added", entry1);
+
+				var change = changes.poll(10, TimeUnit.SECONDS);
+				Assertions.assertNotNull(change);
+				Assertions.assertEquals(Set.of("added"), change.added());
+				Assertions.assertEquals(entry1, keychain.get("added"));
+			} finally {
+				keychain.stopWatching();
+			}
+		}
+	}
+
+	@Nested
+	@DisplayName("Write-behind mode")
+	public class WriteBehind {
+
+		@Test
+		@DisplayName("Mutations within the commit window are written once")
+		public void testBurstIsCoalesced() throws KeychainAccessException {
+			var fileKeychain = spy(new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withCommitDelay(Duration.ofMinutes(1))));
+
+			for (int i = 0; i < 50; i++) {
+				fileKeychain.put("id" + i, new KeychainEntry(new byte[] {(byte) i}, new byte[] {'s'}));
+			}
+			Assertions.assertTrue(Files.notExists(keychainPaths.get(0)));
+			fileKeychain.flush();
+
+			verify(fileKeychain, times(1)).save();
+			Assertions.assertEquals(50, fileKeychain.parse(keychainPaths.get(0)).orElseThrow().size());
+		}
+
+		@Test
+		@DisplayName("Closing persists pending mutations and releases the committer thread")
+		public void testClose() throws Exception {
+			var fileKeychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withCommitDelay(Duration.ofMinutes(1)));
+			var committersBefore = committerThreads();
+
+			fileKeychain.put("test3000", new KeychainEntry(new byte[] {'a'}, new byte[] {'s'}));
+			var committers = committerThreads();
+			committers.removeAll(committersBefore);
+			Assertions.assertEquals(1, committers.size());
+			fileKeychain.close();
+
+			Assertions.assertTrue(fileKeychain.durable().isDone());
+			Assertions.assertTrue(fileKeychain.parse(keychainPaths.get(0)).orElseThrow().containsKey("test3000"));
+			committers.getFirst().join(Duration.ofSeconds(10));
+			Assertions.assertFalse(committers.getFirst().isAlive());
+
+			fileKeychain.put("test3001", new KeychainEntry(new byte[] {'b'}, new byte[] {'s'}));
+			Assertions.assertTrue(fileKeychain.parse(keychainPaths.get(0)).orElseThrow().containsKey("test3001"));
+		}
+
+		private List<Thread> committerThreads() {
+			return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().equals("keychain-committer")).collect(Collectors.toCollection(ArrayList::new));
+		}
+
+		@Test
+		@DisplayName("Mutations of a failed commit are saved by the next flush")
+		public void testFlushRetriesFailedCommit() throws Exception {
+			var fileKeychain = spy(new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withCommitDelay(Duration.ofMinutes(1))));
+			fileKeychain.put("test3000", new KeychainEntry(new byte[] {'a'}, new byte[] {'s'}));
+			var durable = fileKeychain.durable();
+			Mockito.doThrow(new KeychainAccessException("disk full")).doCallRealMethod().when(fileKeychain).save();
+
+			Assertions.assertThrows(KeychainAccessException.class, fileKeychain::flush);
+			Assertions.assertTrue(durable.isCompletedExceptionally());
+			var retried = fileKeychain.durable();
+			Assertions.assertFalse(retried.isDone());
+
+			fileKeychain.flush();
+			Assertions.assertTrue(retried.isDone());
+			Assertions.assertTrue(fileKeychain.parse(keychainPaths.get(0)).orElseThrow().containsKey("test3000"));
+			fileKeychain.flush();
+			verify(fileKeychain, times(2)).save();
+		}
+
+		@Test
+		@DisplayName("Pending mutations become durable after the commit window")
+		public void testDurableAfterWindow() throws Exception {
+			var fileKeychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withCommitDelay(Duration.ofMillis(10)));
+
+			fileKeychain.put("test3000", new KeychainEntry(new byte[] {'a'}, new byte[] {'s'}));
+			fileKeychain.durable().get(10, TimeUnit.SECONDS);
+
+			Assertions.assertTrue(fileKeychain.parse(keychainPaths.get(0)).orElseThrow().containsKey("test3000"));
+		}
+
+		@Test
+		@DisplayName("No-op mutations do not open a commit window")
+		public void testNoOpIsNotPending() throws KeychainAccessException {
+			var fileKeychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withCommitDelay(Duration.ofMinutes(1)));
+
+			fileKeychain.remove("test3000");
+
+			Assertions.assertTrue(fileKeychain.durable().isDone());
+			Assertions.assertTrue(Files.notExists(keychainPaths.get(0)));
+		}
+	}
+
 	@Nested
 	public class ParsePaths {
 		@Test
@@ -217,4 +762,85 @@ public class FileKeychainTest {
 
 	}
 
+	@Nested
+	@DisplayName("Migration of legacy keychain files")
+	public class Migration {
+
+		private final KeychainEntry entry = new KeychainEntry(new byte[] {'a'}, new byte[] {'s'});
+
+		private Path retired(Path legacyPath) {
+			return legacyPath.resolveSibling(legacyPath.getFileName() + FileKeychain.MIGRATED_SUFFIX);
+		}
+
+		@Test
+		@DisplayName("Content is moved to the first path and the legacy file is retired")
+		public void testMigrate() throws KeychainAccessException {
+			new FileKeychain(List.of(keychainPaths.get(1))).put("id", entry);
+			var keychain = new FileKeychain(keychainPaths);
+
+			keychain.migrate();
+
+			Assertions.assertTrue(Files.exists(keychainPaths.get(0)));
+			Assertions.assertTrue(Files.notExists(keychainPaths.get(1)));
+			Assertions.assertTrue(Files.exists(retired(keychainPaths.get(1))));
+			Assertions.assertEquals(entry, new FileKeychain(List.of(keychainPaths.get(0))).get("id"));
+		}
+
+		@Test
+		@DisplayName("Legacy files left over by an interrupted migration are retired")
+		public void testResume() throws KeychainAccessException, IOException {
+			new FileKeychain(List.of(keychainPaths.get(0))).put("id", entry);
+			Files.copy(keychainPaths.get(0), keychainPaths.get(2));
+			var keychain = new FileKeychain(keychainPaths);
+
+			keychain.migrate();
+
+			Assertions.assertTrue(Files.notExists(keychainPaths.get(2)));
+			Assertions.assertTrue(Files.exists(retired(keychainPaths.get(2))));
+			Assertions.assertEquals(entry, keychain.get("id"));
+		}
+
+		@Test
+		@DisplayName("Legacy files are kept, if verification fails")
+		public void testVerificationFails() throws KeychainAccessException {
+			new FileKeychain(List.of(keychainPaths.get(1))).put("id", entry);
+			var keychain = spy(new FileKeychain(keychainPaths));
+			keychain.load();
+			Mockito.doReturn(Optional.empty()).when(keychain).parse(keychainPaths.get(0));
+
+			keychain.migrate();
+
+			Assertions.assertTrue(Files.exists(keychainPaths.get(1)));
+			Assertions.assertTrue(Files.notExists(retired(keychainPaths.get(1))));
+		}
+
+		@Test
+		@DisplayName("Unparsable legacy files are not retired, if nothing was loaded")
+		public void testNothingLoaded() throws KeychainAccessException, IOException {
+			Files.writeString(keychainPaths.get(1), "garbage");
+			var keychain = new FileKeychain(keychainPaths);
+
+			keychain.migrate();
+
+			Assertions.assertTrue(Files.exists(keychainPaths.get(1)));
+			Assertions.assertTrue(Files.notExists(keychainPaths.get(0)));
+		}
+
+		@Test
+		@DisplayName("Migration runs in the background after loading, if enabled")
+		public void testBackgroundMigration() throws KeychainAccessException, InterruptedException {
+			new FileKeychain(List.of(keychainPaths.get(1))).put("id", entry);
+			var keychain = new FileKeychain(keychainPaths, FileKeychain.Settings.FOR_TESTING.withMigrate(true));
+
+			Assertions.assertEquals(entry, keychain.get("id"));
+
+			for (int i = 0; i < 100 && Files.exists(keychainPaths.get(1)); i++) {
+				Thread.sleep(50);
+			}
+			Assertions.assertTrue(Files.notExists(keychainPaths.get(1)));
+			Assertions.assertEquals(entry, new FileKeychain(List.of(keychainPaths.get(0))).get("id"));
+		}
+
+	}
+
 }
@@ -0,0 +1,283 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class IndexedKeychainTest {
+
+	private static final KeychainEntry ENTRY_1 = new KeychainEntry(new byte[] {'a', 'b'}, new byte[] {'s'});
+	private static final KeychainEntry ENTRY_2 = new KeychainEntry(new byte[] {'c', 'd'}, new byte[] {'t'});
+
+	@TempDir
+	Path tmpDir;
+	List<Path> keychainPaths;
+	IndexedKeychain keychain;
+
+	@BeforeEach
+	public void beforeEach() {
+		keychainPaths = List.of(tmpDir.resolve("keychain.json"), tmpDir.resolve("keychain_old.json"));
+		keychain = reopen();
+	}
+
+	private IndexedKeychain reopen() {
+		return new IndexedKeychain(keychainPaths, Durability.NONE, Long.MAX_VALUE, 2);
+	}
+
+	private static KeychainEntry entry(int i) {
+		return new KeychainEntry(Integer.toString(i).getBytes(UTF_8), new byte[] {'s'});
+	}
+
+	@Test
+	@DisplayName("Mutations survive reopening the keychain")
+	public void testReopen() throws KeychainAccessException {
+		keychain.put("id1", ENTRY_1);
+		keychain.put("id2", ENTRY_1);
+		Assertions.assertEquals(ENTRY_1, keychain.change("id2", ENTRY_2));
+		keychain.put("id3", ENTRY_2);
+		Assertions.assertEquals(ENTRY_2, keychain.remove("id3"));
+
+		var reopened = reopen();
+
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopened.get("id2"));
+		Assertions.assertNull(reopened.get("id3"));
+		Assertions.assertNull(reopened.change("id3", ENTRY_1));
+		Assertions.assertNull(reopened.remove("id3"));
+	}
+
+	@Test
+	@DisplayName("Many entries are found after the index grew and only few are cached")
+	public void testManyEntries() throws KeychainAccessException {
+		for (int i = 0; i < 1000; i++) {
+			keychain.put("id" + i, entry(i));
+		}
+		for (int i = 0; i < 1000; i += 2) {
+			keychain.remove("id" + i);
+		}
+
+		var reopened = reopen();
+		for (int i = 0; i < 1000; i++) {
+			Assertions.assertEquals(i % 2 == 0 ? null : entry(i), reopened.get("id" + i));
+		}
+		Assertions.assertTrue(reopened.cachedEntries() <= 2);
+	}
+
+	@Test
+	@DisplayName("Ids of live entries are listed from the index")
+	public void testIds() throws KeychainAccessException {
+		for (int i = 0; i < 100; i++) {
+			keychain.put("id" + i, entry(i));
+		}
+		for (int i = 0; i < 100; i += 2) {
+			keychain.remove("id" + i);
+		}
+
+		var ids = reopen().ids();
+
+		Assertions.assertEquals(50, ids.size());
+		Assertions.assertTrue(ids.contains("id1"));
+		Assertions.assertFalse(ids.contains("id0"));
+	}
+
+	@Test
+	@DisplayName("A large batch grows the index and survives rebuilding the index")
+	public void testBatch() throws KeychainAccessException, IOException {
+		keychain.put("id0", ENTRY_1);
+		keychain.get("id0"); //cached
+		var entries = new HashMap<String, KeychainEntry>();
+		for (int i = 0; i < 200; i++) {
+			entries.put("id" + i, entry(i));
+		}
+
+		keychain.putAll(entries);
+		keychain.removeAll(List.of("id1", "id2"));
+
+		for (int i = 0; i < 200; i++) {
+			Assertions.assertEquals(i == 1 || i == 2 ? null : entry(i), keychain.get("id" + i));
+		}
+		Files.delete(keychain.indexFile());
+		var reopened = reopen();
+		for (int i = 0; i < 200; i++) {
+			Assertions.assertEquals(i == 1 || i == 2 ? null : entry(i), reopened.get("id" + i));
+		}
+	}
+
+	@Test
+	@DisplayName("A torn batch is discarded as a whole")
+	public void testTornBatch() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		keychain.putAll(Map.of("id1", ENTRY_2, "id2", ENTRY_2));
+		try (var ch = FileChannel.open(keychain.journalFile(), StandardOpenOption.WRITE)) {
+			ch.truncate(ch.size() - 3);
+		}
+
+		var reopened = reopen();
+
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertNull(reopened.get("id2"));
+	}
+
+	@Test
+	@DisplayName("Cached entries are invalidated by mutations")
+	public void testCacheInvalidation() throws KeychainAccessException {
+		keychain.put("id1", ENTRY_1);
+		Assertions.assertEquals(ENTRY_1, keychain.get("id1"));
+
+		keychain.put("id1", ENTRY_2);
+
+		Assertions.assertEquals(ENTRY_2, keychain.get("id1"));
+	}
+
+	@Test
+	@DisplayName("Index is rebuilt, if the journal was written without updating the index")
+	public void testOutdatedIndex() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		var journalKeychain = new JournalKeychain(keychainPaths, Durability.NONE, Long.MAX_VALUE);
+		journalKeychain.put("id2", ENTRY_2);
+		journalKeychain.remove("id1");
+
+		var reopened = reopen();
+
+		Assertions.assertNull(reopened.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopened.get("id2"));
+	}
+
+	@Test
+	@DisplayName("Missing index is rebuilt")
+	public void testMissingIndex() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		Files.delete(keychain.indexFile());
+
+		var reopened = reopen();
+
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertTrue(Files.exists(reopened.indexFile()));
+	}
+
+	@Test
+	@DisplayName("A torn record at the end is discarded")
+	public void testTornTail() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		keychain.put("id2", ENTRY_2);
+		try (var ch = FileChannel.open(keychain.journalFile(), StandardOpenOption.WRITE)) {
+			ch.truncate(ch.size() - 3);
+		}
+
+		var reopened = reopen();
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertNull(reopened.get("id2"));
+
+		reopened.put("id3", ENTRY_2);
+		var reopenedAgain = reopen();
+		Assertions.assertEquals(ENTRY_1, reopenedAgain.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopenedAgain.get("id3"));
+	}
+
+	@Test
+	@DisplayName("Compaction drops superseded records")
+	public void testCompaction() throws KeychainAccessException, IOException {
+		for (int i = 0; i < 100; i++) {
+			keychain.put("id1", entry(i));
+		}
+		keychain.put("id2", ENTRY_2);
+		var sizeBefore = Files.size(keychain.journalFile());
+		Assertions.assertTrue(keychain.garbage() > 0);
+
+		keychain.compact();
+
+		Assertions.assertEquals(0, keychain.garbage());
+		Assertions.assertTrue(Files.size(keychain.journalFile()) < sizeBefore);
+		Assertions.assertEquals(entry(99), keychain.get("id1"));
+		var reopened = reopen();
+		Assertions.assertEquals(entry(99), reopened.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopened.get("id2"));
+	}
+
+	@Test
+	@DisplayName("Existing JSON keychain is migrated on load")
+	public void testMigration() throws KeychainAccessException, IOException {
+		Files.writeString(keychainPaths.get(1), """
+				{"id1": {"ciphertext": "YWI=", "salt": "cw=="}}
+				""", UTF_8);
+
+		Assertions.assertEquals(ENTRY_1, keychain.get("id1"));
+		Assertions.assertTrue(Files.exists(keychain.journalFile()));
+
+		var journalKeychain = new JournalKeychain(keychainPaths, Durability.NONE, Long.MAX_VALUE);
+		Assertions.assertEquals(ENTRY_1, journalKeychain.get("id1"));
+	}
+
+	@Test
+	@DisplayName("Journal of unknown format is kept instead of being overwritten by the migration")
+	public void testUnknownJournalKept() throws KeychainAccessException, IOException {
+		Files.writeString(keychainPaths.get(1), """
+				{"id1": {"ciphertext": "YWI=", "salt": "cw=="}}
+				""", UTF_8);
+		var unknownJournal = keychain.journalFile().resolveSibling(keychain.journalFile().getFileName() + JournalKeychain.UNKNOWN_FORMAT_SUFFIX);
+		Files.writeString(keychain.journalFile(), "from the future", UTF_8);
+
+		Assertions.assertEquals(ENTRY_1, keychain.get("id1"));
+		Assertions.assertEquals("from the future", Files.readString(unknownJournal, UTF_8));
+
+		Files.writeString(keychain.journalFile(), "from the future, again", UTF_8);
+		Assertions.assertThrows(KeychainAccessException.class, () -> reopen().get("id1"));
+		Assertions.assertEquals("from the future, again", Files.readString(keychain.journalFile(), UTF_8));
+	}
+
+	@Test
+	@DisplayName("Reads succeed, if a failed write closed the journal right after loading")
+	public void testReadAfterConcurrentFailure() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		keychain.put("id2", ENTRY_2);
+		var failing = Mockito.spy(reopen());
+		var failed = new AtomicBoolean();
+		Mockito.doAnswer(invocation -> {
+			invocation.callRealMethod();
+			if (failed.compareAndSet(false, true)) {
+				failCompaction(failing);
+			}
+			return null;
+		}).when(failing).load();
+
+		Assertions.assertEquals(Set.of("id1", "id2"), failing.ids());
+		Assertions.assertTrue(failed.get());
+		failed.set(false);
+		Assertions.assertEquals(ENTRY_2, failing.get("id2"));
+		Assertions.assertTrue(failed.get());
+	}
+
+	// compaction fails to write its temporary file, which closes journal and index
+	private static void failCompaction(IndexedKeychain keychain) throws IOException {
+		var tmpFile = keychain.journalFile().resolveSibling(keychain.journalFile().getFileName() + ".tmp");
+		Files.createDirectory(tmpFile);
+		keychain.compact();
+		Files.deleteIfExists(tmpFile);
+	}
+
+	@Test
+	@DisplayName("Load fails without paths")
+	public void testNoPaths() {
+		var keychain = new IndexedKeychain(List.of(), Durability.NONE, Long.MAX_VALUE, 2);
+		Assertions.assertFalse(keychain.isSupported());
+		Assertions.assertThrows(KeychainAccessException.class, () -> keychain.get("id1"));
+	}
+
+}
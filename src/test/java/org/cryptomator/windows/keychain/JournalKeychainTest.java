@@ -0,0 +1,278 @@
+package org.cryptomator.windows.keychain;
+
+import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class JournalKeychainTest {
+
+	private static final KeychainEntry ENTRY_1 = new KeychainEntry(new byte[] {'a', 'b'}, new byte[] {'s'});
+	private static final KeychainEntry ENTRY_2 = new KeychainEntry(new byte[] {'c', 'd'}, new byte[] {'t'});
+
+	@TempDir
+	Path tmpDir;
+	List<Path> keychainPaths;
+	JournalKeychain keychain;
+
+	@BeforeEach
+	public void beforeEach() {
+		keychainPaths = List.of(tmpDir.resolve("keychain.json"), tmpDir.resolve("keychain_old.json"));
+		keychain = new JournalKeychain(keychainPaths, Durability.NONE, Long.MAX_VALUE);
+	}
+
+	private JournalKeychain reopen() {
+		return new JournalKeychain(keychainPaths, Durability.NONE, Long.MAX_VALUE);
+	}
+
+	@Test
+	@DisplayName("Mutations survive reloading the journal")
+	public void testReplay() throws KeychainAccessException {
+		keychain.put("id1", ENTRY_1);
+		keychain.put("id2", ENTRY_1);
+		keychain.change("id2", ENTRY_2);
+		keychain.put("id3", ENTRY_2);
+		keychain.remove("id3");
+
+		var reopened = reopen();
+
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopened.get("id2"));
+		Assertions.assertNull(reopened.get("id3"));
+	}
+
+	@Test
+	@DisplayName("Each mutation appends a single record")
+	public void testAppendOnly() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		var sizeBefore = Files.size(keychain.journalFile());
+
+		keychain.put("id2", ENTRY_2);
+
+		var expectedRecordSize = JournalKeychain.encodeRecord((byte) 1, "id2", ENTRY_2).remaining();
+		Assertions.assertEquals(sizeBefore + expectedRecordSize, Files.size(keychain.journalFile()));
+	}
+
+	@Test
+	@DisplayName("No-op mutations are not appended")
+	public void testNoOp() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		var sizeBefore = Files.size(keychain.journalFile());
+
+		keychain.put("id1", new KeychainEntry(new byte[] {'a', 'b'}, new byte[] {'s'}));
+		keychain.remove("id2");
+		keychain.change("id2", ENTRY_2);
+
+		Assertions.assertEquals(sizeBefore, Files.size(keychain.journalFile()));
+	}
+
+	@Test
+	@DisplayName("A torn record at the end is discarded and overwritten")
+	public void testTornTail() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		keychain.put("id2", ENTRY_2);
+		var journalFile = keychain.journalFile();
+		try (var ch = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+			ch.truncate(ch.size() - 3);
+		}
+
+		var reopened = reopen();
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertNull(reopened.get("id2"));
+
+		reopened.put("id3", ENTRY_2);
+		var reopenedAgain = reopen();
+		Assertions.assertEquals(ENTRY_1, reopenedAgain.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopenedAgain.get("id3"));
+	}
+
+	@Test
+	@DisplayName("A batch is appended with a single write and survives reloading the journal")
+	public void testBatch() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		keychain.put("id2", ENTRY_1);
+		var sizeBefore = Files.size(keychain.journalFile());
+
+		keychain.update(batch -> {
+			batch.put("id3", ENTRY_1);
+			batch.change("id1", ENTRY_2);
+			batch.remove("id2");
+			batch.change("id4", ENTRY_2); //absent, hence no-op
+		});
+
+		var expectedSize = JournalKeychain.encodeBatchRecord(0).remaining() //
+				+ JournalKeychain.encodeRecord(JournalKeychain.TYPE_PUT, "id3", ENTRY_1).remaining() //
+				+ JournalKeychain.encodeRecord(JournalKeychain.TYPE_PUT, "id1", ENTRY_2).remaining() //
+				+ JournalKeychain.encodeRecord(JournalKeychain.TYPE_REMOVE, "id2", null).remaining();
+		Assertions.assertEquals(sizeBefore + expectedSize, Files.size(keychain.journalFile()));
+		var reopened = reopen();
+		Assertions.assertEquals(ENTRY_2, reopened.get("id1"));
+		Assertions.assertNull(reopened.get("id2"));
+		Assertions.assertEquals(ENTRY_1, reopened.get("id3"));
+		Assertions.assertNull(reopened.get("id4"));
+	}
+
+	@Test
+	@DisplayName("A torn batch is discarded as a whole")
+	public void testTornBatch() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		keychain.putAll(Map.of("id2", ENTRY_2, "id3", ENTRY_2, "id1", ENTRY_2));
+		try (var ch = FileChannel.open(keychain.journalFile(), StandardOpenOption.WRITE)) {
+			ch.truncate(ch.size() - 3);
+		}
+
+		var reopened = reopen();
+
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertNull(reopened.get("id2"));
+		Assertions.assertNull(reopened.get("id3"));
+	}
+
+	@Test
+	@DisplayName("A record with wrong checksum ends the replay")
+	public void testChecksumMismatch() throws KeychainAccessException, IOException {
+		keychain.put("id1", ENTRY_1);
+		keychain.put("id2", ENTRY_2);
+		var journalFile = keychain.journalFile();
+		var content = Files.readAllBytes(journalFile);
+		content[content.length - 1] ^= 0x01;
+		Files.write(journalFile, content);
+
+		var reopened = reopen();
+
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertNull(reopened.get("id2"));
+	}
+
+	@Test
+	@DisplayName("Compaction drops superseded records")
+	public void testCompaction() throws KeychainAccessException, IOException {
+		for (int i = 0; i < 100; i++) {
+			keychain.put("id1", new KeychainEntry(new byte[] {(byte) i}, new byte[] {'s'}));
+		}
+		keychain.put("id2", ENTRY_2);
+		var sizeBefore = Files.size(keychain.journalFile());
+		Assertions.assertTrue(keychain.garbage() > 0);
+
+		keychain.compact();
+
+		Assertions.assertEquals(0, keychain.garbage());
+		Assertions.assertTrue(Files.size(keychain.journalFile()) < sizeBefore);
+		var reopened = reopen();
+		Assertions.assertArrayEquals(new byte[] {99}, reopened.get("id1").ciphertext());
+		Assertions.assertEquals(ENTRY_2, reopened.get("id2"));
+	}
+
+	@Test
+	@DisplayName("Mutations during compaction are kept")
+	public void testMutationsDuringCompaction() throws KeychainAccessException, IOException {
+		var keychain = Mockito.spy(this.keychain);
+		for (int i = 0; i < 100; i++) {
+			keychain.put("id1", new KeychainEntry(new byte[] {(byte) i}, new byte[] {'s'}));
+		}
+		Mockito.doAnswer(invocation -> {
+			var thread = Thread.ofVirtual().start(() -> { //mutates concurrently while the snapshot is written
+				try {
+					keychain.put("id2", ENTRY_2);
+					keychain.update(batch -> {
+						batch.put("id1", ENTRY_1);
+						batch.remove("id2");
+					});
+					keychain.put("id3", ENTRY_2);
+				} catch (KeychainAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			thread.join();
+			return invocation.callRealMethod();
+		}).when(keychain).writeCompactionFile(Mockito.any(), Mockito.any());
+		var sizeBefore = Files.size(keychain.journalFile());
+
+		keychain.compact();
+
+		Assertions.assertTrue(Files.size(keychain.journalFile()) < sizeBefore);
+		Assertions.assertTrue(keychain.garbage() > 0);
+		keychain.put("id4", ENTRY_1);
+		var reopened = reopen();
+		Assertions.assertEquals(Set.of("id1", "id3", "id4"), reopened.ids());
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopened.get("id3"));
+		reopened.compact();
+		Assertions.assertEquals(0, reopened.garbage());
+		Assertions.assertEquals(Set.of("id1", "id3", "id4"), reopen().ids());
+	}
+
+	@Test
+	@DisplayName("Compaction starts in the background once garbage exceeds the threshold")
+	public void testBackgroundCompaction() throws KeychainAccessException, InterruptedException {
+		var keychain = new JournalKeychain(keychainPaths, Durability.NONE, 100);
+		for (int i = 0; i < 20; i++) {
+			keychain.put("id1", new KeychainEntry(new byte[] {(byte) i}, new byte[] {'s'}));
+		}
+
+		for (int i = 0; i < 100 && keychain.garbage() >= 100; i++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertTrue(keychain.garbage() < 100);
+		Assertions.assertArrayEquals(new byte[] {19}, reopen().get("id1").ciphertext());
+	}
+
+	@Test
+	@DisplayName("Existing JSON keychain is migrated on first write")
+	public void testMigration() throws KeychainAccessException, IOException {
+		Files.writeString(keychainPaths.get(1), """
+				{"id1": {"ciphertext": "YWI=", "salt": "cw=="}}
+				""", UTF_8);
+
+		Assertions.assertEquals(ENTRY_1, keychain.get("id1"));
+		Assertions.assertTrue(Files.notExists(keychain.journalFile()));
+
+		keychain.put("id2", ENTRY_2);
+
+		var reopened = reopen();
+		Assertions.assertEquals(ENTRY_1, reopened.get("id1"));
+		Assertions.assertEquals(ENTRY_2, reopened.get("id2"));
+		Assertions.assertTrue(Files.notExists(keychainPaths.get(1)));
+		Assertions.assertTrue(Files.exists(tmpDir.resolve("keychain_old.json" + FileKeychain.MIGRATED_SUFFIX)));
+	}
+
+	@Test
+	@DisplayName("Journal of unknown format is kept when storing a passphrase")
+	public void testUnknownJournalKept() throws KeychainAccessException, IOException {
+		byte[] unknown = {'f', 'u', 't', 'u', 'r', 'e', 0, 0, 0, 2};
+		Files.write(keychain.journalFile(), unknown);
+		var unknownJournal = keychain.journalFile().resolveSibling(keychain.journalFile().getFileName() + JournalKeychain.UNKNOWN_FORMAT_SUFFIX);
+		var provider = new WindowsKeychainAccessBaseTest.TestProvider(keychain, new WindowsKeychainAccessBaseTest.KeyedCryptor((byte) 1));
+
+		provider.storePassphrase("id1", "display", "pass1");
+
+		Assertions.assertArrayEquals(unknown, Files.readAllBytes(unknownJournal));
+		Assertions.assertArrayEquals("pass1".toCharArray(), provider.loadPassphrase("id1"));
+		Files.write(keychain.journalFile(), unknown);
+		Assertions.assertThrows(KeychainAccessException.class, () -> reopen().get("id1"));
+		Assertions.assertArrayEquals(unknown, Files.readAllBytes(keychain.journalFile()));
+	}
+
+	@Test
+	@DisplayName("Load fails without paths")
+	public void testNoPaths() {
+		var keychain = new JournalKeychain(List.of(), Durability.NONE, Long.MAX_VALUE);
+		Assertions.assertFalse(keychain.isSupported());
+		Assertions.assertThrows(KeychainAccessException.class, () -> keychain.get("id1"));
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.cryptomator.windows.keychain;
+
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class LazyKeychainMapTest {
+
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	private static final Map<String, KeychainEntry> CONTENT = Map.of( //
+			"cryptomator-device-p12", new KeychainEntry("foobar".getBytes(), "saltySalt".getBytes()), //
+			"äd3", new KeychainEntry("iAmAWalrus".getBytes(), "surlaw".getBytes()));
+
+	private static LazyKeychainMap parse(String json) throws IOException {
+		return LazyKeychainMap.parse(JSON_MAPPER, json.getBytes(UTF_8));
+	}
+
+	@Test
+	@DisplayName("Entries are decoded on first access")
+	public void testDecodedOnDemand() throws IOException {
+		var map = LazyKeychainMap.parse(JSON_MAPPER, JSON_MAPPER.writeValueAsBytes(CONTENT));
+
+		Assertions.assertEquals(2, map.size());
+		Assertions.assertFalse(map.isDecoded("äd3"));
+		Assertions.assertEquals(CONTENT.get("äd3"), map.get("äd3"));
+		Assertions.assertTrue(map.isDecoded("äd3"));
+		Assertions.assertFalse(map.isDecoded("cryptomator-device-p12"));
+		Assertions.assertEquals(CONTENT, map);
+	}
+
+	@Test
+	@DisplayName("File content is only referenced until all entries are decoded")
+	public void testFileContentReleased() throws IOException {
+		var map = LazyKeychainMap.parse(JSON_MAPPER, JSON_MAPPER.writeValueAsBytes(CONTENT));
+		var copy = map.copy();
+
+		map.get("äd3");
+		Assertions.assertTrue(map.refersToFileContent());
+		map.get("cryptomator-device-p12");
+		Assertions.assertFalse(map.refersToFileContent());
+		Assertions.assertTrue(copy.refersToFileContent());
+		copy.remove("äd3");
+		copy.put("cryptomator-device-p12", new KeychainEntry("bar".getBytes(), "baz".getBytes()));
+		Assertions.assertFalse(copy.refersToFileContent());
+	}
+
+	@Test
+	@DisplayName("Mutations are applied to lazy entries")
+	public void testMutations() throws IOException {
+		var map = LazyKeychainMap.parse(JSON_MAPPER, JSON_MAPPER.writeValueAsBytes(CONTENT));
+		var newEntry = new KeychainEntry("bar".getBytes(), "baz".getBytes());
+
+		Assertions.assertEquals(CONTENT.get("äd3"), map.put("äd3", newEntry));
+		Assertions.assertEquals(CONTENT.get("cryptomator-device-p12"), map.remove("cryptomator-device-p12"));
+		Assertions.assertNull(map.replace("foo", newEntry));
+		Assertions.assertEquals(Map.of("äd3", newEntry), map);
+	}
+
+	@Test
+	@DisplayName("Malformed entry is treated as absent")
+	public void testMalformedEntry() throws IOException {
+		var map = parse("""
+				{"valid":{"ciphertext":"Zm9v","salt":"YmFy"},"invalid":{"ciphertext":"%%%","salt":"YmFy"}}
+				""");
+
+		Assertions.assertNotNull(map.get("valid"));
+		Assertions.assertNull(map.get("invalid"));
+		Assertions.assertEquals(1, map.size());
+	}
+
+	@Test
+	@DisplayName("JSON null is an absent keychain")
+	public void testNull() throws IOException {
+		Assertions.assertNull(parse("null"));
+	}
+
+	@ParameterizedTest
+	@DisplayName("Malformed keychain is rejected")
+	@ValueSource(strings = {"[]", "{\"foo\":1}", "{\"foo\":{\"ciphertext\":\"Zm9v\"", "{\"foo\""})
+	public void testMalformedKeychain(String json) {
+		Assertions.assertThrows(JacksonException.class, () -> parse(json));
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.cryptomator.windows.keychain;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class NativeCryptorEventTest {
+
+	private static final String EVENT_NAME = "org.cryptomator.windows.keychain.NativeCryptorCall";
+
+	@Test
+	@DisplayName("Native calls are recorded with their outcome")
+	public void testRecorded() {
+		var events = record(() -> {
+			Assertions.assertArrayEquals(new byte[] {'c'}, NativeCryptorEvent.record("StandIn", "protect", () -> new byte[] {'c'}));
+			Assertions.assertNull(NativeCryptorEvent.record("StandIn", "unprotect", () -> null));
+			Assertions.assertEquals(3, NativeCryptorEvent.recordAll("StandIn", "protectAll", 3, () -> new byte[3][]).length);
+		});
+
+		Assertions.assertEquals(3, events.size());
+		assertEvent(events.get(0), "protect", 1, true);
+		assertEvent(events.get(1), "unprotect", 1, false);
+		assertEvent(events.get(2), "protectAll", 3, true);
+	}
+
+	@Test
+	@DisplayName("A throwing native call is recorded as failed")
+	public void testThrowing() {
+		var events = record(() -> Assertions.assertThrows(IllegalStateException.class, () -> NativeCryptorEvent.record("StandIn", "encrypt", () -> {
+			throw new IllegalStateException("fail");
+		})));
+
+		Assertions.assertEquals(1, events.size());
+		assertEvent(events.getFirst(), "encrypt", 1, false);
+	}
+
+	private static void assertEvent(RecordedEvent event, String function, int items, boolean succeeded) {
+		Assertions.assertEquals("StandIn", event.getString("cryptor"));
+		Assertions.assertEquals(function, event.getString("function"));
+		Assertions.assertEquals(items, event.getInt("items"));
+		Assertions.assertEquals(succeeded, event.getBoolean("succeeded"));
+	}
+
+	// returns the events emitted by the action in the order of their end
+	private static List<RecordedEvent> record(Runnable action) {
+		var events = new CopyOnWriteArrayList<RecordedEvent>();
+		try (var stream = new RecordingStream()) {
+			stream.enable(EVENT_NAME);
+			stream.onEvent(EVENT_NAME, events::add);
+			stream.startAsync();
+			action.run();
+			stream.stop();
+		}
+		events.sort((a, b) -> a.getEndTime().compareTo(b.getEndTime()));
+		return events;
+	}
+
+}
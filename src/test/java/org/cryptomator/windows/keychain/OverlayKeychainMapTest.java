@@ -0,0 +1,73 @@
+package org.cryptomator.windows.keychain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class OverlayKeychainMapTest {
+
+	private static final KeychainEntry ENTRY_1 = new KeychainEntry(new byte[] {'a'}, new byte[] {'s'});
+	private static final KeychainEntry ENTRY_2 = new KeychainEntry(new byte[] {'b'}, new byte[] {'t'});
+
+	private static KeychainEntry entry(int i) {
+		return new KeychainEntry(new byte[] {(byte) i}, new byte[] {'s'});
+	}
+
+	@Test
+	@DisplayName("Updates are visible in the new version only")
+	public void testUpdates() {
+		var base = Map.of("id1", ENTRY_1, "id2", ENTRY_2);
+		var original = OverlayKeychainMap.of(base);
+		var removal = new HashMap<String, KeychainEntry>();
+		removal.put("id1", null);
+
+		var updated = original.with(Map.of("id2", ENTRY_1, "id3", ENTRY_2)).with(removal);
+
+		Assertions.assertEquals(Map.of("id2", ENTRY_1, "id3", ENTRY_2), updated);
+		Assertions.assertEquals(2, updated.size());
+		Assertions.assertFalse(updated.containsKey("id1"));
+		Assertions.assertNull(updated.get(null));
+		Assertions.assertEquals(base, original);
+		Assertions.assertEquals(updated, updated.merged());
+		Assertions.assertEquals(0, updated.merged().changes());
+	}
+
+	@Test
+	@DisplayName("Changes are merged into a new base once they grow too large")
+	public void testMergedWhenTooLarge() {
+		var base = new HashMap<String, KeychainEntry>();
+		for (int i = 0; i < 10_000; i++) {
+			base.put("id" + i, entry(i));
+		}
+		var content = OverlayKeychainMap.of(Map.copyOf(base));
+
+		for (int i = 0; i < 100; i++) {
+			content = content.with(Map.of("id" + i, ENTRY_1));
+			Assertions.assertEquals(i + 1, content.changes());
+		}
+		content = content.with(Map.of("id100", ENTRY_1));
+
+		Assertions.assertEquals(0, content.changes());
+		Assertions.assertEquals(10_000, content.size());
+		Assertions.assertEquals(ENTRY_1, content.get("id100"));
+		Assertions.assertEquals(entry(101), content.get("id101"));
+	}
+
+	@Test
+	@DisplayName("Merging keeps entries of lazily parsed keychains encoded")
+	public void testMergeKeepsLazyEntries() throws IOException {
+		var mapper = new ObjectMapper();
+		var lazy = LazyKeychainMap.parse(mapper, mapper.writeValueAsBytes(Map.of("id1", ENTRY_1, "id2", ENTRY_2)));
+
+		var merged = OverlayKeychainMap.of(lazy).with(Map.of("id3", ENTRY_1)).merged();
+
+		Assertions.assertFalse(lazy.isDecoded("id1"));
+		Assertions.assertEquals(Map.of("id1", ENTRY_1, "id2", ENTRY_2, "id3", ENTRY_1), merged);
+	}
+
+}
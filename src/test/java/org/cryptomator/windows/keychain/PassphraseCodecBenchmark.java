@@ -0,0 +1,96 @@
+package org.cryptomator.windows.keychain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares converting passphrases via heap buffers of {@link java.nio.charset.Charset#encode(CharBuffer)} and {@link java.nio.charset.Charset#decode(ByteBuffer)}
+ * with {@link PassphraseCodec}. Run with {@code GCProfiler} to compare the allocations per operation.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PassphraseCodecBenchmark {
+
+	private static final String PASSPHRASE = "correct horse battery staple";
+	private static final byte[] CLEARTEXT = PASSPHRASE.getBytes(UTF_8);
+	private static final byte[] SALT = new byte[16];
+	private static final byte[] CIPHERTEXT = new byte[0];
+
+	// stands in for a native cryptor, which consumes the cleartext without copying it to the heap
+	private final WindowsKeychainAccessBase.PassphraseCryptor cryptor = new WindowsKeychainAccessBase.PassphraseCryptor() {
+		@Override
+		public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+			return CIPHERTEXT;
+		}
+
+		@Override
+		public byte[] encryptSegment(MemorySegment cleartext, byte[] additionalData) {
+			return CIPHERTEXT;
+		}
+
+		@Override
+		public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+			return CIPHERTEXT;
+		}
+
+		@Override
+		public boolean isSupported() {
+			return true;
+		}
+	};
+
+	@Benchmark
+	public byte[] encryptHeap() {
+		ByteBuffer buf = UTF_8.encode(CharBuffer.wrap(PASSPHRASE));
+		byte[] cleartext = new byte[buf.remaining()];
+		try {
+			buf.get(cleartext);
+			return cryptor.encrypt(cleartext, SALT);
+		} finally {
+			Arrays.fill(buf.array(), (byte) 0x00);
+			Arrays.fill(cleartext, (byte) 0x00);
+		}
+	}
+
+	@Benchmark
+	public byte[] encryptOffHeap() {
+		return PassphraseCodec.encrypt(PASSPHRASE, SALT, cryptor);
+	}
+
+	@Benchmark
+	public char[] decodeHeap() {
+		CharBuffer intermediate = UTF_8.decode(ByteBuffer.wrap(CLEARTEXT));
+		try {
+			char[] passphrase = new char[intermediate.remaining()];
+			intermediate.get(passphrase);
+			return passphrase;
+		} finally {
+			Arrays.fill(intermediate.array(), (char) 0x00);
+		}
+	}
+
+	@Benchmark
+	public char[] decodeOffHeap() {
+		return PassphraseCodec.decode(CLEARTEXT);
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.cryptomator.windows.keychain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class PassphraseCodecTest {
+
+	@ParameterizedTest
+	@DisplayName("Passphrases are encoded like Charset.encode and decoded like Charset.decode")
+	@ValueSource(strings = {"", "correct horse battery staple", "Grüße, 你好 🔐", "unpaired \uD800 surrogate"})
+	public void testRoundTrip(String passphrase) {
+		var expected = UTF_8.encode(passphrase);
+		var expectedBytes = new byte[expected.remaining()];
+		expected.get(expectedBytes);
+
+		var encoded = PassphraseCodec.encode(passphrase);
+		Assertions.assertArrayEquals(expectedBytes, encoded);
+		Assertions.assertArrayEquals(UTF_8.decode(ByteBuffer.wrap(encoded)).toString().toCharArray(), PassphraseCodec.decode(encoded));
+	}
+
+	@Test
+	@DisplayName("Malformed UTF-8 is replaced when decoding")
+	public void testMalformedInput() {
+		var malformed = new byte[] {'a', (byte) 0xC3, 'b'};
+		Assertions.assertArrayEquals(UTF_8.decode(ByteBuffer.wrap(malformed)).toString().toCharArray(), PassphraseCodec.decode(malformed));
+	}
+
+	@Test
+	@DisplayName("The cryptor receives the encoded passphrase off-heap, which is zeroed afterwards")
+	public void testEncrypt() {
+		var passphrase = CharBuffer.wrap(new char[] {'a', 'b', 'c'});
+		var received = new MemorySegment[1];
+		var cryptor = new EnvelopeCryptorTest.FakeOsCryptor() {
+			@Override
+			public byte[] encryptSegment(MemorySegment cleartext, byte[] additionalData) {
+				received[0] = cleartext;
+				Assertions.assertTrue(cleartext.isNative());
+				return cleartext.toArray(ValueLayout.JAVA_BYTE);
+			}
+		};
+
+		var result = PassphraseCodec.encrypt(passphrase, new byte[] {'s'}, cryptor);
+
+		Assertions.assertArrayEquals(new byte[] {'a', 'b', 'c'}, result);
+		Assertions.assertArrayEquals(new byte[3], received[0].toArray(ValueLayout.JAVA_BYTE));
+	}
+
+	@Test
+	@DisplayName("A cryptor converting passphrases itself uses another buffer")
+	public void testNestedConversion() {
+		var cryptor = new EnvelopeCryptorTest.FakeOsCryptor() {
+			@Override
+			public byte[] encryptSegment(MemorySegment cleartext, byte[] additionalData) {
+				var nested = PassphraseCodec.encode("xyz");
+				Assertions.assertArrayEquals(new byte[] {'x', 'y', 'z'}, nested);
+				return cleartext.toArray(ValueLayout.JAVA_BYTE);
+			}
+		};
+
+		var result = PassphraseCodec.encrypt("abc", new byte[] {'s'}, cryptor);
+
+		Assertions.assertArrayEquals(new byte[] {'a', 'b', 'c'}, result);
+	}
+
+	@Test
+	@DisplayName("Buffers are pooled up to a bound, regardless of the number of threads")
+	public void testPoolBounded() throws InterruptedException {
+		var threads = new ArrayList<Thread>();
+		int threadCount = 4 * PassphraseCodec.POOL_SIZE;
+		var acquired = new CountDownLatch(threadCount);
+		var latch = new CountDownLatch(1);
+		for (int i = 0; i < threadCount; i++) {
+			threads.add(Thread.ofVirtual().start(() -> {
+				var cryptor = new EnvelopeCryptorTest.FakeOsCryptor() {
+					@Override
+					public byte[] encryptSegment(MemorySegment cleartext, byte[] additionalData) {
+						acquired.countDown();
+						try {
+							latch.await(); //keeps all buffers in use at the same time
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return cleartext.toArray(ValueLayout.JAVA_BYTE);
+					}
+				};
+				PassphraseCodec.encrypt("abc", new byte[] {'s'}, cryptor);
+			}));
+		}
+		acquired.await();
+		latch.countDown();
+		for (var thread : threads) {
+			thread.join();
+		}
+
+		Assertions.assertEquals(PassphraseCodec.POOL_SIZE, PassphraseCodec.pooled());
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.cryptomator.windows.keychain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares salts derived from {@link UUID#randomUUID()}, which share a single {@link java.security.SecureRandom}, with the per-thread DRBGs of {@link SaltGenerator}.
+ * The contended variants run on four threads.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SaltGeneratorBenchmark {
+
+	private final byte[] buffer = new byte[SaltGenerator.SALT_SIZE];
+
+	@Benchmark
+	public byte[] uuid() {
+		return uuidSalt();
+	}
+
+	@Benchmark
+	public byte[] drbg() {
+		return SaltGenerator.generateSalt();
+	}
+
+	@Benchmark
+	public byte[] drbgIntoBuffer() {
+		SaltGenerator.nextBytes(buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] uuidContended() {
+		return uuidSalt();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] drbgContended() {
+		return SaltGenerator.generateSalt();
+	}
+
+	// the former implementation of Util.generateSalt()
+	private static byte[] uuidSalt() {
+		byte[] result = new byte[2 * Long.BYTES];
+		UUID uuid = UUID.randomUUID();
+		ByteBuffer buf = ByteBuffer.wrap(result);
+		buf.putLong(uuid.getMostSignificantBits());
+		buf.putLong(uuid.getLeastSignificantBits());
+		return result;
+	}
+
+}
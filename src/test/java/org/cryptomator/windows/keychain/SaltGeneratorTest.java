@@ -0,0 +1,69 @@
+package org.cryptomator.windows.keychain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+
+public class SaltGeneratorTest {
+
+	@Test
+	@DisplayName("Salts are distinct, also among threads")
+	public void testDistinctSalts() throws InterruptedException {
+		var salts = new HashSet<String>();
+		var threads = new ArrayList<Thread>();
+		for (var builder : List.of(Thread.ofPlatform(), Thread.ofPlatform(), Thread.ofVirtual(), Thread.ofVirtual())) {
+			threads.add(builder.start(() -> {
+				for (int i = 0; i < 1000; i++) {
+					var salt = SaltGenerator.generateSalt();
+					Assertions.assertEquals(SaltGenerator.SALT_SIZE, salt.length);
+					synchronized (salts) {
+						salts.add(HexFormat.of().formatHex(salt));
+					}
+				}
+			}));
+		}
+		for (var thread : threads) {
+			thread.join();
+		}
+		Assertions.assertEquals(4000, salts.size());
+	}
+
+	@Test
+	@DisplayName("Segments are filled entirely, also beyond the size of a chunk")
+	public void testFillSegment() {
+		try (var arena = Arena.ofConfined()) {
+			var segment = arena.allocate(1000);
+			SaltGenerator.fill(segment);
+
+			var bytes = segment.toArray(ValueLayout.JAVA_BYTE);
+			var distinct = new HashSet<Byte>();
+			for (var b : bytes) {
+				distinct.add(b);
+			}
+			Assertions.assertTrue(distinct.size() > 100);
+			Assertions.assertNotEquals(0, bytes[bytes.length - 1] | bytes[bytes.length - 2] | bytes[bytes.length - 3] | bytes[bytes.length - 4]);
+		}
+	}
+
+	@Test
+	@DisplayName("DRBGs are reseeded periodically")
+	public void testReseed() {
+		var drbg = new SaltGenerator.Drbg();
+		var buffer = new byte[(int) (SaltGenerator.RESEED_INTERVAL / 4)];
+		for (int i = 0; i < 4; i++) {
+			drbg.nextBytes(buffer);
+		}
+		Assertions.assertEquals(0, drbg.reseeds());
+
+		drbg.nextBytes(buffer);
+		Assertions.assertEquals(1, drbg.reseeds());
+	}
+
+}
@@ -0,0 +1,173 @@
+package org.cryptomator.windows.keychain;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+public class SecretCacheTest {
+
+	private static final char[] PASSPHRASE = {'f', 'o', 'o'};
+
+	private long now = 0;
+	private final SecretCache cache = new SecretCache(Duration.ofMinutes(1), Duration.ofMinutes(5), () -> now);
+
+	@AfterEach
+	public void teardown() {
+		cache.close();
+	}
+
+	private void advance(Duration duration) {
+		now += duration.toNanos();
+	}
+
+	@Test
+	@DisplayName("Cached passphrases are returned as copies")
+	public void testCopies() {
+		cache.put("id", PASSPHRASE, cache.stamp());
+
+		var first = cache.get("id");
+		first[0] = 'x';
+
+		Assertions.assertArrayEquals(PASSPHRASE, cache.get("id"));
+		Assertions.assertNull(cache.get("other"));
+	}
+
+	@Test
+	@DisplayName("Passphrases not accessed within the idle timeout expire")
+	public void testIdleTimeout() {
+		cache.put("id", PASSPHRASE, cache.stamp());
+
+		advance(Duration.ofSeconds(50));
+		Assertions.assertNotNull(cache.get("id"));
+		advance(Duration.ofSeconds(50));
+		Assertions.assertNotNull(cache.get("id"));
+		advance(Duration.ofSeconds(60));
+		Assertions.assertNull(cache.get("id"));
+		Assertions.assertEquals(0, cache.size());
+	}
+
+	@Test
+	@DisplayName("Passphrases expire after the absolute timeout, even if accessed")
+	public void testMaxTimeout() {
+		cache.put("id", PASSPHRASE, cache.stamp());
+
+		for (int i = 0; i < 9; i++) {
+			advance(Duration.ofSeconds(30));
+			Assertions.assertNotNull(cache.get("id"));
+		}
+		advance(Duration.ofSeconds(30));
+		Assertions.assertNull(cache.get("id"));
+	}
+
+	@Test
+	@DisplayName("Expired passphrases are swept without access")
+	public void testSweep() {
+		cache.put("id1", PASSPHRASE, cache.stamp());
+		advance(Duration.ofSeconds(30));
+		cache.put("id2", PASSPHRASE, cache.stamp());
+		advance(Duration.ofSeconds(40));
+
+		cache.sweep();
+
+		Assertions.assertEquals(1, cache.size());
+		Assertions.assertNotNull(cache.get("id2"));
+	}
+
+	@Test
+	@DisplayName("Passphrases read before an invalidation are not cached")
+	public void testStamp() {
+		long stamp = cache.stamp();
+		cache.invalidate(List.of("id"));
+
+		cache.put("id", PASSPHRASE, stamp);
+
+		Assertions.assertNull(cache.get("id"));
+	}
+
+	@Test
+	@DisplayName("A sealed cache is empty and does not cache passphrases until unsealed")
+	public void testSeal() {
+		cache.put("id", PASSPHRASE, cache.stamp());
+
+		cache.seal();
+		cache.put("id", PASSPHRASE, cache.stamp());
+
+		Assertions.assertTrue(cache.isSealed());
+		Assertions.assertNull(cache.get("id"));
+		cache.unseal();
+		cache.put("id", PASSPHRASE, cache.stamp());
+		Assertions.assertFalse(cache.isSealed());
+		Assertions.assertArrayEquals(PASSPHRASE, cache.get("id"));
+	}
+
+	@Test
+	@DisplayName("Passphrases longer than a slot are stored in several slots")
+	public void testLongPassphrase() {
+		var passphrase = new char[SecretCache.SLOT_CHARS * 2 + 1];
+		Arrays.fill(passphrase, 'x');
+		passphrase[SecretCache.SLOT_CHARS] = 'y';
+
+		cache.put("id", passphrase, cache.stamp());
+
+		Assertions.assertArrayEquals(passphrase, cache.get("id"));
+	}
+
+	@Test
+	@DisplayName("Slots of evicted passphrases are zeroed and reused")
+	public void testSlotsReused() {
+		for (int i = 0; i < 1000; i++) {
+			cache.put("id" + (i % 10), PASSPHRASE, cache.stamp());
+		}
+		int allocated = cache.allocatedSlots();
+		Assertions.assertTrue(allocated < 1000);
+		cache.invalidate(List.of("id0", "id1"));
+
+		cache.put("id0", new char[] {'b', 'a'}, cache.stamp());
+
+		Assertions.assertEquals(allocated, cache.allocatedSlots());
+		Assertions.assertArrayEquals(new char[] {'b', 'a'}, cache.get("id0"));
+		Assertions.assertArrayEquals(PASSPHRASE, cache.get("id2"));
+	}
+
+	@Test
+	@DisplayName("Sweeping stops once the cache is empty and resumes with the next passphrase")
+	public void testSweeperStops() {
+		cache.put("id", PASSPHRASE, cache.stamp());
+		Assertions.assertTrue(cache.isSweeping());
+
+		advance(Duration.ofMinutes(2));
+		cache.sweep();
+
+		Assertions.assertEquals(0, cache.size());
+		Assertions.assertFalse(cache.isSweeping());
+		cache.put("id", PASSPHRASE, cache.stamp());
+		Assertions.assertTrue(cache.isSweeping());
+	}
+
+	@Test
+	@DisplayName("A closed cache is empty and does not cache passphrases anymore")
+	public void testClose() {
+		cache.put("id", PASSPHRASE, cache.stamp());
+
+		cache.close();
+		cache.unseal();
+		cache.put("id", PASSPHRASE, cache.stamp());
+
+		Assertions.assertNull(cache.get("id"));
+		Assertions.assertEquals(0, cache.size());
+		Assertions.assertFalse(cache.isSweeping());
+		Assertions.assertDoesNotThrow(cache::close);
+	}
+
+	@Test
+	@DisplayName("At least one timeout is required")
+	public void testNoTimeout() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new SecretCache(Duration.ZERO, Duration.ZERO));
+	}
+
+}
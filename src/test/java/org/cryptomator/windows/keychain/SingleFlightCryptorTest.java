@@ -0,0 +1,188 @@
+package org.cryptomator.windows.keychain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightCryptorTest {
+
+	private static final int THREADS = 8;
+	private static final byte[] SALT = {'s'};
+
+	@Test
+	@DisplayName("Concurrent callers share a single unlock")
+	public void testSingleUnlock() throws InterruptedException {
+		var fake = new FakeCryptor(0, null);
+		var cryptor = new SingleFlightCryptor(UUID.randomUUID().toString(), fake);
+
+		var results = callConcurrently(cryptor);
+
+		Assertions.assertEquals(1, fake.unlocks.get());
+		Assertions.assertEquals(1, fake.maxConcurrentUnlocks.get());
+		Assertions.assertEquals(THREADS, fake.calls.get());
+		results.forEach(result -> Assertions.assertArrayEquals(new byte[] {'x'}, result));
+	}
+
+	@Test
+	@DisplayName("Callers continue in parallel after the unlock")
+	public void testParallelAfterUnlock() throws InterruptedException {
+		var barrier = new CyclicBarrier(THREADS);
+		var fake = new FakeCryptor(0, barrier);
+		var cryptor = new SingleFlightCryptor(UUID.randomUUID().toString(), fake);
+		cryptor.decrypt(new byte[] {'x'}, SALT);
+
+		var results = callConcurrently(cryptor);
+
+		Assertions.assertFalse(barrier.isBroken(), "Calls were serialized");
+		results.forEach(result -> Assertions.assertArrayEquals(new byte[] {'x'}, result));
+	}
+
+	@Test
+	@DisplayName("A failed unlock is retried by the next caller")
+	public void testFailedUnlock() throws InterruptedException {
+		var fake = new FakeCryptor(1, null);
+		var cryptor = new SingleFlightCryptor(UUID.randomUUID().toString(), fake);
+
+		var results = callConcurrently(cryptor);
+
+		Assertions.assertEquals(2, fake.unlocks.get());
+		Assertions.assertEquals(1, fake.maxConcurrentUnlocks.get());
+		Assertions.assertEquals(1, results.stream().filter(result -> result == null).count());
+	}
+
+	@Test
+	@DisplayName("A call failing after the unlock makes the next unlock shared again")
+	public void testFailureAfterUnlock() throws InterruptedException {
+		var fake = new FakeCryptor(0, null);
+		var cryptor = new SingleFlightCryptor(UUID.randomUUID().toString(), fake);
+		cryptor.decrypt(new byte[] {'x'}, SALT);
+
+		fake.lock(1);
+		Assertions.assertNull(cryptor.decrypt(new byte[] {'x'}, SALT));
+		var results = callConcurrently(cryptor);
+
+		Assertions.assertEquals(3, fake.unlocks.get());
+		Assertions.assertEquals(1, fake.maxConcurrentUnlocks.get());
+		results.forEach(result -> Assertions.assertArrayEquals(new byte[] {'x'}, result));
+	}
+
+	@Test
+	@DisplayName("Instances for the same key id share their state")
+	public void testSharedKeyId() {
+		var keyId = UUID.randomUUID().toString();
+		var fake = new FakeCryptor(0, null);
+		new SingleFlightCryptor(keyId, fake).decrypt(new byte[] {'x'}, SALT);
+		new SingleFlightCryptor(keyId, fake).decrypt(new byte[] {'x'}, SALT);
+		new SingleFlightCryptor(UUID.randomUUID().toString(), new FakeCryptor(0, null)).decrypt(new byte[] {'x'}, SALT);
+
+		Assertions.assertEquals(1, fake.unlocks.get());
+		Assertions.assertEquals(2, fake.calls.get());
+	}
+
+	private static List<byte[]> callConcurrently(SingleFlightCryptor cryptor) throws InterruptedException {
+		var start = new CountDownLatch(1);
+		var results = new ArrayList<byte[]>();
+		var threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			threads.add(Thread.ofPlatform().start(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				var result = cryptor.decrypt(new byte[] {'x'}, SALT);
+				synchronized (results) {
+					results.add(result);
+				}
+			}));
+		}
+		start.countDown();
+		for (var thread : threads) {
+			thread.join();
+		}
+		Assertions.assertEquals(THREADS, results.size());
+		return results;
+	}
+
+	/**
+	 * Returns the ciphertext as cleartext. Requires an unlock, simulated by a slow first call, which fails the given number of times, e.g. as the user cancelled the prompt.
+	 * Once unlocked, calls wait for each other at the given barrier, if any.
+	 */
+	static class FakeCryptor implements WindowsKeychainAccessBase.PassphraseCryptor {
+
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger unlocks = new AtomicInteger();
+		final AtomicInteger maxConcurrentUnlocks = new AtomicInteger();
+		private final AtomicInteger concurrentUnlocks = new AtomicInteger();
+		private final AtomicInteger remainingFailures;
+		private final CyclicBarrier barrier;
+		private volatile boolean unlocked;
+
+		FakeCryptor(int failures, CyclicBarrier barrier) {
+			this.remainingFailures = new AtomicInteger(failures);
+			this.barrier = barrier;
+		}
+
+		// requires another unlock, e.g. as the key has been deleted
+		void lock(int failures) {
+			remainingFailures.set(failures);
+			unlocked = false;
+		}
+
+		@Override
+		public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+			return decrypt(cleartext, additionalData);
+		}
+
+		@Override
+		public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+			calls.incrementAndGet();
+			if (!unlocked) {
+				return unlock() ? ciphertext.clone() : null;
+			}
+			if (barrier != null) {
+				try {
+					barrier.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+					barrier.reset();
+				}
+			}
+			return ciphertext.clone();
+		}
+
+		private boolean unlock() {
+			unlocks.incrementAndGet();
+			maxConcurrentUnlocks.accumulateAndGet(concurrentUnlocks.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(50); //prompt
+				if (remainingFailures.getAndDecrement() > 0) {
+					return false;
+				}
+				unlocked = true;
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} finally {
+				concurrentUnlocks.decrementAndGet();
+			}
+		}
+
+		@Override
+		public boolean isSupported() {
+			return true;
+		}
+	}
+
+}
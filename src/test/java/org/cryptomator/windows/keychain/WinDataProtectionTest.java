@@ -20,4 +20,15 @@ public class WinDataProtectionTest {
 		Assertions.assertArrayEquals(storedPw.getBytes(), cleartext);
 	}
 
+	@Test
+	public void testBatchRequiresSaltPerInput() {
+		WinDataProtection dataProtection = new WinDataProtection();
+		byte[][] salts = {"salt".getBytes()};
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> dataProtection.encryptAll(new byte[][] {{'a'}, {'b'}}, salts));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> dataProtection.decryptAll(new byte[0][], salts));
+		Assertions.assertThrows(NullPointerException.class, () -> dataProtection.encryptAll(new byte[][] {null}, salts));
+		Assertions.assertThrows(NullPointerException.class, () -> dataProtection.decryptAll(new byte[][] {{'a'}}, new byte[][] {null}));
+	}
+
 }
\ No newline at end of file
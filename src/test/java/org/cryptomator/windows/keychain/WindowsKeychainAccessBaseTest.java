@@ -2,10 +2,32 @@ package org.cryptomator.windows.keychain;
 
 import org.cryptomator.integrations.common.DisplayName;
 import org.cryptomator.integrations.keychain.KeychainAccessException;
+import org.cryptomator.windows.keychain.metrics.InMemoryKeychainMetrics;
+import org.cryptomator.windows.keychain.metrics.KeychainMetrics;
+import org.cryptomator.windows.keychain.metrics.KeychainOperation;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Path;
+
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 import static org.cryptomator.windows.keychain.WindowsKeychainAccessBase.Keychain;
 import static org.cryptomator.windows.keychain.WindowsKeychainAccessBase.PassphraseCryptor;
@@ -15,7 +37,7 @@ import static org.mockito.Mockito.*;
 
 public class WindowsKeychainAccessBaseTest {
 
-	PassphraseCryptor passphraseCryptor = mock(PassphraseCryptor.class);
+	PassphraseCryptor passphraseCryptor = mock(PassphraseCryptor.class, withSettings().defaultAnswer(CALLS_REAL_METHODS)); //batch methods delegate to the stubbed per-item methods
 	Keychain keychain = mock(Keychain.class);
 	WindowsKeychainAccessBase winKeychainBase = new TestProvider(keychain, passphraseCryptor);
 
@@ -37,6 +59,45 @@ public class WindowsKeychainAccessBaseTest {
 		verify(passphraseCryptor).encrypt(any(), any());
 	}
 
+	@Test
+	public void storePassphrasesPutsAllIntoKeychain() throws KeychainAccessException {
+		var encrypted = new byte[] {'a','b','x'};
+		when(passphraseCryptor.encrypt(any(), any())).thenReturn(encrypted);
+		winKeychainBase.storePassphrases(Map.of("test3000", "abc", "test3001", "def"));
+		verify(keychain).putAll(argThat(entries -> entries.keySet().equals(Set.of("test3000", "test3001")) //
+				&& entries.values().stream().allMatch(entry -> Arrays.equals(entry.ciphertext(), encrypted))));
+		verify(passphraseCryptor, times(2)).encrypt(any(), any());
+	}
+
+	@Test
+	public void storePassphrasesStoresNothingIfAnyEncryptionFails() throws KeychainAccessException {
+		when(passphraseCryptor.encrypt(any(), any())).thenReturn(new byte[] {'x'}).thenReturn(null);
+		Assertions.assertThrows(KeychainAccessException.class, //
+				() -> winKeychainBase.storePassphrases(Map.of("test3000", "abc", "test3001", "def")) //
+		);
+		verify(keychain, never()).putAll(any());
+	}
+
+	@Test
+	public void reservedIdIsRejected() {
+		var reserved = EnvelopeCryptor.DATA_KEY_ID;
+		when(passphraseCryptor.encrypt(any(), any())).thenReturn(new byte[] {'x'});
+
+		Assertions.assertThrows(KeychainAccessException.class, () -> winKeychainBase.loadPassphrase(reserved));
+		Assertions.assertThrows(KeychainAccessException.class, () -> winKeychainBase.loadPassphrases(List.of("test3000", reserved)));
+		Assertions.assertThrows(KeychainAccessException.class, () -> winKeychainBase.storePassphrase(reserved, "display3000", "abc"));
+		Assertions.assertThrows(KeychainAccessException.class, () -> winKeychainBase.storePassphrases(Map.of(reserved, "abc")));
+		Assertions.assertThrows(KeychainAccessException.class, () -> winKeychainBase.changePassphrase(reserved, "display3000", "abc"));
+		Assertions.assertThrows(KeychainAccessException.class, () -> winKeychainBase.deletePassphrase(reserved));
+		var async = List.of(winKeychainBase.loadPassphraseAsync(reserved), winKeychainBase.storePassphraseAsync(reserved, "display3000", "abc"), //
+				winKeychainBase.changePassphraseAsync(reserved, "display3000", "abc"), winKeychainBase.deletePassphraseAsync(reserved));
+		for (var future : async) {
+			var e = Assertions.assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+			Assertions.assertInstanceOf(KeychainAccessException.class, e.getCause());
+		}
+		verifyNoInteractions(keychain);
+	}
+
 	@Test
 	public void loadPassphraseReturnsNullOnKeychainNull() throws KeychainAccessException {
 		when(keychain.get("test3000")).thenReturn(null);
@@ -77,11 +138,507 @@ public class WindowsKeychainAccessBaseTest {
 		Assertions.assertArrayEquals(new char[] {'a', 'b', 'c'}, result);
 	}
 
+	@Test
+	public void mutationsOfSameIdAreSerialized() throws KeychainAccessException, InterruptedException {
+		var stripes = new StripedLocks(StripedLocks.DEFAULT_STRIPES);
+		Assertions.assertNotSame(stripes.lockFor("test3000"), stripes.lockFor("test3001"));
+		when(passphraseCryptor.encrypt(any(), any())).thenReturn(new byte[] {'x'});
+		var inFirstPut = new CountDownLatch(1);
+		var finishFirstPut = new CountDownLatch(1);
+		when(keychain.put(eq("test3000"), any())).thenAnswer(invocation -> {
+			inFirstPut.countDown();
+			finishFirstPut.await();
+			return null;
+		});
+
+		var first = Thread.ofPlatform().start(() -> storeQuietly("test3000"));
+		inFirstPut.await();
+		var sameId = Thread.ofPlatform().start(() -> storeQuietly("test3000"));
+		winKeychainBase.storePassphrase("test3001", "display3001", "abc");
+
+		Assertions.assertFalse(sameId.join(Duration.ofMillis(50)));
+		verify(keychain, times(1)).put(eq("test3000"), any());
+		verify(keychain).put(eq("test3001"), any());
+		finishFirstPut.countDown();
+		first.join();
+		sameId.join();
+		verify(keychain, times(2)).put(eq("test3000"), any());
+	}
+
+	@Test
+	public void preloadInitializesKeychainAndCryptor() throws KeychainAccessException {
+		var preloading = new TestProvider(keychain, passphraseCryptor, true);
+
+		preloading.preloaded().join();
+
+		verify(keychain).preload();
+		verify(passphraseCryptor).preload();
+	}
+
+	@Test
+	public void preloadFailureIsIgnored() throws KeychainAccessException {
+		doThrow(new KeychainAccessException("broken")).when(keychain).preload();
+
+		var preloading = new TestProvider(keychain, passphraseCryptor, true);
+
+		Assertions.assertDoesNotThrow(() -> preloading.preloaded().join());
+		verify(passphraseCryptor).preload();
+	}
+
+	@Test
+	public void noPreloadByDefault() throws KeychainAccessException {
+		Assertions.assertTrue(winKeychainBase.preloaded().isDone());
+		verify(keychain, never()).preload();
+		verify(passphraseCryptor, never()).preload();
+	}
+
+	@Test
+	public void loadPassphraseUsesCache() throws KeychainAccessException {
+		var caching = new TestProvider(keychain, passphraseCryptor, new SecretCache(Duration.ofMinutes(1), Duration.ZERO));
+		byte [] ciphertext = {'x','y','z'};
+		byte [] salt = {'s'};
+		when(keychain.get("test3000")).thenReturn(new KeychainEntry(ciphertext, salt));
+		when(passphraseCryptor.decrypt(ciphertext, salt)).thenAnswer(invocation -> new byte[] {'a','b','c'});
+
+		Assertions.assertArrayEquals(new char[] {'a', 'b', 'c'}, caching.loadPassphrase("test3000"));
+		Assertions.assertArrayEquals(new char[] {'a', 'b', 'c'}, caching.loadPassphrase("test3000"));
+		verify(passphraseCryptor, times(1)).decrypt(ciphertext, salt);
+
+		when(passphraseCryptor.encrypt(any(), any())).thenReturn(new byte[] {'x'});
+		caching.changePassphrase("test3000", "display3000", "def");
+		caching.loadPassphrase("test3000");
+		verify(passphraseCryptor, times(2)).decrypt(ciphertext, salt);
+	}
+
+	@Test
+	public void lockSealsCache() throws KeychainAccessException {
+		var caching = new TestProvider(keychain, passphraseCryptor, new SecretCache(Duration.ofMinutes(1), Duration.ZERO));
+		byte [] ciphertext = {'x','y','z'};
+		byte [] salt = {'s'};
+		when(keychain.get("test3000")).thenReturn(new KeychainEntry(ciphertext, salt));
+		when(passphraseCryptor.decrypt(ciphertext, salt)).thenAnswer(invocation -> new byte[] {'a','b','c'});
+		caching.loadPassphrase("test3000");
+
+		caching.lock();
+		Assertions.assertTrue(caching.isLocked());
+		caching.loadPassphrase("test3000");
+		caching.loadPassphrase("test3000");
+		verify(passphraseCryptor, times(3)).decrypt(ciphertext, salt);
+
+		caching.unlock();
+		Assertions.assertFalse(caching.isLocked());
+		caching.loadPassphrase("test3000");
+		caching.loadPassphrase("test3000");
+		verify(passphraseCryptor, times(4)).decrypt(ciphertext, salt);
+	}
+
+	@Test
+	public void notLockedWithoutCache() {
+		winKeychainBase.lock();
+		Assertions.assertFalse(winKeychainBase.isLocked());
+	}
+
+	@Test
+	public void loadPassphrasesDecryptsAllInOneBatch() throws KeychainAccessException {
+		byte [] salt = {'s'};
+		when(keychain.get("test3000")).thenReturn(new KeychainEntry(new byte[] {'x'}, salt));
+		when(keychain.get("test3001")).thenReturn(new KeychainEntry(new byte[] {'y'}, salt));
+		when(keychain.get("test3002")).thenReturn(new KeychainEntry(new byte[] {'z'}, salt));
+		doReturn(new byte[][] {{'a'}, {'b'}, null}).when(passphraseCryptor).decryptAll(any(), any());
+
+		var result = winKeychainBase.loadPassphrases(List.of("test3000", "test3001", "test3002", "test3003"));
+
+		Assertions.assertEquals(Set.of("test3000", "test3001"), result.keySet());
+		Assertions.assertArrayEquals(new char[] {'a'}, result.get("test3000"));
+		Assertions.assertArrayEquals(new char[] {'b'}, result.get("test3001"));
+		verify(passphraseCryptor).decryptAll(argThat(ciphertexts -> ciphertexts.length == 3), any());
+		verify(passphraseCryptor, never()).decrypt(any(), any());
+	}
+
+	@Test
+	public void loadPassphrasesSkipsCachedPassphrases() throws KeychainAccessException {
+		var caching = new TestProvider(keychain, passphraseCryptor, new SecretCache(Duration.ofMinutes(1), Duration.ZERO));
+		byte [] salt = {'s'};
+		when(keychain.get("test3000")).thenReturn(new KeychainEntry(new byte[] {'x'}, salt));
+		when(keychain.get("test3001")).thenReturn(new KeychainEntry(new byte[] {'y'}, salt));
+		when(passphraseCryptor.decrypt(new byte[] {'x'}, salt)).thenAnswer(invocation -> new byte[] {'a'});
+		when(passphraseCryptor.decrypt(new byte[] {'y'}, salt)).thenAnswer(invocation -> new byte[] {'b'});
+		caching.loadPassphrase("test3000");
+
+		var result = caching.loadPassphrases(List.of("test3000", "test3001"));
+
+		Assertions.assertArrayEquals(new char[] {'a'}, result.get("test3000"));
+		Assertions.assertArrayEquals(new char[] {'b'}, result.get("test3001"));
+		verify(passphraseCryptor).decryptAll(argThat(ciphertexts -> ciphertexts.length == 1), any());
+		verify(passphraseCryptor, times(1)).decrypt(new byte[] {'x'}, salt);
+	}
+
+	@Test
+	public void loadPassphraseAsyncReadsOnVirtualAndDecryptsOnPlatformThread() throws Exception {
+		byte [] ciphertext = {'x','y','z'};
+		byte [] salt = {'s'};
+		var readVirtually = new boolean[1];
+		var decryptedVirtually = new boolean[] {true};
+		when(keychain.get("test3000")).thenAnswer(invocation -> {
+			readVirtually[0] = Thread.currentThread().isVirtual();
+			return new KeychainEntry(ciphertext, salt);
+		});
+		when(passphraseCryptor.decrypt(ciphertext, salt)).thenAnswer(invocation -> {
+			decryptedVirtually[0] = Thread.currentThread().isVirtual();
+			return new byte[] {'a','b','c'};
+		});
+		var passphrase = winKeychainBase.loadPassphraseAsync("test3000").get(10, TimeUnit.SECONDS);
+		Assertions.assertArrayEquals(new char[] {'a','b','c'}, passphrase);
+		Assertions.assertTrue(readVirtually[0]);
+		Assertions.assertFalse(decryptedVirtually[0]);
+	}
+
+	@Test
+	public void loadPassphraseAsyncOfMissingEntry() throws Exception {
+		Assertions.assertNull(winKeychainBase.loadPassphraseAsync("test3000").get(10, TimeUnit.SECONDS));
+		verify(passphraseCryptor, never()).decrypt(any(), any());
+	}
+
+	@Test
+	public void cancelledLoadPassphraseAsyncSkipsDecryption() throws Exception {
+		var reading = new CountDownLatch(1);
+		var proceed = new CountDownLatch(1);
+		var reader = new AtomicReference<Thread>();
+		when(keychain.get("test3000")).thenAnswer(invocation -> {
+			reader.set(Thread.currentThread());
+			reading.countDown();
+			proceed.await();
+			return new KeychainEntry(new byte[] {'x'}, new byte[] {'s'});
+		});
+		var future = winKeychainBase.loadPassphraseAsync("test3000");
+		reading.await();
+		future.cancel(true);
+		proceed.countDown();
+		Assertions.assertThrows(CancellationException.class, future::join);
+		Assertions.assertTrue(reader.get().join(Duration.ofSeconds(10))); //no decryption step is handed over after this
+		verify(passphraseCryptor, never()).decrypt(any(), any());
+	}
+
+	@Test
+	public void loadPassphraseAsyncTimesOut() throws Exception {
+		var proceed = new CountDownLatch(1);
+		when(keychain.get("test3000")).thenAnswer(invocation -> {
+			proceed.await();
+			return null;
+		});
+		var future = winKeychainBase.loadPassphraseAsync("test3000").orTimeout(50, TimeUnit.MILLISECONDS);
+		var e = Assertions.assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+		Assertions.assertInstanceOf(TimeoutException.class, e.getCause());
+		proceed.countDown();
+	}
+
+	@Test
+	public void loadPassphraseThrowsAfterCryptorDeadline() throws KeychainAccessException {
+		var cryptor = new CryptorDeadlineTest.BlockingCryptor(true);
+		var provider = new TestProvider(keychain, cryptor, Duration.ofMillis(100));
+		when(keychain.get("test3000")).thenReturn(new KeychainEntry(new byte[] {'x'}, new byte[] {'s'}));
+
+		Assertions.assertThrows(CryptorTimeoutException.class, () -> provider.loadPassphrase("test3000"));
+		Assertions.assertEquals(1, cryptor.cancellations.get());
+	}
+
+	@Test
+	public void storePassphraseAsyncFailsAfterCryptorDeadline() {
+		var cryptor = new CryptorDeadlineTest.BlockingCryptor(true);
+		var provider = new TestProvider(keychain, cryptor, Duration.ofMillis(100));
+
+		var e = Assertions.assertThrows(ExecutionException.class, () -> provider.storePassphraseAsync("test3000", "display3000", "abc").get(10, TimeUnit.SECONDS));
+		Assertions.assertInstanceOf(CryptorTimeoutException.class, e.getCause());
+		verifyNoInteractions(keychain);
+	}
+
+	@Test
+	public void operationsReportMetrics() throws KeychainAccessException {
+		var metrics = new InMemoryKeychainMetrics();
+		KeychainMetrics.addListener(metrics);
+		try {
+			var provider = new TestProvider(keychain, new MeasuredCryptor("TestCryptor", passphraseCryptor));
+			when(passphraseCryptor.encrypt(any(), any())).thenReturn(new byte[] {'x'});
+			when(passphraseCryptor.decrypt(any(), any())).thenReturn(null);
+			when(keychain.get("test3000")).thenReturn(new KeychainEntry(new byte[] {'x'}, new byte[] {'s'}));
+			when(keychain.get("test3001")).thenThrow(new KeychainAccessException("broken"));
+
+			provider.storePassphrase("test3000", "display3000", "abc");
+			Assertions.assertNull(provider.loadPassphrase("test3000"));
+			Assertions.assertThrows(KeychainAccessException.class, () -> provider.loadPassphrase("test3001"));
+			provider.deletePassphrase("test3000");
+
+			Assertions.assertEquals(1, metrics.count("TestProvider", KeychainOperation.STORE_PASSPHRASE));
+			Assertions.assertEquals(2, metrics.count("TestProvider", KeychainOperation.LOAD_PASSPHRASE));
+			Assertions.assertEquals(1, metrics.failures("TestProvider", KeychainOperation.LOAD_PASSPHRASE));
+			Assertions.assertEquals(1, metrics.count("TestProvider", KeychainOperation.DELETE_PASSPHRASE));
+			Assertions.assertEquals(1, metrics.count("TestCryptor", KeychainOperation.ENCRYPT));
+			Assertions.assertEquals(1, metrics.count("TestCryptor", KeychainOperation.DECRYPT));
+			Assertions.assertEquals(1, metrics.failures("TestCryptor", KeychainOperation.DECRYPT));
+			Assertions.assertTrue(metrics.latencies("TestProvider", KeychainOperation.STORE_PASSPHRASE).max() > 0);
+		} finally {
+			KeychainMetrics.removeListener(metrics);
+		}
+	}
+
+	@Test
+	public void storePassphraseAsyncPutsIntoKeychain() throws Exception {
+		var encrypted = new byte[] {'a','b','x'};
+		when(passphraseCryptor.encrypt(any(), any())).thenReturn(encrypted);
+		winKeychainBase.storePassphraseAsync("test3000", "display3000", "abc").get(10, TimeUnit.SECONDS);
+		verify(keychain).put(eq("test3000"), argThat(entry -> Arrays.equals(entry.ciphertext(), encrypted)));
+	}
+
+	@Test
+	public void storePassphraseAsyncFailsIfEncryptionIsNull() {
+		when(passphraseCryptor.encrypt(any(), any())).thenReturn(null);
+		var e = Assertions.assertThrows(ExecutionException.class, () -> winKeychainBase.storePassphraseAsync("test3000", "display3000", "abc").get(10, TimeUnit.SECONDS));
+		Assertions.assertInstanceOf(KeychainAccessException.class, e.getCause());
+		verifyNoInteractions(keychain);
+	}
+
+	@Test
+	public void deletePassphraseAsyncRemovesFromKeychain() throws Exception {
+		winKeychainBase.deletePassphraseAsync("test3000").get(10, TimeUnit.SECONDS);
+		verify(keychain).remove("test3000");
+	}
+
+	@Nested
+	public class Rekey {
+
+		@TempDir
+		Path tmpDir;
+		FileKeychain fileKeychain;
+		KeyedCryptor formerCryptor = new KeyedCryptor((byte) 1);
+		KeyedCryptor currentCryptor = new KeyedCryptor((byte) 2);
+
+		@BeforeEach
+		public void beforeEach() throws KeychainAccessException {
+			fileKeychain = spy(new FileKeychain(List.of(tmpDir.resolve("keychain.json"))));
+			var former = new TestProvider(fileKeychain, formerCryptor);
+			for (int i = 0; i < 20; i++) {
+				former.storePassphrase("id" + i, "display", "pass" + i);
+			}
+			clearInvocations(fileKeychain);
+		}
+
+		@Test
+		public void rekeyReencryptsAllEntriesWithSingleCommit() throws Exception {
+			var provider = new TestProvider(fileKeychain, currentCryptor);
+			var progress = new ConcurrentLinkedQueue<Integer>();
+
+			provider.rekey(formerCryptor, (done, total) -> {
+				Assertions.assertEquals(20, total);
+				progress.add(done);
+			}).get(10, TimeUnit.SECONDS);
+
+			Assertions.assertEquals(Set.copyOf(IntStream.rangeClosed(1, 20).boxed().toList()), Set.copyOf(progress));
+			for (int i = 0; i < 20; i++) {
+				Assertions.assertArrayEquals(("pass" + i).toCharArray(), provider.loadPassphrase("id" + i));
+			}
+			verify(fileKeychain, times(1)).putAll(any());
+			verify(fileKeychain, never()).put(any(), any());
+		}
+
+		@Test
+		public void rekeyKeepsUndecryptableEntries() throws Exception {
+			new TestProvider(fileKeychain, new KeyedCryptor((byte) 3)).storePassphrase("other", "display", "foreign");
+			var provider = new TestProvider(fileKeychain, currentCryptor);
+
+			provider.rekey(formerCryptor, (done, total) -> {}).get(10, TimeUnit.SECONDS);
+
+			Assertions.assertArrayEquals("pass0".toCharArray(), provider.loadPassphrase("id0"));
+			Assertions.assertArrayEquals("foreign".toCharArray(), new TestProvider(fileKeychain, new KeyedCryptor((byte) 3)).loadPassphrase("other"));
+		}
+
+		@Test
+		public void rekeySkipsEntriesChangedMeanwhile() throws Exception {
+			var provider = new TestProvider(fileKeychain, currentCryptor);
+			var changed = new AtomicBoolean();
+
+			provider.rekey(formerCryptor, (done, total) -> {
+				if (changed.compareAndSet(false, true)) {
+					try {
+						provider.changePassphrase("id5", "display", "new");
+					} catch (KeychainAccessException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}).get(10, TimeUnit.SECONDS);
+
+			Assertions.assertArrayEquals("new".toCharArray(), provider.loadPassphrase("id5"));
+			Assertions.assertArrayEquals("pass6".toCharArray(), provider.loadPassphrase("id6"));
+		}
+
+		@Test
+		public void cancelledRekeyCommitsNothing() throws Exception {
+			var provider = new TestProvider(fileKeychain, currentCryptor);
+			var started = new CountDownLatch(Math.min(20, WindowsKeychainAccessBase.REKEY_PARALLELISM));
+			var proceed = new CountDownLatch(1);
+			var workers = ConcurrentHashMap.<Thread>newKeySet();
+
+			var future = provider.rekey(formerCryptor, (done, total) -> {
+				workers.add(Thread.currentThread());
+				started.countDown();
+				try {
+					proceed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			started.await();
+			future.cancel(true);
+			proceed.countDown();
+
+			Assertions.assertThrows(CancellationException.class, future::join);
+			workers.forEach(Rekey::awaitIdle); //the last worker decides about the commit
+			verify(fileKeychain, never()).putAll(any());
+			Assertions.assertArrayEquals("pass0".toCharArray(), new TestProvider(fileKeychain, formerCryptor).loadPassphrase("id0"));
+		}
+
+		@Test
+		public void failedRekeyCommitsNothing() throws KeychainAccessException {
+			var provider = new TestProvider(fileKeychain, new KeyedCryptor((byte) 2) {
+				@Override
+				public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+					return null;
+				}
+			});
+
+			var e = Assertions.assertThrows(ExecutionException.class, () -> provider.rekey(formerCryptor, (done, total) -> {}).get(10, TimeUnit.SECONDS));
+
+			Assertions.assertInstanceOf(KeychainAccessException.class, e.getCause());
+			verify(fileKeychain, never()).putAll(any());
+		}
+
+		@Test
+		public void rekeyRewrapsEnvelopeDataKey() throws Exception {
+			var envelopeKeychain = new FileKeychain(List.of(tmpDir.resolve("envelope.json")));
+			var former = new TestProvider(envelopeKeychain, new EnvelopeCryptor(formerCryptor, envelopeKeychain));
+			former.storePassphrase("envelope", "display", "secret");
+			var provider = new TestProvider(envelopeKeychain, new EnvelopeCryptor(currentCryptor, envelopeKeychain));
+
+			provider.rekey(formerCryptor, (done, total) -> Assertions.assertEquals(1, total)).get(10, TimeUnit.SECONDS);
+
+			Assertions.assertArrayEquals("secret".toCharArray(), provider.loadPassphrase("envelope"));
+		}
+
+		// pooled workers never terminate, hence they are joined by waiting until they have left the keychain code
+		private static void awaitIdle(Thread worker) {
+			var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (Arrays.stream(worker.getStackTrace()).anyMatch(frame -> frame.getClassName().startsWith(WindowsKeychainAccessBase.class.getName()))) {
+				Assertions.assertTrue(System.nanoTime() < deadline, "worker still busy");
+				Thread.yield();
+			}
+		}
+
+	}
+
+	@Nested
+	public class SharedCache {
+
+		@TempDir
+		Path tmpDir;
+		KeyedCryptor cryptor = new KeyedCryptor((byte) 1);
+		TestProvider caching;
+		TestProvider otherProcess;
+
+		@BeforeEach
+		public void beforeEach() throws KeychainAccessException {
+			var settings = FileKeychain.Settings.FOR_TESTING.withShared(true);
+			var keychainPaths = List.of(tmpDir.resolve("keychain.json"));
+			caching = new TestProvider(new FileKeychain(keychainPaths, settings), cryptor, new SecretCache(Duration.ofMinutes(1), Duration.ZERO));
+			otherProcess = new TestProvider(new FileKeychain(keychainPaths, settings), cryptor);
+			caching.storePassphrase("id1", "display", "pass1");
+			caching.storePassphrase("id2", "display", "pass2");
+			Assertions.assertArrayEquals("pass1".toCharArray(), caching.loadPassphrase("id1"));
+			Assertions.assertArrayEquals("pass2".toCharArray(), caching.loadPassphrase("id2"));
+		}
+
+		@Test
+		public void passphraseDeletedByOtherProcessIsNotServed() throws KeychainAccessException {
+			otherProcess.deletePassphrase("id1");
+
+			Assertions.assertNull(caching.loadPassphrase("id1"));
+			Assertions.assertNull(caching.loadPassphraseAsync("id1").join());
+			Assertions.assertEquals(Set.of("id2"), caching.loadPassphrases(List.of("id1", "id2")).keySet());
+		}
+
+		@Test
+		public void passphraseChangedByOtherProcessIsNotServed() throws KeychainAccessException {
+			otherProcess.changePassphrase("id1", "display", "changed1");
+
+			Assertions.assertArrayEquals("changed1".toCharArray(), caching.loadPassphrases(List.of("id1", "id2")).get("id1"));
+			Assertions.assertArrayEquals("changed1".toCharArray(), caching.loadPassphrase("id1"));
+			Assertions.assertArrayEquals("pass2".toCharArray(), caching.loadPassphrase("id2"));
+		}
+
+	}
+
+	/**
+	 * Encrypts by prefixing the key and xoring with it, hence decryption with another key fails.
+	 */
+	static class KeyedCryptor implements PassphraseCryptor {
+
+		private final byte key;
+
+		KeyedCryptor(byte key) {
+			this.key = key;
+		}
+
+		@Override
+		public byte[] encrypt(byte[] cleartext, byte[] additionalData) {
+			var ciphertext = new byte[cleartext.length + 1];
+			ciphertext[0] = key;
+			for (int i = 0; i < cleartext.length; i++) {
+				ciphertext[i + 1] = (byte) (cleartext[i] ^ key);
+			}
+			return ciphertext;
+		}
+
+		@Override
+		public byte[] decrypt(byte[] ciphertext, byte[] additionalData) {
+			if (ciphertext.length == 0 || ciphertext[0] != key) {
+				return null;
+			}
+			var cleartext = new byte[ciphertext.length - 1];
+			for (int i = 0; i < cleartext.length; i++) {
+				cleartext[i] = (byte) (ciphertext[i + 1] ^ key);
+			}
+			return cleartext;
+		}
+
+		@Override
+		public boolean isSupported() {
+			return true;
+		}
+	}
+
+	private void storeQuietly(String id) {
+		try {
+			winKeychainBase.storePassphrase(id, "display", "abc");
+		} catch (KeychainAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	@DisplayName("TestProvider")
 	static class TestProvider extends WindowsKeychainAccessBase {
 
 		public TestProvider(Keychain keychain, PassphraseCryptor passphraseCryptor) {
-			super(keychain, passphraseCryptor);
+			super("TestProvider", keychain, passphraseCryptor);
+		}
+
+		public TestProvider(Keychain keychain, PassphraseCryptor passphraseCryptor, boolean preload) {
+			super("TestProvider", keychain, passphraseCryptor, preload, null);
+		}
+
+		public TestProvider(Keychain keychain, PassphraseCryptor passphraseCryptor, SecretCache secretCache) {
+			super("TestProvider", keychain, passphraseCryptor, false, secretCache);
+		}
+
+		public TestProvider(Keychain keychain, PassphraseCryptor passphraseCryptor, Duration cryptorTimeout) {
+			super("TestProvider", keychain, passphraseCryptor, false, null, cryptorTimeout);
 		}
 
 	}
@@ -0,0 +1,63 @@
+package org.cryptomator.windows.keychain.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class KeychainMetricsTest {
+
+	private final InMemoryKeychainMetrics metrics = new InMemoryKeychainMetrics();
+
+	@AfterEach
+	public void afterEach() {
+		KeychainMetrics.removeListener(metrics);
+	}
+
+	@Test
+	@DisplayName("Completed operations are reported to registered listeners only")
+	public void testRegistration() {
+		long unmeasured = KeychainMetrics.start();
+		KeychainMetrics.addListener(metrics);
+		long measured = KeychainMetrics.start();
+
+		KeychainMetrics.completed("Component", KeychainOperation.DECRYPT, unmeasured, true);
+		KeychainMetrics.completed("Component", KeychainOperation.DECRYPT, measured, true);
+		KeychainMetrics.completed("Component", KeychainOperation.DECRYPT, KeychainMetrics.start(), false);
+		KeychainMetrics.bytesWritten("Component", KeychainOperation.KEYCHAIN_SAVE, 42);
+		KeychainMetrics.removeListener(metrics);
+		KeychainMetrics.completed("Component", KeychainOperation.DECRYPT, measured, true);
+
+		Assertions.assertEquals(2, metrics.count("Component", KeychainOperation.DECRYPT));
+		Assertions.assertEquals(1, metrics.failures("Component", KeychainOperation.DECRYPT));
+		Assertions.assertEquals(42, metrics.bytesWritten("Component", KeychainOperation.KEYCHAIN_SAVE));
+		Assertions.assertEquals(0, metrics.count("Other", KeychainOperation.DECRYPT));
+	}
+
+	@Test
+	@DisplayName("A failing listener does not affect other listeners")
+	public void testFailingListener() {
+		KeychainMetricsListener failing = (component, operation, durationNanos, succeeded) -> {
+			throw new IllegalStateException("fail");
+		};
+		KeychainMetrics.addListener(failing);
+		KeychainMetrics.addListener(metrics);
+		try {
+			Assertions.assertDoesNotThrow(() -> KeychainMetrics.completed("Component", KeychainOperation.ENCRYPT, KeychainMetrics.start(), true));
+			Assertions.assertEquals(1, metrics.count("Component", KeychainOperation.ENCRYPT));
+		} finally {
+			KeychainMetrics.removeListener(failing);
+		}
+	}
+
+	@Test
+	@DisplayName("Resetting discards all metrics")
+	public void testReset() {
+		metrics.operationCompleted("Component", KeychainOperation.ENCRYPT, 1_000, false);
+		metrics.reset();
+
+		Assertions.assertEquals(0, metrics.count("Component", KeychainOperation.ENCRYPT));
+		Assertions.assertEquals(0, metrics.failures("Component", KeychainOperation.ENCRYPT));
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.cryptomator.windows.keychain.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.stream.LongStream;
+
+public class LatencyHistogramTest {
+
+	@ParameterizedTest
+	@DisplayName("Each value is within the precision of its bucket")
+	@ValueSource(longs = {0, 1, 127, 128, 129, 255, 256, 1_000, 65_537, 1_000_000, 123_456_789, (1L << 37) - 1})
+	public void testBuckets(long value) {
+		int index = LatencyHistogram.indexOf(value);
+		long highest = LatencyHistogram.highestEquivalentValue(index);
+		long lowest = index == 0 ? 0 : LatencyHistogram.highestEquivalentValue(index - 1) + 1;
+
+		Assertions.assertTrue(lowest <= value && value <= highest, value + " not in [" + lowest + ", " + highest + "]");
+		Assertions.assertTrue(highest - lowest <= Math.max(0, lowest / 64), "Bucket too wide");
+	}
+
+	@Test
+	@DisplayName("Percentiles are within 1/64 of the exact value")
+	public void testPercentiles() {
+		var histogram = new LatencyHistogram();
+		LongStream.rangeClosed(1, 10_000).forEach(i -> histogram.record(i * 1_000));
+
+		Assertions.assertEquals(10_000, histogram.count());
+		Assertions.assertEquals(10_000_000, histogram.max());
+		Assertions.assertEquals(5_000_500, histogram.mean(), 0.1);
+		assertWithinPrecision(5_000_000, histogram.valueAtPercentile(50));
+		assertWithinPrecision(9_900_000, histogram.valueAtPercentile(99));
+		assertWithinPrecision(1_000, histogram.valueAtPercentile(0));
+		Assertions.assertEquals(10_000_000, histogram.valueAtPercentile(100));
+	}
+
+	@Test
+	@DisplayName("Values beyond the trackable range are counted in the last bucket")
+	public void testOverflow() {
+		var histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(-1);
+
+		Assertions.assertEquals(2, histogram.count());
+		Assertions.assertEquals(Long.MAX_VALUE, histogram.max());
+		Assertions.assertEquals(0, histogram.valueAtPercentile(50));
+		Assertions.assertEquals((1L << 37) - 1, histogram.valueAtPercentile(100));
+	}
+
+	@Test
+	@DisplayName("An empty histogram reports zeros")
+	public void testEmpty() {
+		var histogram = new LatencyHistogram();
+
+		Assertions.assertEquals(0, histogram.count());
+		Assertions.assertEquals(0, histogram.mean());
+		Assertions.assertEquals(0, histogram.valueAtPercentile(99.9));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> histogram.valueAtPercentile(101));
+	}
+
+	@Test
+	@DisplayName("Concurrent recordings are not lost")
+	public void testConcurrentRecording() throws InterruptedException {
+		var histogram = new LatencyHistogram();
+		var threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(Thread.ofPlatform().start(() -> LongStream.range(0, 10_000).forEach(histogram::record)));
+		}
+		for (var thread : threads) {
+			thread.join();
+		}
+
+		Assertions.assertEquals(40_000, histogram.count());
+		Assertions.assertEquals(9_999, histogram.max());
+	}
+
+	private static void assertWithinPrecision(long expected, long actual) {
+		Assertions.assertTrue(Math.abs(actual - expected) <= expected / 64, "Expected about " + expected + ", but was " + actual);
+	}
+
+}